@@ -15,6 +15,8 @@ import androidx.annotation.NonNull;
 import com.android.launcher3.Launcher;
 import com.android.systemui.plugins.shared.LauncherOverlayManager;
 import com.android.wm.shell.ext.RemoteCarTaskView;
+import com.android.wm.shell.ext.utils.BinderTrafficStats;
+import com.android.wm.shell.ext.utils.SurfaceControlTracker;
 
 import java.io.PrintWriter;
 
@@ -128,6 +130,8 @@ public class TaskOverlayManager implements LauncherOverlayManager {
         w.println(prefix + "TaskLauncherOverlay");
         w.println(prefix + " mIsOverlayVisible: " + mIsOverlayVisible);
         w.println(prefix + " mOverlayLayoutParams: " + mOverlayLayoutParams);
+        SurfaceControlTracker.dump(w, prefix + " ");
+        BinderTrafficStats.dumpAll(w, prefix + " ");
     }
 
     @Override
@@ -1,63 +1,159 @@
 package io.github.ole.taskview.service;
 
+import android.Manifest;
 import android.app.ActivityManager;
-import android.app.TaskInfo;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Binder;
 import android.os.IBinder;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.Display;
 import android.view.SurfaceControl;
 
 import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
 
+import com.android.wm.shell.ext.CarTaskEvent;
+import com.android.wm.shell.ext.CarTaskProjection;
+import com.android.wm.shell.ext.CarTaskProjectionPage;
 import com.android.wm.shell.ext.ICarActivityService;
 import com.android.wm.shell.ext.ICarSystemUIProxy;
 import com.android.wm.shell.ext.ICarSystemUIProxyCallback;
+import com.android.wm.shell.ext.ICarTaskStackListener;
+import com.android.wm.shell.ext.TaskStackFilter;
+import com.android.wm.shell.ext.utils.BinderTrafficStats;
+import com.android.wm.shell.ext.utils.FlightRecordDecoder;
+import com.android.wm.shell.ext.utils.FlightRecorder;
+import com.android.wm.shell.ext.utils.SurfaceControlTracker;
 import com.android.wm.shell.ext.utils.TaskInfoHelper;
+import com.android.wm.shell.ext.utils.TaskViewTrace;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Service responsible for Activities in Car.
+ *
+ * <p>A single instance is shared by all the clients of {@link TaskViewService}, the monitor
+ * tokens and the callbacks of each client are tracked in a {@link ClientRecord}.
  */
 public final class CarActivityService extends ICarActivityService.Stub {
 
     private static final String TAG = "CarActivityService";
     private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
+    private static final String FLIGHT_RECORDER_FILE_NAME = "car_activity_service.flight";
+    // Dumps the decoded flight recorder records.
+    private static final String DUMP_ARG_FLIGHT_RECORDER = "--flight-recorder";
+
+    private static final BinderTrafficStats TRAFFIC_STATS =
+            BinderTrafficStats.forInterface(ICarActivityService.Stub.class);
 
     private final Context mContext;
 
+    // Guards the registrations of the monitors, the clients and the proxy. The tasks are kept in
+    // mTaskShards, which has a lock per display, so that the updates of different displays don't
+    // wait for each other. The task updates don't take mLock, they check their monitor token
+    // against mMonitors. The update lock of mTaskShards is entered before mLock, see
+    // replaceTaskSnapshot(), and mLock is never held while entering mTaskShards.
     private final Object mLock = new Object();
 
-    // LinkedHashMap is used instead of SparseXXX because a predictable iteration order is needed.
-    // The tasks here need be ordered as per their stack order. The stack order is maintained
-    // using a combination of onTaskAppeared and onTaskInfoChanged callbacks.
-    @GuardedBy("mLock")
-    private final LinkedHashMap<Integer, ActivityManager.RunningTaskInfo> mTasks =
-            new LinkedHashMap<>();
-    @GuardedBy("mLock")
-    private final SparseArray<SurfaceControl> mTaskToSurfaceMap = new SparseArray<>();
+    // The task infos along with their queried fields, see TaskRecord.
+    private final DisplayTaskShards mTaskShards = new DisplayTaskShards();
+    // Thread safe, and cheap enough to be written under the locks.
+    private final FlightRecorder mFlightRecorder;
 
     @GuardedBy("mLock")
     private final ArrayMap<IBinder, IBinder.DeathRecipient> mMonitorTokens = new ArrayMap<>();
+    // Replaced under mLock whenever a monitor is registered or removed, read without it by the
+    // task updates.
+    private volatile MonitorState mMonitors = MonitorState.EMPTY;
 
-    @GuardedBy("mLock")
-    private ICarSystemUIProxy mCarSystemUIProxy;
+    // Written under mLock, read without it.
+    private volatile ICarSystemUIProxy mCarSystemUIProxy;
     @GuardedBy("mLock")
     private final RemoteCallbackList<ICarSystemUIProxyCallback> mCarSystemUIProxyCallbacks =
-            new RemoteCallbackList<>();
+            new RemoteCallbackList<>() {
+                @Override
+                public void onCallbackDied(ICarSystemUIProxyCallback callback, Object cookie) {
+                    synchronized (mLock) {
+                        mCallbackDispatcher.remove(callback.asBinder());
+                        ClientRecord client = (ClientRecord) cookie;
+                        client.mCallbacks.remove(callback.asBinder());
+                        removeClientIfEmptyLocked(client);
+                    }
+                }
+            };
+
+    private final CarSystemUIProxyCallbackDispatcher mCallbackDispatcher =
+            new CarSystemUIProxyCallbackDispatcher();
+
+    // How long mLock is held by the registrations and the snapshot replacements.
+    @GuardedBy("mLock")
+    private long mLockHoldCount;
+    @GuardedBy("mLock")
+    private long mLockHoldTotalNanos;
+    @GuardedBy("mLock")
+    private long mLockHoldMaxNanos;
+
+    // By calling pid.
+    @GuardedBy("mLock")
+    private final SparseArray<ClientRecord> mClients = new SparseArray<>();
 
-    private IBinder mCurrentMonitor;
+    // The sequence number of the last batch received through onTaskEvents, NO_SEQ until the
+    // first batch of the current monitor. The batches of a monitor are oneway calls of the same
+    // binder, so they arrive one after the other.
+    private static final long NO_SEQ = -1;
+    private final AtomicLong mLastTaskEventSeq = new AtomicLong(NO_SEQ);
+    private final AtomicLong mLostTaskEventBatches = new AtomicLong();
+
+    // The chunks of the snapshot being received through replaceTaskSnapshot.
+    @GuardedBy("mLock")
+    private final ArrayList<TaskRecord> mSnapshotChunks = new ArrayList<>();
+    @GuardedBy("mLock")
+    private int mSnapshotGeneration;
+    @GuardedBy("mLock")
+    private int mSnapshotNextChunk;
 
     public CarActivityService(Context context) {
+        this(context, new File(context.getFilesDir(), FLIGHT_RECORDER_FILE_NAME));
+    }
+
+    CarActivityService(Context context, File flightRecorderFile) {
         mContext = context;
+        mFlightRecorder = FlightRecorder.open(flightRecorderFile, FlightRecorder.DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        return TRAFFIC_STATS.onTransact(code, data, reply, flags,
+                () -> super.onTransact(code, data, reply, flags));
+    }
+
+    /**
+     * Stops the threads of the service and unmaps its flight recorder. Only the instances created
+     * by the tests are closed, the one of {@link TaskViewService} lives as long as its process.
+     */
+    void close() {
+        mTaskShards.quit();
+        mFlightRecorder.close();
     }
 
     @Override
@@ -66,30 +162,87 @@ public final class CarActivityService extends ICarActivityService.Stub {
 
         IBinder.DeathRecipient deathRecipient = () -> cleanUpMonitorToken(token);
         synchronized (mLock) {
+            long lockStart = SystemClock.uptimeNanos();
             try {
-                token.linkToDeath(deathRecipient, /* flags= */ 0);
-            } catch (RemoteException e) {
-                // 'token' owner might be dead already.
-                Log.e(TAG, "failed to linkToDeath: " + token);
-                return;
+                try {
+                    token.linkToDeath(deathRecipient, /* flags= */ 0);
+                } catch (RemoteException e) {
+                    // 'token' owner might be dead already.
+                    Log.e(TAG, "failed to linkToDeath: " + token);
+                    return;
+                }
+                mMonitorTokens.put(token, deathRecipient);
+                getClientLocked().mMonitorTokens.add(token);
+                mFlightRecorder.record(FlightRecorder.EVENT_MONITOR_REGISTERED,
+                        Binder.getCallingPid(), /* arg1= */ 0, /* arg2= */ 0);
+                mLastTaskEventSeq.set(NO_SEQ);
+                mMonitors = new MonitorState(token, mMonitorTokens.keySet());
+                // When new TaskOrganizer takes the control, it'll send the status of the whole
+                // tasks in the system again through replaceTaskSnapshot(), which swaps the old
+                // status out. Until then the readers keep seeing the old status instead of
+                // nothing.
+                mSnapshotChunks.clear();
+                mSnapshotNextChunk = 0;
+            } finally {
+                recordLockHoldLocked(lockStart);
             }
-            mMonitorTokens.put(token, deathRecipient);
-            mCurrentMonitor = token;
-            // When new TaskOrganizer takes the control, it'll get the status of the whole tasks
-            // in the system again. So drops the old status.
-            mTasks.clear();
         }
     }
 
     private void cleanUpMonitorToken(IBinder token) {
+        // Waits for the running task updates, so that the updates of a removed monitor are done
+        // once it is removed.
+        mTaskShards.beginExclusiveUpdate();
+        try {
+            cleanUpMonitorTokenExclusive(token);
+        } finally {
+            mTaskShards.endExclusiveUpdate();
+        }
+    }
+
+    private void cleanUpMonitorTokenExclusive(IBinder token) {
+        boolean wasCurrent;
         synchronized (mLock) {
-            if (mCurrentMonitor == token) {
-                mCurrentMonitor = null;
-            }
+            IBinder currentMonitor = mMonitors.mCurrent;
+            wasCurrent = currentMonitor == token;
+            mFlightRecorder.record(FlightRecorder.EVENT_MONITOR_REMOVED, wasCurrent ? 1 : 0,
+                    /* arg1= */ 0, /* arg2= */ 0);
             IBinder.DeathRecipient deathRecipient = mMonitorTokens.remove(token);
             if (deathRecipient != null) {
                 token.unlinkToDeath(deathRecipient, /* flags= */ 0);
             }
+            mMonitors = new MonitorState(wasCurrent ? null : currentMonitor,
+                    mMonitorTokens.keySet());
+            for (int i = mClients.size() - 1; i >= 0; i--) {
+                ClientRecord client = mClients.valueAt(i);
+                if (client.mMonitorTokens.remove(token)) {
+                    removeClientIfEmptyLocked(client);
+                }
+            }
+        }
+        if (wasCurrent) {
+            // The leashes came from the task organizer of the monitor, the next one sends its own
+            // leashes once the exclusive update ends.
+            mTaskShards.clearLeashes();
+        }
+    }
+
+    /** Returns the record of the calling client, creating it if needed. */
+    @GuardedBy("mLock")
+    private ClientRecord getClientLocked() {
+        int pid = Binder.getCallingPid();
+        ClientRecord client = mClients.get(pid);
+        if (client == null) {
+            client = new ClientRecord(pid, Binder.getCallingUid());
+            mClients.put(pid, client);
+        }
+        return client;
+    }
+
+    @GuardedBy("mLock")
+    private void removeClientIfEmptyLocked(ClientRecord client) {
+        if (client.isEmpty() && mClients.get(client.mPid) == client) {
+            mClients.remove(client.mPid);
         }
     }
 
@@ -99,24 +252,37 @@ public final class CarActivityService extends ICarActivityService.Stub {
         if (DBG) {
             Log.d(TAG, "onTaskAppeared: " + token + ", " + TaskInfoHelper.toString(taskInfo));
         }
-        synchronized (mLock) {
-            if (isDeniedToUpdateLocked(token)) {
+        mTaskShards.beginUpdate();
+        try {
+            if (isDeniedToUpdate(token)) {
                 return;
             }
-            mTasks.put(taskInfo.taskId, taskInfo);
-            if (leash != null) {
-                mTaskToSurfaceMap.put(taskInfo.taskId, leash);
-            }
+            TaskRecord record = TaskRecord.from(taskInfo);
+            recordTaskEvent(FlightRecorder.EVENT_TASK_APPEARED, record);
+            mTaskShards.onTaskAppeared(record, leash);
+            mTaskShards.publish();
+        } finally {
+            mTaskShards.endUpdate();
         }
     }
 
-    @GuardedBy("mLock")
-    private boolean isDeniedToUpdateLocked(IBinder token) {
-        if (mCurrentMonitor != null && mCurrentMonitor == token) {
+    private void recordTaskEvent(int event, TaskRecord record) {
+        mFlightRecorder.record(event, record.getTaskId(), record.getDisplayId(),
+                record.isVisible() ? FlightRecorder.FLAG_VISIBLE : 0);
+        if (event == FlightRecorder.EVENT_TASK_APPEARED) {
+            // Connects the task to its task view launch, if any.
+            TaskViewTrace.traceTaskAppeared(record.getTaskId());
+        }
+    }
+
+    /** Checks {@code token} against the registered monitors, without locking. */
+    private boolean isDeniedToUpdate(IBinder token) {
+        MonitorState monitors = mMonitors;
+        if (monitors.mCurrent != null && monitors.mCurrent == token) {
             return false;
         }
         // Fallback during no current Monitor exists.
-        boolean allowed = (mCurrentMonitor == null && mMonitorTokens.containsKey(token));
+        boolean allowed = (monitors.mCurrent == null && monitors.mTokens.contains(token));
         if (!allowed) {
             Log.w(TAG, "Report with the invalid token: " + token);
         }
@@ -128,16 +294,17 @@ public final class CarActivityService extends ICarActivityService.Stub {
         if (DBG) {
             Log.d(TAG, "onTaskVanished: " + token + ", " + TaskInfoHelper.toString(taskInfo));
         }
-        synchronized (mLock) {
-            if (isDeniedToUpdateLocked(token)) {
+        mTaskShards.beginUpdate();
+        try {
+            if (isDeniedToUpdate(token)) {
                 return;
             }
-            // Do not remove the taskInfo from the mLastKnownDisplayIdForTask array since when
-            // the task vanishes, the display ID becomes -1. We want to preserve this information
-            // to finish the blocking ui for that display ID. mTasks and
-            // mLastKnownDisplayIdForTask come in sync when the blocking ui is finished.
-            mTasks.remove(taskInfo.taskId);
-            mTaskToSurfaceMap.remove(taskInfo.taskId);
+            TaskRecord record = TaskRecord.from(taskInfo);
+            recordTaskEvent(FlightRecorder.EVENT_TASK_VANISHED, record);
+            mTaskShards.onTaskVanished(record);
+            mTaskShards.publish();
+        } finally {
+            mTaskShards.endUpdate();
         }
     }
 
@@ -146,17 +313,141 @@ public final class CarActivityService extends ICarActivityService.Stub {
         if (DBG) {
             Log.d(TAG, "onTaskInfoChanged: " + token + ", " + TaskInfoHelper.toString(taskInfo));
         }
-        synchronized (mLock) {
-            if (isDeniedToUpdateLocked(token)) {
+        mTaskShards.beginUpdate();
+        try {
+            if (isDeniedToUpdate(token)) {
+                return;
+            }
+            TaskRecord record = TaskRecord.from(taskInfo);
+            recordTaskEvent(FlightRecorder.EVENT_TASK_INFO_CHANGED, record);
+            mTaskShards.onTaskInfoChanged(record);
+            mTaskShards.publish();
+        } finally {
+            mTaskShards.endUpdate();
+        }
+    }
+
+    /**
+     * Records how long mLock has been held since {@code startNanos}, called from a
+     * {@code finally} so that the early returns and the exceptions are recorded too. The task
+     * updates are recorded per display by {@link DisplayTaskShards}.
+     */
+    @GuardedBy("mLock")
+    private void recordLockHoldLocked(long startNanos) {
+        long held = SystemClock.uptimeNanos() - startNanos;
+        mLockHoldCount++;
+        mLockHoldTotalNanos += held;
+        mLockHoldMaxNanos = Math.max(mLockHoldMaxNanos, held);
+    }
+
+    @Override
+    public void onTaskEvents(IBinder token, List<CarTaskEvent> events, long seq) {
+        if (DBG) {
+            Log.d(TAG, "onTaskEvents: " + token + ", size=" + events.size() + ", seq=" + seq);
+        }
+        mTaskShards.beginUpdate();
+        try {
+            if (isDeniedToUpdate(token)) {
                 return;
             }
-            // The key should be removed and added again so that it jumps to the front of the
-            // LinkedHashMap.
-            TaskInfo oldTaskInfo = mTasks.remove(taskInfo.taskId);
-            mTasks.put(taskInfo.taskId, taskInfo);
+            long lastSeq = mLastTaskEventSeq.getAndSet(seq);
+            if (lastSeq != NO_SEQ && seq != lastSeq + 1) {
+                long lostBatches = mLostTaskEventBatches.addAndGet(Math.max(0, seq - lastSeq - 1));
+                Log.w(TAG, "Task events gap detected: expected seq=" + (lastSeq + 1) + ", got "
+                        + seq + ", lostBatches=" + lostBatches);
+                mFlightRecorder.record(FlightRecorder.EVENT_TASK_EVENTS_GAP,
+                        (int) Math.min(Integer.MAX_VALUE, seq - lastSeq - 1), (int) seq,
+                        /* arg2= */ 0);
+            }
+            for (int i = 0, size = events.size(); i < size; i++) {
+                CarTaskEvent event = events.get(i);
+                TaskRecord record;
+                switch (event.getType()) {
+                    case CarTaskEvent.TYPE_TASK_APPEARED:
+                        record = TaskRecord.from(event.getTaskInfo());
+                        recordTaskEvent(FlightRecorder.EVENT_TASK_APPEARED, record);
+                        mTaskShards.onTaskAppeared(record, event.getLeash());
+                        break;
+                    case CarTaskEvent.TYPE_TASK_INFO_CHANGED:
+                        record = TaskRecord.from(event.getTaskInfo());
+                        recordTaskEvent(FlightRecorder.EVENT_TASK_INFO_CHANGED, record);
+                        mTaskShards.onTaskInfoChanged(record);
+                        break;
+                    case CarTaskEvent.TYPE_TASK_VANISHED:
+                        record = TaskRecord.from(event.getTaskInfo());
+                        recordTaskEvent(FlightRecorder.EVENT_TASK_VANISHED, record);
+                        mTaskShards.onTaskVanished(record);
+                        break;
+                    default:
+                        Log.w(TAG, "Ignoring unexpected task event: " + event);
+                }
+            }
+            // Published once for the whole batch.
+            mTaskShards.publish();
+        } finally {
+            mTaskShards.endUpdate();
         }
     }
 
+    @Override
+    public void replaceTaskSnapshot(IBinder token, List<ActivityManager.RunningTaskInfo> tasks,
+                                    int generation, int chunkIndex, int chunkCount) {
+        if (DBG) {
+            Log.d(TAG, "replaceTaskSnapshot: " + token + ", size=" + tasks.size()
+                    + ", generation=" + generation + ", chunk=" + chunkIndex + "/" + chunkCount);
+        }
+        // Waits for the running task updates, the whole state is swapped below.
+        mTaskShards.beginExclusiveUpdate();
+        try {
+            replaceTaskSnapshotExclusive(token, tasks, generation, chunkIndex, chunkCount);
+        } finally {
+            mTaskShards.endExclusiveUpdate();
+        }
+    }
+
+    private void replaceTaskSnapshotExclusive(IBinder token,
+                                              List<ActivityManager.RunningTaskInfo> tasks,
+                                              int generation, int chunkIndex, int chunkCount) {
+        ArrayList<TaskRecord> records;
+        synchronized (mLock) {
+            long lockStart = SystemClock.uptimeNanos();
+            try {
+                if (isDeniedToUpdate(token)) {
+                    return;
+                }
+                if (chunkIndex == 0) {
+                    mSnapshotChunks.clear();
+                    mSnapshotGeneration = generation;
+                    mSnapshotNextChunk = 0;
+                }
+                if (generation != mSnapshotGeneration || chunkIndex != mSnapshotNextChunk) {
+                    Log.w(TAG, "Dropping out of order snapshot chunk " + chunkIndex
+                            + " of generation " + generation + ", expected chunk "
+                            + mSnapshotNextChunk + " of generation " + mSnapshotGeneration);
+                    return;
+                }
+                for (int i = 0; i < tasks.size(); i++) {
+                    mSnapshotChunks.add(TaskRecord.from(tasks.get(i)));
+                }
+                mSnapshotNextChunk++;
+                if (mSnapshotNextChunk < chunkCount) {
+                    return;
+                }
+                records = new ArrayList<>(mSnapshotChunks);
+                mSnapshotChunks.clear();
+                mSnapshotNextChunk = 0;
+            } finally {
+                recordLockHoldLocked(lockStart);
+            }
+        }
+        // Swaps the whole state at once, so the readers never see a partial snapshot. The shards
+        // publish their new state one after the other, each one is complete.
+        mFlightRecorder.record(FlightRecorder.EVENT_TASK_SNAPSHOT_REPLACED, records.size(),
+                generation, /* arg2= */ 0);
+        mTaskShards.replaceTasks(records);
+        mTaskShards.publish();
+    }
+
     @Override
     public void unregisterTaskMonitor(IBinder token) {
         if (DBG) Log.d(TAG, "unregisterTaskMonitor: " + token);
@@ -177,21 +468,61 @@ public final class CarActivityService extends ICarActivityService.Stub {
 
     /** Car service internal version without the permission enforcement. */
     public List<ActivityManager.RunningTaskInfo> getVisibleTasksInternal(int displayId) {
-        ArrayList<ActivityManager.RunningTaskInfo> tasksToReturn = new ArrayList<>();
-        synchronized (mLock) {
-            for (ActivityManager.RunningTaskInfo taskInfo : mTasks.values()) {
-                // Activities launched in the private display or non-focusable display can't be
-                // focusable. So we just monitor all visible Activities/Tasks.
-                if (TaskInfoHelper.isVisible(taskInfo)
-                        && (displayId == Display.INVALID_DISPLAY
-                        || displayId == TaskInfoHelper.getDisplayId(taskInfo))) {
-                    tasksToReturn.add(taskInfo);
-                }
-            }
+        // Activities launched in the private display or non-focusable display can't be
+        // focusable. So we just monitor all visible Activities/Tasks.
+        // The returned list is unmodifiable and shared by the readers of the same version.
+        return mTaskShards.getSnapshot(displayId).getVisibleTasks(displayId);
+    }
+
+    /** Returns the top visible task of the given display, {@code null} if there is none. */
+    @Override
+    public ActivityManager.RunningTaskInfo getTopTask(int displayId) {
+        return mTaskShards.getSnapshot(displayId).getTopTask(displayId);
+    }
+
+    @Override
+    public CarTaskProjectionPage getVisibleTaskProjections(int displayId, int offset, int limit) {
+        if (offset < 0 || limit <= 0) {
+            throw new IllegalArgumentException("Invalid page, offset=" + offset + ", limit="
+                    + limit);
+        }
+        VisibleTaskIndex.Snapshot snapshot = mTaskShards.getSnapshot(displayId);
+        List<CarTaskProjection> projections = snapshot.getVisibleTaskProjections(displayId);
+        int end = (int) Math.min((long) offset + limit, projections.size());
+        if (offset >= end) {
+            return new CarTaskProjectionPage(List.of(), CarTaskProjectionPage.NO_MORE_PAGES,
+                    snapshot.getVersion());
+        }
+        return new CarTaskProjectionPage(projections.subList(offset, end),
+                end < projections.size() ? end : CarTaskProjectionPage.NO_MORE_PAGES,
+                snapshot.getVersion());
+    }
+
+    @Override
+    public ParcelFileDescriptor getVisibleTaskProjectionsBulk(int displayId) {
+        List<CarTaskProjection> projections =
+                mTaskShards.getSnapshot(displayId).getVisibleTaskProjections(displayId);
+        // The returned descriptor is closed once written to the reply.
+        try (SharedMemory memory = CarTaskProjection.writeToSharedMemory(projections)) {
+            return ParcelFileDescriptor.dup(memory.getFileDescriptor());
+        } catch (ErrnoException | IOException e) {
+            throw new IllegalStateException("Failed to share the task projections", e);
+        }
+    }
+
+    @Override
+    public void registerTaskStackListener(ICarTaskStackListener listener,
+                                          TaskStackFilter filter) {
+        if (DBG) {
+            Log.d(TAG, "registerTaskStackListener: " + listener.asBinder() + ", " + filter);
         }
-        // Reverse the order so that the resultant order is top to bottom.
-        Collections.reverse(tasksToReturn);
-        return tasksToReturn;
+        mTaskShards.registerListener(listener, filter);
+    }
+
+    @Override
+    public void unregisterTaskStackListener(ICarTaskStackListener listener) {
+        if (DBG) Log.d(TAG, "unregisterTaskStackListener: " + listener.asBinder());
+        mTaskShards.unregisterListener(listener);
     }
 
     @Override
@@ -199,55 +530,56 @@ public final class CarActivityService extends ICarActivityService.Stub {
         if (DBG) {
             Log.d(TAG, "registerCarSystemUIProxy " + carSystemUIProxy.toString());
         }
+        ArrayList<ICarSystemUIProxyCallback> callbacks;
         synchronized (mLock) {
-            if (mCarSystemUIProxy != null) {
-                throw new UnsupportedOperationException("Car system UI proxy is already "
-                        + "registered");
-            }
-
-            mCarSystemUIProxy = carSystemUIProxy;
+            long lockStart = SystemClock.uptimeNanos();
             try {
-                mCarSystemUIProxy.asBinder().linkToDeath(new IBinder.DeathRecipient(){
-                    @Override
-                    public void binderDied() {
-                        synchronized (mLock) {
-                            Log.d(TAG, "CarSystemUIProxy died " + mCarSystemUIProxy.toString());
-                            mCarSystemUIProxy.asBinder().unlinkToDeath(this, /* flags= */ 0);
-                            mCarSystemUIProxy = null;
-                        }
-                    }
-                }, /* flags= */0);
-            } catch (RemoteException remoteException) {
-                mCarSystemUIProxy = null;
-                throw new IllegalStateException("Linking to binder death failed for "
-                        + "ICarSystemUIProxy, the System UI might already died", remoteException);
-            }
-
-            if (DBG) {
-                Log.d(TAG, "CarSystemUIProxy registered.");
-            }
+                if (mCarSystemUIProxy != null) {
+                    throw new UnsupportedOperationException("Car system UI proxy is already "
+                            + "registered");
+                }
 
-            int numCallbacks = mCarSystemUIProxyCallbacks.beginBroadcast();
-            if (DBG) {
-                Log.d(TAG, "Broadcasting CarSystemUIProxy connected to callbacks" + numCallbacks);
-            }
-            for (int i = 0; i < numCallbacks; i++) {
+                mCarSystemUIProxy = carSystemUIProxy;
                 try {
-                    mCarSystemUIProxyCallbacks.getBroadcastItem(i).onConnected(
-                            mCarSystemUIProxy);
+                    mCarSystemUIProxy.asBinder().linkToDeath(new IBinder.DeathRecipient(){
+                        @Override
+                        public void binderDied() {
+                            synchronized (mLock) {
+                                Log.d(TAG, "CarSystemUIProxy died "
+                                        + mCarSystemUIProxy.toString());
+                                mCarSystemUIProxy.asBinder().unlinkToDeath(this, /* flags= */ 0);
+                                mCarSystemUIProxy = null;
+                            }
+                        }
+                    }, /* flags= */0);
                 } catch (RemoteException remoteException) {
-                    Log.e(TAG, "Error dispatching onConnected", remoteException);
+                    mCarSystemUIProxy = null;
+                    throw new IllegalStateException("Linking to binder death failed for "
+                            + "ICarSystemUIProxy, the System UI might already died",
+                            remoteException);
+                }
+
+                if (DBG) {
+                    Log.d(TAG, "CarSystemUIProxy registered.");
                 }
+
+                int numCallbacks = mCarSystemUIProxyCallbacks.beginBroadcast();
+                callbacks = new ArrayList<>(numCallbacks);
+                for (int i = 0; i < numCallbacks; i++) {
+                    callbacks.add(mCarSystemUIProxyCallbacks.getBroadcastItem(i));
+                }
+                mCarSystemUIProxyCallbacks.finishBroadcast();
+            } finally {
+                recordLockHoldLocked(lockStart);
             }
-            mCarSystemUIProxyCallbacks.finishBroadcast();
         }
+        // Delivered outside of mLock, the task events shouldn't wait for the callbacks.
+        mCallbackDispatcher.dispatchConnected(callbacks, carSystemUIProxy);
     }
 
     @Override
     public boolean isCarSystemUIProxyRegistered() {
-        synchronized (mLock) {
-            return mCarSystemUIProxy != null;
-        }
+        return mCarSystemUIProxy != null;
     }
 
     @Override
@@ -255,31 +587,37 @@ public final class CarActivityService extends ICarActivityService.Stub {
         if (DBG) {
             Log.d(TAG, "addCarSystemUIProxyCallback " + callback.toString());
         }
+        ICarSystemUIProxy proxy;
         synchronized (mLock) {
-            boolean alreadyExists = mCarSystemUIProxyCallbacks.unregister(callback);
-            mCarSystemUIProxyCallbacks.register(callback);
-
-            if (alreadyExists) {
-                // Do not trigger onConnected() if the callback already exists because it is either
-                // already called or will be called when the mCarSystemUIProxy is registered.
-                Log.d(TAG, "Callback exists already, skip calling onConnected()");
-                return;
-            }
+            long lockStart = SystemClock.uptimeNanos();
+            try {
+                boolean alreadyExists = mCarSystemUIProxyCallbacks.unregister(callback);
+                ClientRecord client = getClientLocked();
+                mCarSystemUIProxyCallbacks.register(callback, client);
+                client.mCallbacks.add(callback.asBinder());
+
+                if (alreadyExists) {
+                    // Do not trigger onConnected() if the callback already exists because it is
+                    // either already called or will be called when the mCarSystemUIProxy is
+                    // registered.
+                    Log.d(TAG, "Callback exists already, skip calling onConnected()");
+                    return;
+                }
 
-            // Trigger onConnected() on the callback.
-            if (mCarSystemUIProxy == null) {
-                if (DBG) {
-                    Log.d(TAG, "Callback stored locally, car system ui proxy not "
-                            + "registered.");
+                // Trigger onConnected() on the callback.
+                proxy = mCarSystemUIProxy;
+                if (proxy == null) {
+                    if (DBG) {
+                        Log.d(TAG, "Callback stored locally, car system ui proxy not "
+                                + "registered.");
+                    }
+                    return;
                 }
-                return;
-            }
-            try {
-                callback.onConnected(mCarSystemUIProxy);
-            } catch (RemoteException remoteException) {
-                Log.e(TAG, "Error when dispatching onConnected", remoteException);
+            } finally {
+                recordLockHoldLocked(lockStart);
             }
         }
+        mCallbackDispatcher.dispatchConnected(List.of(callback), proxy);
     }
 
     @Override
@@ -289,6 +627,93 @@ public final class CarActivityService extends ICarActivityService.Stub {
         }
         synchronized (mLock) {
             mCarSystemUIProxyCallbacks.unregister(callback);
+            mCallbackDispatcher.remove(callback.asBinder());
+            for (int i = mClients.size() - 1; i >= 0; i--) {
+                ClientRecord client = mClients.valueAt(i);
+                if (client.mCallbacks.remove(callback.asBinder())) {
+                    removeClientIfEmptyLocked(client);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (mContext.checkCallingOrSelfPermission(Manifest.permission.DUMP)
+                != PackageManager.PERMISSION_GRANTED) {
+            pw.println("Permission Denial: can't dump " + TAG + " from pid="
+                    + Binder.getCallingPid() + ", uid=" + Binder.getCallingUid()
+                    + " without permission " + Manifest.permission.DUMP);
+            return;
+        }
+        if (args != null && args.length > 0 && args[0].equals(DUMP_ARG_FLIGHT_RECORDER)) {
+            try {
+                FlightRecordDecoder.decode(mFlightRecorder.getFile(), pw, /* csv= */ false);
+            } catch (IOException e) {
+                pw.println("Failed to decode " + mFlightRecorder.getFile() + ": " + e);
+            }
+            return;
+        }
+        synchronized (mLock) {
+            pw.println(TAG + ":");
+            pw.println("  monitors=" + mMonitorTokens.size());
+            pw.println("  lostTaskEventBatches=" + mLostTaskEventBatches.get());
+            pw.println("  lockHolds=" + mLockHoldCount
+                    + ", avgHoldUs=" + (mLockHoldCount == 0
+                            ? 0 : mLockHoldTotalNanos / mLockHoldCount / 1000)
+                    + ", maxHoldUs=" + mLockHoldMaxNanos / 1000);
+            pw.println("  clients=" + mClients.size());
+            for (int i = 0; i < mClients.size(); i++) {
+                pw.println("    " + mClients.valueAt(i));
+            }
+            mCallbackDispatcher.dump(pw, "  ");
+        }
+        // Outside of mLock, which is never held while entering mTaskShards.
+        mTaskShards.dump(pw, "  ");
+        SurfaceControlTracker.dump(pw, "  ");
+        mFlightRecorder.dump(pw, "  ");
+        BinderTrafficStats.dumpAll(pw, "  ");
+    }
+
+    /** The registered monitor tokens and the current monitor, never modified once published. */
+    private static final class MonitorState {
+        static final MonitorState EMPTY = new MonitorState(/* current= */ null, Set.of());
+
+        // The last registered monitor, null once it is removed.
+        @Nullable
+        final IBinder mCurrent;
+        final Set<IBinder> mTokens;
+
+        MonitorState(@Nullable IBinder current, Collection<IBinder> tokens) {
+            mCurrent = current;
+            mTokens = Set.copyOf(tokens);
+        }
+    }
+
+    /** The monitor tokens and the callbacks registered by a client process. */
+    private static final class ClientRecord {
+        final int mPid;
+        final int mUid;
+        final ArraySet<IBinder> mMonitorTokens = new ArraySet<>();
+        final ArraySet<IBinder> mCallbacks = new ArraySet<>();
+
+        ClientRecord(int pid, int uid) {
+            mPid = pid;
+            mUid = uid;
+        }
+
+        boolean isEmpty() {
+            return mMonitorTokens.isEmpty() && mCallbacks.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "ClientRecord {"
+                    + "pid=" + mPid
+                    + ", uid=" + mUid
+                    + ", monitorTokens=" + mMonitorTokens.size()
+                    + ", callbacks=" + mCallbacks.size()
+                    + "}";
         }
     }
 }
@@ -0,0 +1,106 @@
+package io.github.ole.taskview.service;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+
+import com.android.wm.shell.ext.ICarSystemUIProxy;
+import com.android.wm.shell.ext.ICarSystemUIProxyCallback;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Delivers {@link ICarSystemUIProxyCallback#onConnected} to the clients of
+ * {@link CarActivityService}.
+ *
+ * <p>{@link ICarSystemUIProxyCallback} is a oneway interface, so each call only queues a
+ * transaction for its client and returns: a slow or hung client can't delay the delivery to the
+ * others. The callers must not hold their lock, since a callback living in the same process is
+ * called inline like any local binder.
+ */
+final class CarSystemUIProxyCallbackDispatcher {
+    private static final String TAG = "CarSystemUIProxyCallbackDispatcher";
+    private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private final Object mLock = new Object();
+
+    // By callback binder, until the callback is removed.
+    @GuardedBy("mLock")
+    private final ArrayMap<IBinder, CallbackStats> mStats = new ArrayMap<>();
+    @GuardedBy("mLock")
+    private long mDispatchedCount;
+    @GuardedBy("mLock")
+    private long mFailedCount;
+
+    /** Calls {@code onConnected(proxy)} on each of {@code callbacks}, in order. */
+    void dispatchConnected(List<ICarSystemUIProxyCallback> callbacks, ICarSystemUIProxy proxy) {
+        if (DBG) {
+            Log.d(TAG, "Broadcasting CarSystemUIProxy connected to callbacks " + callbacks.size());
+        }
+        for (int i = 0; i < callbacks.size(); i++) {
+            dispatchConnected(callbacks.get(i), proxy);
+        }
+    }
+
+    private void dispatchConnected(ICarSystemUIProxyCallback callback, ICarSystemUIProxy proxy) {
+        boolean failed = false;
+        try {
+            callback.onConnected(proxy);
+        } catch (RemoteException remoteException) {
+            Log.e(TAG, "Error dispatching onConnected", remoteException);
+            failed = true;
+        }
+        synchronized (mLock) {
+            CallbackStats stats = getStatsLocked(callback.asBinder());
+            if (failed) {
+                mFailedCount++;
+                stats.mFailedCount++;
+            } else {
+                mDispatchedCount++;
+                stats.mDispatchedCount++;
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private CallbackStats getStatsLocked(IBinder binder) {
+        CallbackStats stats = mStats.get(binder);
+        if (stats == null) {
+            stats = new CallbackStats();
+            mStats.put(binder, stats);
+        }
+        return stats;
+    }
+
+    /** Forgets the statistics of the callback. */
+    void remove(IBinder binder) {
+        synchronized (mLock) {
+            mStats.remove(binder);
+        }
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        synchronized (mLock) {
+            pw.println(prefix + TAG + ":");
+            pw.println(prefix + "  dispatched=" + mDispatchedCount);
+            pw.println(prefix + "  failed=" + mFailedCount);
+            for (int i = 0; i < mStats.size(); i++) {
+                pw.println(prefix + "    " + mStats.keyAt(i) + ": " + mStats.valueAt(i));
+            }
+        }
+    }
+
+    private static final class CallbackStats {
+        long mDispatchedCount;
+        long mFailedCount;
+
+        @Override
+        public String toString() {
+            return "dispatched=" + mDispatchedCount + ", failed=" + mFailedCount;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package io.github.ole.taskview.service;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.view.Display;
+import android.view.SurfaceControl;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.android.wm.shell.ext.ICarTaskStackListener;
+import com.android.wm.shell.ext.TaskStackFilter;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The task state of {@link CarActivityService}, sharded by display. Each {@link Shard} has its
+ * own lock and publishes its own {@link VisibleTaskIndex.Snapshot}, so that the updates and the
+ * queries of the driver display, the passenger displays and the cluster don't wait for each
+ * other.
+ *
+ * <p>A task moving to another display first leaves the shard of its previous display, then joins
+ * the one of its new display. The two shard locks are never held together, the readers may miss
+ * the task in between but never see it on both displays.
+ *
+ * <p>The task updates are made between {@link #beginUpdate()} and {@link #endUpdate()}, and run
+ * in parallel. The changes of the whole state, {@link #replaceTasks(List)} and the listener
+ * registrations, are made between {@link #beginExclusiveUpdate()} and
+ * {@link #endExclusiveUpdate()}. The updates of a task are expected to be made in order.
+ */
+final class DisplayTaskShards {
+    private static final String TAG = "DisplayTaskShards";
+
+    private final ReentrantReadWriteLock mUpdateLock = new ReentrantReadWriteLock();
+
+    private final Object mShardsLock = new Object();
+    // Copy on write, sorted by display id. Shards are never removed, there are only a few
+    // displays.
+    private volatile SparseArray<Shard> mShards = new SparseArray<>();
+    // The last known display of each task. Unlike the task infos of the vanished tasks, it still
+    // has the display of the task.
+    private final ConcurrentHashMap<Integer, Integer> mTaskDisplays = new ConcurrentHashMap<>();
+    // Shared by the shards, so that the versions are comparable across displays.
+    private final AtomicLong mVersions = new AtomicLong();
+    private final AtomicLong mMigrationCount = new AtomicLong();
+    private volatile MergedSnapshot mMergedSnapshot;
+
+    private final TaskLeashRegistry mTaskLeashes = new TaskLeashRegistry();
+    private final TaskStackListeners mTaskStackListeners = new TaskStackListeners();
+
+    /** Starts a task update, which can run in parallel with the other ones. */
+    void beginUpdate() {
+        mUpdateLock.readLock().lock();
+    }
+
+    void endUpdate() {
+        mUpdateLock.readLock().unlock();
+    }
+
+    /** Starts a change of the whole state, waiting for the running task updates. */
+    void beginExclusiveUpdate() {
+        mUpdateLock.writeLock().lock();
+    }
+
+    void endExclusiveUpdate() {
+        mUpdateLock.writeLock().unlock();
+    }
+
+    void onTaskAppeared(TaskRecord record, @Nullable SurfaceControl leash) {
+        TaskRecord migratedRecord = leavePreviousDisplay(record);
+        Shard shard = getOrCreateShard(record.getDisplayId());
+        synchronized (shard.mLock) {
+            long lockStart = SystemClock.uptimeNanos();
+            // Like the tasks of the shard, an already known task keeps its position.
+            TaskRecord oldRecord = shard.putLocked(record, /* keepPosition= */ true);
+            if (oldRecord == null) {
+                oldRecord = migratedRecord;
+            }
+            if (oldRecord == null) {
+                mTaskStackListeners.onTaskAppeared(record);
+            } else {
+                mTaskStackListeners.onTaskInfoChanged(oldRecord, record);
+            }
+            if (leash != null) {
+                mTaskLeashes.put(record.getTaskId(), leash);
+            }
+            shard.recordLockHoldLocked(lockStart);
+        }
+    }
+
+    void onTaskInfoChanged(TaskRecord record) {
+        TaskRecord migratedRecord = leavePreviousDisplay(record);
+        Shard shard = getOrCreateShard(record.getDisplayId());
+        synchronized (shard.mLock) {
+            long lockStart = SystemClock.uptimeNanos();
+            // The task jumps to the top of its display.
+            TaskRecord oldRecord = shard.putLocked(record, /* keepPosition= */ false);
+            mTaskLeashes.touch(record.getTaskId());
+            mTaskStackListeners.onTaskInfoChanged(
+                    oldRecord != null ? oldRecord : migratedRecord, record);
+            shard.recordLockHoldLocked(lockStart);
+        }
+    }
+
+    /**
+     * Removes the task, {@code record} is only used when the task isn't known. The display of a
+     * vanished task is invalid, the last known one is used instead.
+     */
+    void onTaskVanished(TaskRecord record) {
+        Integer displayId = mTaskDisplays.remove(record.getTaskId());
+        Shard shard = displayId == null ? null : getShard(displayId);
+        if (shard == null) {
+            mTaskLeashes.remove(record.getTaskId());
+            mTaskStackListeners.onTaskVanished(record);
+            return;
+        }
+        synchronized (shard.mLock) {
+            long lockStart = SystemClock.uptimeNanos();
+            TaskRecord oldRecord = shard.removeLocked(record.getTaskId());
+            mTaskLeashes.remove(record.getTaskId());
+            mTaskStackListeners.onTaskVanished(oldRecord != null ? oldRecord : record);
+            shard.recordLockHoldLocked(lockStart);
+        }
+    }
+
+    /**
+     * Removes the task from the shard of its previous display, if it has moved.
+     *
+     * @return the record of the task on its previous display, {@code null} if it hasn't moved.
+     */
+    @Nullable
+    private TaskRecord leavePreviousDisplay(TaskRecord record) {
+        Integer previousDisplayId = mTaskDisplays.put(record.getTaskId(), record.getDisplayId());
+        if (previousDisplayId == null || previousDisplayId == record.getDisplayId()) {
+            return null;
+        }
+        Shard previousShard = getShard(previousDisplayId);
+        if (previousShard == null) {
+            return null;
+        }
+        mMigrationCount.incrementAndGet();
+        synchronized (previousShard.mLock) {
+            long lockStart = SystemClock.uptimeNanos();
+            TaskRecord oldRecord = previousShard.removeLocked(record.getTaskId());
+            previousShard.recordLockHoldLocked(lockStart);
+            return oldRecord;
+        }
+    }
+
+    /**
+     * Replaces all the tasks by {@code records}, ordered from bottom to top. Should be called
+     * between {@link #beginExclusiveUpdate()} and {@link #endExclusiveUpdate()}.
+     */
+    void replaceTasks(List<TaskRecord> records) {
+        SparseArray<Shard> shards = mShards;
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.valueAt(i);
+            synchronized (shard.mLock) {
+                shard.clearLocked();
+            }
+        }
+        mTaskDisplays.clear();
+        mTaskLeashes.clear();
+        for (int i = 0; i < records.size(); i++) {
+            TaskRecord record = records.get(i);
+            Shard shard = getOrCreateShard(record.getDisplayId());
+            synchronized (shard.mLock) {
+                shard.putLocked(record, /* keepPosition= */ false);
+            }
+            mTaskDisplays.put(record.getTaskId(), record.getDisplayId());
+        }
+        mTaskStackListeners.onTasksReplaced(records);
+    }
+
+    /** Releases all the leashes, which came from the task organizer of the monitor. */
+    void clearLeashes() {
+        mTaskLeashes.clear();
+    }
+
+    /**
+     * Publishes the changed shards to the readers, then delivers the queued task stack changes to
+     * the listeners. Should be called after the updates.
+     */
+    void publish() {
+        SparseArray<Shard> shards = mShards;
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.valueAt(i);
+            // The thread which changed the shard publishes it in any case.
+            if (!shard.mChanged) {
+                continue;
+            }
+            synchronized (shard.mLock) {
+                long lockStart = SystemClock.uptimeNanos();
+                shard.publishLocked();
+                shard.recordLockHoldLocked(lockStart);
+            }
+        }
+        mTaskStackListeners.flush();
+    }
+
+    /** Registers the listener, which first receives the current tasks. */
+    void registerListener(ICarTaskStackListener listener, TaskStackFilter filter) {
+        beginExclusiveUpdate();
+        try {
+            ArrayList<TaskRecord> tasks = new ArrayList<>();
+            SparseArray<Shard> shards = mShards;
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = shards.valueAt(i);
+                synchronized (shard.mLock) {
+                    tasks.addAll(shard.mTasks.values());
+                }
+            }
+            mTaskStackListeners.register(listener, filter, tasks);
+            mTaskStackListeners.flush();
+        } finally {
+            endExclusiveUpdate();
+        }
+    }
+
+    void unregisterListener(ICarTaskStackListener listener) {
+        mTaskStackListeners.unregister(listener);
+    }
+
+    /**
+     * Returns the published state of the display without locking, of all the displays for
+     * {@link Display#INVALID_DISPLAY}.
+     */
+    VisibleTaskIndex.Snapshot getSnapshot(int displayId) {
+        if (displayId != Display.INVALID_DISPLAY) {
+            Shard shard = getShard(displayId);
+            return shard == null ? VisibleTaskIndex.Snapshot.EMPTY : shard.mSnapshot;
+        }
+        SparseArray<Shard> shards = mShards;
+        VisibleTaskIndex.Snapshot[] sources = new VisibleTaskIndex.Snapshot[shards.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = shards.valueAt(i).mSnapshot;
+        }
+        MergedSnapshot merged = mMergedSnapshot;
+        if (merged != null && Arrays.equals(merged.mSources, sources)) {
+            return merged.mSnapshot;
+        }
+        // The display whose top task changed last comes first, its top task is the top one.
+        ArrayList<Shard> ordered = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            ordered.add(shards.valueAt(i));
+        }
+        ordered.sort((a, b) -> Long.compare(b.mTopVersion, a.mTopVersion));
+        ArrayList<VisibleTaskIndex.Snapshot> snapshots = new ArrayList<>(ordered.size());
+        for (int i = 0; i < ordered.size(); i++) {
+            snapshots.add(ordered.get(i).mSnapshot);
+        }
+        merged = new MergedSnapshot(sources, VisibleTaskIndex.merge(snapshots));
+        mMergedSnapshot = merged;
+        return merged.mSnapshot;
+    }
+
+    @Nullable
+    private Shard getShard(int displayId) {
+        return mShards.get(displayId);
+    }
+
+    private Shard getOrCreateShard(int displayId) {
+        Shard shard = mShards.get(displayId);
+        if (shard != null) {
+            return shard;
+        }
+        synchronized (mShardsLock) {
+            shard = mShards.get(displayId);
+            if (shard == null) {
+                shard = new Shard(displayId);
+                SparseArray<Shard> shards = mShards.clone();
+                shards.put(displayId, shard);
+                mShards = shards;
+            }
+            return shard;
+        }
+    }
+
+    /** Stops the delivery to the task stack listeners, see {@link TaskStackListeners#quit()}. */
+    void quit() {
+        mTaskStackListeners.quit();
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + TAG + ":");
+        pw.println(prefix + "  tasks=" + mTaskDisplays.size());
+        pw.println(prefix + "  version=" + mVersions.get());
+        pw.println(prefix + "  migrations=" + mMigrationCount.get());
+        SparseArray<Shard> shards = mShards;
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.valueAt(i);
+            synchronized (shard.mLock) {
+                pw.println(prefix + "    " + shard);
+            }
+        }
+        mTaskLeashes.dump(pw, prefix + "  ");
+    }
+
+    /** The tasks of a display. */
+    private final class Shard {
+        final int mDisplayId;
+        final Object mLock = new Object();
+
+        // In stack order, from bottom to top, see onTaskInfoChanged.
+        @GuardedBy("mLock")
+        final LinkedHashMap<Integer, TaskRecord> mTasks = new LinkedHashMap<>();
+        @GuardedBy("mLock")
+        final VisibleTaskIndex mVisibleTasks = new VisibleTaskIndex();
+        // Written under mLock, read without it by publish().
+        volatile boolean mChanged;
+        // Published under mLock, read without it.
+        volatile VisibleTaskIndex.Snapshot mSnapshot = VisibleTaskIndex.Snapshot.EMPTY;
+        // The version in which the top task of the display last changed.
+        volatile long mTopVersion;
+
+        // How long mLock is held by the task updates.
+        @GuardedBy("mLock")
+        long mLockHoldCount;
+        @GuardedBy("mLock")
+        long mLockHoldTotalNanos;
+        @GuardedBy("mLock")
+        long mLockHoldMaxNanos;
+
+        Shard(int displayId) {
+            mDisplayId = displayId;
+        }
+
+        /**
+         * Adds or updates the task.
+         *
+         * @param keepPosition whether an already known task keeps its position, otherwise it
+         *                     becomes the top one.
+         * @return the previous record of the task on this display.
+         */
+        @GuardedBy("mLock")
+        @Nullable
+        TaskRecord putLocked(TaskRecord record, boolean keepPosition) {
+            TaskRecord oldRecord = keepPosition
+                    ? mTasks.put(record.getTaskId(), record)
+                    : mTasks.remove(record.getTaskId());
+            if (!keepPosition) {
+                // Removed and added again so that it jumps to the end of the LinkedHashMap.
+                mTasks.put(record.getTaskId(), record);
+            }
+            mChanged |= mVisibleTasks.update(record,
+                    /* moveToTop= */ !keepPosition || oldRecord == null);
+            return oldRecord;
+        }
+
+        @GuardedBy("mLock")
+        @Nullable
+        TaskRecord removeLocked(int taskId) {
+            TaskRecord oldRecord = mTasks.remove(taskId);
+            mChanged |= mVisibleTasks.remove(taskId);
+            return oldRecord;
+        }
+
+        @GuardedBy("mLock")
+        void clearLocked() {
+            mTasks.clear();
+            mVisibleTasks.clear();
+            mChanged = true;
+        }
+
+        @GuardedBy("mLock")
+        void publishLocked() {
+            if (!mChanged) {
+                return;
+            }
+            mChanged = false;
+            VisibleTaskIndex.Snapshot oldSnapshot = mSnapshot;
+            VisibleTaskIndex.Snapshot newSnapshot =
+                    mVisibleTasks.snapshot(mVersions.incrementAndGet());
+            TaskRecord oldTop = oldSnapshot.getTopRecord(mDisplayId);
+            TaskRecord newTop = newSnapshot.getTopRecord(mDisplayId);
+            boolean topChanged = oldTop == null
+                    ? newTop != null
+                    : newTop == null || oldTop.getTaskId() != newTop.getTaskId();
+            if (topChanged) {
+                // Written before mSnapshot, so that the readers of mSnapshot see it.
+                mTopVersion = newSnapshot.getVersion();
+                mTaskStackListeners.onTopTaskChanged(mDisplayId, newTop);
+            }
+            mSnapshot = newSnapshot;
+        }
+
+        /**
+         * Records how long mLock has been held since {@code startNanos}.
+         */
+        @GuardedBy("mLock")
+        void recordLockHoldLocked(long startNanos) {
+            long held = SystemClock.uptimeNanos() - startNanos;
+            mLockHoldCount++;
+            mLockHoldTotalNanos += held;
+            mLockHoldMaxNanos = Math.max(mLockHoldMaxNanos, held);
+        }
+
+        @Override
+        public String toString() {
+            return "Shard {"
+                    + "displayId=" + mDisplayId
+                    + ", tasks=" + mTasks.size()
+                    + ", version=" + mSnapshot.getVersion()
+                    + ", lockHolds=" + mLockHoldCount
+                    + ", avgHoldUs=" + (mLockHoldCount == 0
+                            ? 0 : mLockHoldTotalNanos / mLockHoldCount / 1000)
+                    + ", maxHoldUs=" + mLockHoldMaxNanos / 1000
+                    + "}";
+        }
+    }
+
+    /** The merged snapshot of all the displays and the snapshots it was made of. */
+    private static final class MergedSnapshot {
+        final VisibleTaskIndex.Snapshot[] mSources;
+        final VisibleTaskIndex.Snapshot mSnapshot;
+
+        MergedSnapshot(VisibleTaskIndex.Snapshot[] sources, VisibleTaskIndex.Snapshot snapshot) {
+            mSources = sources;
+            mSnapshot = snapshot;
+        }
+    }
+}
@@ -3,11 +3,14 @@ package io.github.ole.taskview.service;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.os.Parcel;
 import android.os.RemoteException;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.android.wm.shell.ext.utils.BinderTrafficStats;
+
 import io.github.ole.taskview.ITaskHost;
 import io.github.ole.taskview.ITaskHostCallback;
 import io.github.ole.taskview.ITaskOverlay;
@@ -17,6 +20,11 @@ public class TaskChannelService extends Service {
     private static final String TAG = "TaskChannelService";
     private static final String ACTION_HOST = "io.github.ole.taskview.action.GET_HOST";
     private static final String ACTION_OVERLAY = "io.github.ole.taskview.action.GET_OVERLAY";
+    // Dumped by CarActivityService, which runs in the same process.
+    private static final BinderTrafficStats OVERLAY_TRAFFIC_STATS =
+            BinderTrafficStats.forInterface(ITaskOverlay.Stub.class);
+    private static final BinderTrafficStats HOST_TRAFFIC_STATS =
+            BinderTrafficStats.forInterface(ITaskHost.Stub.class);
 
     private boolean mBackInterceptable = false;
     private ITaskOverlayCallback mTaskOverlayCallback;
@@ -27,6 +35,13 @@ public class TaskChannelService extends Service {
         }
     };
     private final ITaskOverlay mTaskOverlay = new ITaskOverlay.Stub() {
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+                throws RemoteException {
+            return OVERLAY_TRAFFIC_STATS.onTransact(code, data, reply, flags,
+                    () -> super.onTransact(code, data, reply, flags));
+        }
+
         @Override
         public void registerOverlayCallback(ITaskOverlayCallback overlay) {
             mTaskOverlayCallback = overlay;
@@ -75,6 +90,13 @@ public class TaskChannelService extends Service {
         }
     };
     private final ITaskHost mTaskHost = new ITaskHost.Stub() {
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+                throws RemoteException {
+            return HOST_TRAFFIC_STATS.onTransact(code, data, reply, flags,
+                    () -> super.onTransact(code, data, reply, flags));
+        }
+
         @Override
         public void registerHostCallback(ITaskHostCallback host) {
             mTaskHostCallback = host;
@@ -0,0 +1,112 @@
+package io.github.ole.taskview.service;
+
+import android.util.Log;
+import android.view.SurfaceControl;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns the task leashes received by {@link CarActivityService}. Each leash pins native
+ * SurfaceFlinger handles until it is released, so a leash is released as soon as it is replaced,
+ * removed or evicted.
+ *
+ * <p>At most {@link #MAX_LEASHES} leashes are kept, the least recently used one is evicted first.
+ *
+ * <p>Thread safe without locking, the leashes of all the displays are kept here and the updates
+ * of different displays don't wait for each other. The updates of a task are expected to be made
+ * in order, see {@link DisplayTaskShards}.
+ */
+final class TaskLeashRegistry {
+    private static final String TAG = "TaskLeashRegistry";
+
+    static final int MAX_LEASHES = 64;
+
+    private final ConcurrentHashMap<Integer, Entry> mLeashes = new ConcurrentHashMap<>();
+    // Stamps the uses of the leashes, the least recently used one has the smallest stamp.
+    private final AtomicLong mUseClock = new AtomicLong();
+
+    private final AtomicLong mAddedCount = new AtomicLong();
+    private final AtomicLong mReleasedCount = new AtomicLong();
+    private final AtomicLong mEvictedCount = new AtomicLong();
+
+    /** Takes the ownership of {@code leash}, releasing the previous leash of the task. */
+    void put(int taskId, SurfaceControl leash) {
+        Entry old = mLeashes.put(taskId, new Entry(leash, mUseClock.incrementAndGet()));
+        mAddedCount.incrementAndGet();
+        if (old != null && old.mLeash != leash) {
+            release(old.mLeash);
+        }
+        if (mLeashes.size() > MAX_LEASHES) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        // Only scanned when over the limit, there are at most a few more than MAX_LEASHES.
+        Map.Entry<Integer, Entry> eldest = null;
+        for (Map.Entry<Integer, Entry> e : mLeashes.entrySet()) {
+            if (eldest == null || e.getValue().mLastUse < eldest.getValue().mLastUse) {
+                eldest = e;
+            }
+        }
+        // Another thread may have removed it in between, then it released the leash.
+        if (eldest != null && mLeashes.remove(eldest.getKey(), eldest.getValue())) {
+            mEvictedCount.incrementAndGet();
+            Log.w(TAG, "Too many task leashes, evicting the one of task " + eldest.getKey());
+            release(eldest.getValue().mLeash);
+        }
+    }
+
+    /** Marks the leash of the task as recently used, it is evicted last. */
+    void touch(int taskId) {
+        Entry entry = mLeashes.get(taskId);
+        if (entry != null) {
+            entry.mLastUse = mUseClock.incrementAndGet();
+        }
+    }
+
+    /** Releases the leash of the task, if any. */
+    void remove(int taskId) {
+        Entry entry = mLeashes.remove(taskId);
+        if (entry != null) {
+            release(entry.mLeash);
+        }
+    }
+
+    /** Releases all the leashes. */
+    void clear() {
+        for (Integer taskId : mLeashes.keySet()) {
+            remove(taskId);
+        }
+    }
+
+    int size() {
+        return mLeashes.size();
+    }
+
+    private void release(SurfaceControl leash) {
+        leash.release();
+        mReleasedCount.incrementAndGet();
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + TAG + ":");
+        pw.println(prefix + "  outstanding=" + mLeashes.size() + "/" + MAX_LEASHES);
+        pw.println(prefix + "  added=" + mAddedCount.get());
+        pw.println(prefix + "  released=" + mReleasedCount.get());
+        pw.println(prefix + "  evicted=" + mEvictedCount.get());
+    }
+
+    private static final class Entry {
+        final SurfaceControl mLeash;
+        volatile long mLastUse;
+
+        Entry(SurfaceControl leash, long lastUse) {
+            mLeash = leash;
+            mLastUse = lastUse;
+        }
+    }
+}
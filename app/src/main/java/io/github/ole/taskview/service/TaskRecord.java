@@ -0,0 +1,112 @@
+package io.github.ole.taskview.service;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+
+import com.android.wm.shell.ext.CarTaskProjection;
+import com.android.wm.shell.ext.utils.TaskInfoHelper;
+
+/**
+ * The fields of a {@link ActivityManager.RunningTaskInfo} which {@link CarActivityService} queries
+ * on every event, extracted once, along with the task info itself which is handed out unchanged
+ * to the callers of the full task info API.
+ *
+ * <p>Immutable, a new record is created for each task info change. The task info must not be
+ * modified once it is part of a record.
+ */
+final class TaskRecord {
+    private final int mTaskId;
+    private final int mDisplayId;
+    private final boolean mVisible;
+    private final boolean mRunning;
+    @Nullable
+    private final ComponentName mBaseActivity;
+    @Nullable
+    private final ComponentName mTopActivity;
+    private final Rect mBounds;
+    private final int mWindowingMode;
+    private final ActivityManager.RunningTaskInfo mTaskInfo;
+
+    private TaskRecord(int taskId, int displayId, boolean visible, boolean running,
+                       @Nullable ComponentName baseActivity, @Nullable ComponentName topActivity,
+                       Rect bounds, int windowingMode, ActivityManager.RunningTaskInfo taskInfo) {
+        mTaskId = taskId;
+        mDisplayId = displayId;
+        mVisible = visible;
+        mRunning = running;
+        mBaseActivity = baseActivity;
+        mTopActivity = topActivity;
+        mBounds = bounds;
+        mWindowingMode = windowingMode;
+        mTaskInfo = taskInfo;
+    }
+
+    /** Creates the record of the given task info. */
+    static TaskRecord from(ActivityManager.RunningTaskInfo taskInfo) {
+        return new TaskRecord(taskInfo.taskId, TaskInfoHelper.getDisplayId(taskInfo),
+                TaskInfoHelper.isVisible(taskInfo), taskInfo.isRunning,
+                taskInfo.baseActivity, taskInfo.topActivity,
+                new Rect(taskInfo.configuration.windowConfiguration.getBounds()),
+                taskInfo.configuration.windowConfiguration.getWindowingMode(), taskInfo);
+    }
+
+    int getTaskId() {
+        return mTaskId;
+    }
+
+    int getDisplayId() {
+        return mDisplayId;
+    }
+
+    boolean isVisible() {
+        return mVisible;
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /** Returns a copy of the bounds of the task. */
+    Rect getBounds() {
+        return new Rect(mBounds);
+    }
+
+    @Nullable
+    ComponentName getBaseActivity() {
+        return mBaseActivity;
+    }
+
+    @Nullable
+    ComponentName getTopActivity() {
+        return mTopActivity;
+    }
+
+    /**
+     * Returns the full task info of this record, with its token, configuration, task description,
+     * etc. Must not be modified.
+     */
+    ActivityManager.RunningTaskInfo toRunningTaskInfo() {
+        return mTaskInfo;
+    }
+
+    /** Returns the lean view of the task sent to the clients. */
+    CarTaskProjection toProjection() {
+        return new CarTaskProjection(mTaskId, mDisplayId, mTopActivity, mBounds, mVisible);
+    }
+
+    @Override
+    public String toString() {
+        return "TaskRecord {"
+                + "taskId=" + mTaskId
+                + ", displayId=" + mDisplayId
+                + ", visible=" + mVisible
+                + ", running=" + mRunning
+                + ", topActivity=" + mTopActivity
+                + ", bounds=" + mBounds.toShortString()
+                + ", windowingMode=" + mWindowingMode
+                + "}";
+    }
+}
@@ -0,0 +1,270 @@
+package io.github.ole.taskview.service;
+
+import android.app.ActivityManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.wm.shell.ext.ICarTaskStackListener;
+import com.android.wm.shell.ext.TaskStackFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link ICarTaskStackListener}s registered to {@link CarActivityService}.
+ *
+ * <p>The task changes are queued by the service under the lock of their display, then delivered
+ * by {@link #flush()} on a dedicated thread, where they are filtered for each listener. A listener
+ * only receives the changes queued after its snapshot.
+ *
+ * <p>Thread safe, the changes are delivered in the order they are queued. The queue is lock free,
+ * so that the updates of different displays don't wait for each other here.
+ */
+final class TaskStackListeners {
+    private static final String TAG = "TaskStackListeners";
+
+    private final RemoteCallbackList<ICarTaskStackListener> mListeners =
+            new RemoteCallbackList<>();
+    private final Handler mHandler;
+
+    private final ConcurrentLinkedQueue<Event> mPendingEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicLong mLastEventSeq = new AtomicLong();
+    // Whether a delivery of the queued events is posted and hasn't started yet.
+    private final AtomicBoolean mDeliveryPosted = new AtomicBoolean();
+    private final Runnable mDeliverRunnable = this::deliverPending;
+
+    TaskStackListeners() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /** Drops the listeners and stops the delivery thread once the queued events are delivered. */
+    void quit() {
+        mListeners.kill();
+        mHandler.getLooper().quitSafely();
+    }
+
+    boolean isEmpty() {
+        return mListeners.getRegisteredCallbackCount() == 0;
+    }
+
+    /**
+     * Registers the listener, which first receives {@code tasks}, ordered from bottom to top on
+     * each display.
+     */
+    void register(ICarTaskStackListener listener, TaskStackFilter filter,
+                  Collection<TaskRecord> tasks) {
+        Event snapshot = new Event(Event.TYPE_SNAPSHOT, mLastEventSeq.incrementAndGet());
+        snapshot.mTarget = listener.asBinder();
+        snapshot.mTasks = new ArrayList<>(tasks);
+        mListeners.register(listener, new Registration(filter, snapshot.mSeq));
+        mPendingEvents.add(snapshot);
+    }
+
+    void unregister(ICarTaskStackListener listener) {
+        mListeners.unregister(listener);
+    }
+
+    /** Sends {@code tasks}, ordered from bottom to top, as a new snapshot to all the listeners. */
+    void onTasksReplaced(Collection<TaskRecord> tasks) {
+        if (isEmpty()) {
+            return;
+        }
+        Event snapshot = new Event(Event.TYPE_SNAPSHOT, mLastEventSeq.incrementAndGet());
+        snapshot.mTasks = new ArrayList<>(tasks);
+        mPendingEvents.add(snapshot);
+    }
+
+    void onTaskAppeared(TaskRecord record) {
+        enqueue(Event.TYPE_APPEARED, record, /* oldRecord= */ null);
+    }
+
+    void onTaskInfoChanged(@Nullable TaskRecord oldRecord, TaskRecord record) {
+        enqueue(Event.TYPE_INFO_CHANGED, record, oldRecord);
+    }
+
+    void onTaskVanished(TaskRecord record) {
+        enqueue(Event.TYPE_VANISHED, record, /* oldRecord= */ null);
+    }
+
+    void onTopTaskChanged(int displayId, @Nullable TaskRecord record) {
+        if (isEmpty()) {
+            return;
+        }
+        Event event = new Event(Event.TYPE_TOP_TASK_CHANGED, mLastEventSeq.incrementAndGet());
+        event.mDisplayId = displayId;
+        event.mRecord = record;
+        mPendingEvents.add(event);
+    }
+
+    private void enqueue(int type, TaskRecord record, @Nullable TaskRecord oldRecord) {
+        if (isEmpty()) {
+            return;
+        }
+        Event event = new Event(type, mLastEventSeq.incrementAndGet());
+        event.mRecord = record;
+        event.mOldRecord = oldRecord;
+        mPendingEvents.add(event);
+    }
+
+    /**
+     * Delivers the queued events. The delivery thread takes them from the queue, so there is a
+     * single delivery posted for the flushes made in the meantime.
+     */
+    void flush() {
+        if (mPendingEvents.isEmpty()) {
+            return;
+        }
+        if (mDeliveryPosted.compareAndSet(false, true)) {
+            mHandler.post(mDeliverRunnable);
+        }
+    }
+
+    private void deliverPending() {
+        // Cleared before taking the events, the ones queued from now on are flushed again.
+        mDeliveryPosted.set(false);
+        ArrayList<Event> events = new ArrayList<>();
+        Event event;
+        while ((event = mPendingEvents.poll()) != null) {
+            events.add(event);
+        }
+        if (!events.isEmpty()) {
+            deliver(events);
+        }
+    }
+
+    private void deliver(List<Event> events) {
+        int numListeners = mListeners.beginBroadcast();
+        try {
+            for (int i = 0; i < numListeners; i++) {
+                ICarTaskStackListener listener = mListeners.getBroadcastItem(i);
+                Registration registration = (Registration) mListeners.getBroadcastCookie(i);
+                for (int j = 0; j < events.size(); j++) {
+                    Event event = events.get(j);
+                    if (!event.isFor(listener.asBinder(), registration)) {
+                        continue;
+                    }
+                    try {
+                        event.dispatch(listener, registration.mFilter);
+                    } catch (RemoteException e) {
+                        Log.w(TAG, "Failed to dispatch " + event + " to " + listener.asBinder(),
+                                e);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            mListeners.finishBroadcast();
+        }
+    }
+
+    private static final class Registration {
+        final TaskStackFilter mFilter;
+        // The sequence number of the snapshot sent on registration.
+        final long mSeq;
+
+        Registration(TaskStackFilter filter, long seq) {
+            mFilter = filter;
+            mSeq = seq;
+        }
+    }
+
+    /** A queued change, filtered and delivered to each listener on the delivery thread. */
+    private static final class Event {
+        static final int TYPE_SNAPSHOT = 0;
+        static final int TYPE_APPEARED = 1;
+        static final int TYPE_INFO_CHANGED = 2;
+        static final int TYPE_VANISHED = 3;
+        static final int TYPE_TOP_TASK_CHANGED = 4;
+
+        final int mType;
+        final long mSeq;
+        // Only set for the snapshot of a new listener.
+        @Nullable
+        IBinder mTarget;
+        @Nullable
+        List<TaskRecord> mTasks;
+        @Nullable
+        TaskRecord mRecord;
+        @Nullable
+        TaskRecord mOldRecord;
+        int mDisplayId;
+
+        Event(int type, long seq) {
+            mType = type;
+            mSeq = seq;
+        }
+
+        boolean isFor(IBinder listener, Registration registration) {
+            if (mTarget != null) {
+                return mTarget == listener;
+            }
+            return mSeq > registration.mSeq;
+        }
+
+        void dispatch(ICarTaskStackListener listener, TaskStackFilter filter)
+                throws RemoteException {
+            switch (mType) {
+                case TYPE_SNAPSHOT:
+                    ArrayList<ActivityManager.RunningTaskInfo> tasks = new ArrayList<>();
+                    for (int i = 0; i < mTasks.size(); i++) {
+                        TaskRecord record = mTasks.get(i);
+                        if (matches(filter, record)) {
+                            tasks.add(record.toRunningTaskInfo());
+                        }
+                    }
+                    listener.onTaskStackSnapshot(tasks);
+                    break;
+                case TYPE_APPEARED:
+                    if (matches(filter, mRecord)) {
+                        listener.onTaskAppeared(getTaskInfo());
+                    }
+                    break;
+                case TYPE_INFO_CHANGED:
+                    // Also reported when the task stops matching, so the listener can drop it.
+                    if (matches(filter, mRecord) || matches(filter, mOldRecord)) {
+                        listener.onTaskInfoChanged(getTaskInfo());
+                    }
+                    break;
+                case TYPE_VANISHED:
+                    if (matches(filter, mRecord)) {
+                        listener.onTaskVanished(getTaskInfo());
+                    }
+                    break;
+                case TYPE_TOP_TASK_CHANGED:
+                    if (filter.matchesDisplay(mDisplayId)) {
+                        listener.onTopTaskChanged(mDisplayId,
+                                mRecord == null ? null : getTaskInfo());
+                    }
+                    break;
+                default:
+                    Log.w(TAG, "Ignoring unexpected event: " + this);
+            }
+        }
+
+        private ActivityManager.RunningTaskInfo getTaskInfo() {
+            return mRecord.toRunningTaskInfo();
+        }
+
+        private static boolean matches(TaskStackFilter filter, @Nullable TaskRecord record) {
+            return record != null && filter.matches(record.getDisplayId(),
+                    record.getBaseActivity(), record.getTopActivity(), record.isVisible());
+        }
+
+        @Override
+        public String toString() {
+            return "Event {type=" + mType + ", seq=" + mSeq + ", record=" + mRecord + "}";
+        }
+    }
+}
@@ -6,10 +6,27 @@ import android.os.IBinder;
 
 import androidx.annotation.Nullable;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class TaskViewService extends Service {
+    // Shared by all the clients, so that they see the same tasks and monitors.
+    private CarActivityService mCarActivityService;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mCarActivityService = new CarActivityService(getApplicationContext());
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return new CarActivityService(getApplicationContext());
+        return mCarActivityService;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mCarActivityService.dump(fd, writer, args);
     }
 }
@@ -0,0 +1,235 @@
+package io.github.ole.taskview.service;
+
+import android.app.ActivityManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.Display;
+
+import androidx.annotation.Nullable;
+
+import com.android.wm.shell.ext.CarTaskProjection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The visible tasks of {@link CarActivityService}, per display and in stack order, kept up to
+ * date with each task event so that the queries don't need to go through all the tasks.
+ *
+ * <p>Not thread safe, the writers are responsible for the locking. The readers go through the
+ * immutable {@link Snapshot}s published by {@link #snapshot(long)}.
+ */
+final class VisibleTaskIndex {
+    // Ordered from bottom to top, like the tasks of DisplayTaskShards.
+    private final ArrayList<TaskRecord> mAllVisibleTasks = new ArrayList<>();
+    private final SparseArray<ArrayList<TaskRecord>> mVisibleTasksByDisplay = new SparseArray<>();
+    // The display of each task in the index.
+    private final SparseIntArray mTaskDisplays = new SparseIntArray();
+
+    /**
+     * Adds, updates or removes the task depending on its visibility.
+     *
+     * @param moveToTop whether the task should become the top one, otherwise it keeps its position
+     *                  if it is already indexed on the same display.
+     * @return whether the index has changed.
+     */
+    boolean update(TaskRecord record, boolean moveToTop) {
+        int taskId = record.getTaskId();
+        int displayId = record.getDisplayId();
+        boolean visible = record.isVisible();
+        int index = mTaskDisplays.indexOfKey(taskId);
+        if (!moveToTop && visible && index >= 0 && mTaskDisplays.valueAt(index) == displayId) {
+            replace(mAllVisibleTasks, record);
+            replace(mVisibleTasksByDisplay.get(displayId), record);
+            return true;
+        }
+        boolean removed = remove(taskId);
+        if (!visible) {
+            return removed;
+        }
+        mAllVisibleTasks.add(record);
+        ArrayList<TaskRecord> displayTasks = mVisibleTasksByDisplay.get(displayId);
+        if (displayTasks == null) {
+            displayTasks = new ArrayList<>();
+            mVisibleTasksByDisplay.put(displayId, displayTasks);
+        }
+        displayTasks.add(record);
+        mTaskDisplays.put(taskId, displayId);
+        return true;
+    }
+
+    /**
+     * Removes the task from the index, if it is there.
+     *
+     * @return whether the index has changed.
+     */
+    boolean remove(int taskId) {
+        int index = mTaskDisplays.indexOfKey(taskId);
+        if (index < 0) {
+            return false;
+        }
+        int displayId = mTaskDisplays.valueAt(index);
+        mTaskDisplays.removeAt(index);
+        removeTask(mAllVisibleTasks, taskId);
+        ArrayList<TaskRecord> displayTasks = mVisibleTasksByDisplay.get(displayId);
+        removeTask(displayTasks, taskId);
+        if (displayTasks.isEmpty()) {
+            mVisibleTasksByDisplay.remove(displayId);
+        }
+        return true;
+    }
+
+    void clear() {
+        mAllVisibleTasks.clear();
+        mVisibleTasksByDisplay.clear();
+        mTaskDisplays.clear();
+    }
+
+    /** Returns an immutable copy of the current state of the index. */
+    Snapshot snapshot(long version) {
+        SparseArray<List<TaskRecord>> tasksByDisplay =
+                new SparseArray<>(mVisibleTasksByDisplay.size());
+        for (int i = 0; i < mVisibleTasksByDisplay.size(); i++) {
+            tasksByDisplay.append(mVisibleTasksByDisplay.keyAt(i),
+                    topToBottom(mVisibleTasksByDisplay.valueAt(i)));
+        }
+        return new Snapshot(version, topToBottom(mAllVisibleTasks), tasksByDisplay);
+    }
+
+    /**
+     * Combines the snapshots of different displays, see {@link DisplayTaskShards}. The tasks of
+     * all the displays are grouped by display, in the order of {@code snapshots}, and the version
+     * is the highest one.
+     */
+    static Snapshot merge(List<Snapshot> snapshots) {
+        long version = 0;
+        ArrayList<TaskRecord> allVisibleTasks = new ArrayList<>();
+        SparseArray<List<TaskRecord>> tasksByDisplay = new SparseArray<>();
+        for (int i = 0; i < snapshots.size(); i++) {
+            Snapshot snapshot = snapshots.get(i);
+            version = Math.max(version, snapshot.mVersion);
+            allVisibleTasks.addAll(snapshot.mAllVisibleTasks);
+            for (int j = 0; j < snapshot.mVisibleTasksByDisplay.size(); j++) {
+                tasksByDisplay.put(snapshot.mVisibleTasksByDisplay.keyAt(j),
+                        snapshot.mVisibleTasksByDisplay.valueAt(j));
+            }
+        }
+        return new Snapshot(version, Collections.unmodifiableList(allVisibleTasks),
+                tasksByDisplay);
+    }
+
+    private static List<TaskRecord> topToBottom(List<TaskRecord> tasks) {
+        ArrayList<TaskRecord> result = new ArrayList<>(tasks.size());
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            result.add(tasks.get(i));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static void replace(List<TaskRecord> tasks, TaskRecord record) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            if (tasks.get(i).getTaskId() == record.getTaskId()) {
+                tasks.set(i, record);
+                return;
+            }
+        }
+    }
+
+    private static void removeTask(List<TaskRecord> tasks, int taskId) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            if (tasks.get(i).getTaskId() == taskId) {
+                tasks.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * An immutable, versioned state of the index, which can be read from any thread without
+     * locking. The lists of task infos and projections are built from the records on the first
+     * request for a display, they are then shared by all the readers of the same version.
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY =
+                new Snapshot(/* version= */ 0, List.of(), new SparseArray<>());
+
+        private final long mVersion;
+        private final List<TaskRecord> mAllVisibleTasks;
+        // Never modified once constructed.
+        private final SparseArray<List<TaskRecord>> mVisibleTasksByDisplay;
+        private final ConcurrentHashMap<Integer, List<ActivityManager.RunningTaskInfo>>
+                mTaskInfosByDisplay = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, List<CarTaskProjection>> mProjectionsByDisplay =
+                new ConcurrentHashMap<>();
+
+        private Snapshot(long version, List<TaskRecord> allVisibleTasks,
+                         SparseArray<List<TaskRecord>> visibleTasksByDisplay) {
+            mVersion = version;
+            mAllVisibleTasks = allVisibleTasks;
+            mVisibleTasksByDisplay = visibleTasksByDisplay;
+        }
+
+        long getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * Returns the unmodifiable list of the visible tasks of the display from top to bottom,
+         * or of all the displays for {@link Display#INVALID_DISPLAY}.
+         */
+        List<ActivityManager.RunningTaskInfo> getVisibleTasks(int displayId) {
+            return mTaskInfosByDisplay.computeIfAbsent(displayId,
+                    id -> toTaskInfos(getRecords(id)));
+        }
+
+        /** Like {@link #getVisibleTasks(int)}, with the projections of the tasks. */
+        List<CarTaskProjection> getVisibleTaskProjections(int displayId) {
+            return mProjectionsByDisplay.computeIfAbsent(displayId,
+                    id -> toProjections(getRecords(id)));
+        }
+
+        /**
+         * Returns the top visible task of the display, or of all the displays for
+         * {@link Display#INVALID_DISPLAY}.
+         */
+        @Nullable
+        ActivityManager.RunningTaskInfo getTopTask(int displayId) {
+            List<TaskRecord> records = getRecords(displayId);
+            return records.isEmpty() ? null : records.get(0).toRunningTaskInfo();
+        }
+
+        /** Returns the top visible record of the display, {@code null} if there is none. */
+        @Nullable
+        TaskRecord getTopRecord(int displayId) {
+            List<TaskRecord> records = getRecords(displayId);
+            return records.isEmpty() ? null : records.get(0);
+        }
+
+        private List<TaskRecord> getRecords(int displayId) {
+            if (displayId == Display.INVALID_DISPLAY) {
+                return mAllVisibleTasks;
+            }
+            List<TaskRecord> records = mVisibleTasksByDisplay.get(displayId);
+            return records == null ? List.of() : records;
+        }
+
+        private static List<CarTaskProjection> toProjections(List<TaskRecord> records) {
+            ArrayList<CarTaskProjection> projections = new ArrayList<>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                projections.add(records.get(i).toProjection());
+            }
+            return Collections.unmodifiableList(projections);
+        }
+
+        private static List<ActivityManager.RunningTaskInfo> toTaskInfos(
+                List<TaskRecord> records) {
+            ArrayList<ActivityManager.RunningTaskInfo> taskInfos = new ArrayList<>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                taskInfos.add(records.get(i).toRunningTaskInfo());
+            }
+            return Collections.unmodifiableList(taskInfos);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package io.github.ole.taskview.service;
+
+import static io.github.ole.taskview.service.TestTasks.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.ActivityManager;
+import android.view.Display;
+
+import com.android.wm.shell.ext.TaskStackFilter;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class DisplayTaskShardsTest {
+    private static final int DISPLAY_0 = 0;
+    private static final int DISPLAY_1 = 1;
+
+    private final DisplayTaskShards mShards = new DisplayTaskShards();
+
+    @After
+    public void tearDown() {
+        mShards.quit();
+    }
+
+    @Test
+    public void publishesTheTasksOfEachDisplay() {
+        update(() -> {
+            mShards.onTaskAppeared(record(1, DISPLAY_0, true), /* leash= */ null);
+            mShards.onTaskAppeared(record(2, DISPLAY_1, true), /* leash= */ null);
+            mShards.onTaskAppeared(record(3, DISPLAY_0, true), /* leash= */ null);
+        });
+
+        assertEquals(List.of(3, 1), visibleTaskIds(DISPLAY_0));
+        assertEquals(List.of(2), visibleTaskIds(DISPLAY_1));
+        assertEquals(List.of(), visibleTaskIds(/* displayId= */ 5));
+    }
+
+    @Test
+    public void updatesAreOnlyVisibleOncePublished() {
+        mShards.beginUpdate();
+        try {
+            mShards.onTaskAppeared(record(1, DISPLAY_0, true), /* leash= */ null);
+            assertEquals(List.of(), visibleTaskIds(DISPLAY_0));
+            mShards.publish();
+        } finally {
+            mShards.endUpdate();
+        }
+
+        assertEquals(List.of(1), visibleTaskIds(DISPLAY_0));
+    }
+
+    @Test
+    public void onlyTheChangedDisplaysGetANewSnapshot() {
+        update(() -> {
+            mShards.onTaskAppeared(record(1, DISPLAY_0, true), /* leash= */ null);
+            mShards.onTaskAppeared(record(2, DISPLAY_1, true), /* leash= */ null);
+        });
+        VisibleTaskIndex.Snapshot display0 = mShards.getSnapshot(DISPLAY_0);
+        VisibleTaskIndex.Snapshot display1 = mShards.getSnapshot(DISPLAY_1);
+
+        update(() -> mShards.onTaskInfoChanged(record(2, DISPLAY_1, true)));
+
+        assertSame(display0, mShards.getSnapshot(DISPLAY_0));
+        assertNotSame(display1, mShards.getSnapshot(DISPLAY_1));
+        assertTrue(mShards.getSnapshot(DISPLAY_1).getVersion() > display1.getVersion());
+    }
+
+    @Test
+    public void theMergedSnapshotStartsWithTheDisplayWhoseTopChangedLast() {
+        update(() -> {
+            mShards.onTaskAppeared(record(1, DISPLAY_0, true), /* leash= */ null);
+            mShards.onTaskAppeared(record(2, DISPLAY_1, true), /* leash= */ null);
+        });
+        update(() -> mShards.onTaskAppeared(record(3, DISPLAY_0, true), /* leash= */ null));
+
+        assertEquals(List.of(3, 1, 2), visibleTaskIds(Display.INVALID_DISPLAY));
+        assertEquals(3, mShards.getSnapshot(Display.INVALID_DISPLAY)
+                .getTopTask(Display.INVALID_DISPLAY).taskId);
+        // Cached until one of the displays publishes again.
+        assertSame(mShards.getSnapshot(Display.INVALID_DISPLAY),
+                mShards.getSnapshot(Display.INVALID_DISPLAY));
+    }
+
+    @Test
+    public void aTaskMovingToAnotherDisplayLeavesItsPreviousDisplay() {
+        update(() -> mShards.onTaskAppeared(record(1, DISPLAY_0, true), /* leash= */ null));
+        update(() -> mShards.onTaskInfoChanged(record(1, DISPLAY_1, true)));
+
+        assertEquals(List.of(), visibleTaskIds(DISPLAY_0));
+        assertEquals(List.of(1), visibleTaskIds(DISPLAY_1));
+        assertEquals(List.of(1), visibleTaskIds(Display.INVALID_DISPLAY));
+    }
+
+    @Test
+    public void aVanishedTaskIsRemovedFromItsLastKnownDisplay() {
+        update(() -> mShards.onTaskAppeared(record(1, DISPLAY_1, true), /* leash= */ null));
+        // The task infos of the vanished tasks have no display.
+        update(() -> mShards.onTaskVanished(record(1, Display.INVALID_DISPLAY, false)));
+
+        assertEquals(List.of(), visibleTaskIds(DISPLAY_1));
+        assertNull(mShards.getSnapshot(DISPLAY_1).getTopTask(DISPLAY_1));
+    }
+
+    @Test
+    public void replaceTasksSwapsTheWholeState() {
+        update(() -> {
+            mShards.onTaskAppeared(record(1, DISPLAY_0, true), /* leash= */ null);
+            mShards.onTaskAppeared(record(2, DISPLAY_1, true), /* leash= */ null);
+        });
+
+        mShards.beginExclusiveUpdate();
+        try {
+            mShards.replaceTasks(List.of(record(3, DISPLAY_0, true), record(4, DISPLAY_0, true),
+                    record(5, DISPLAY_1, false)));
+            mShards.publish();
+        } finally {
+            mShards.endExclusiveUpdate();
+        }
+
+        assertEquals(List.of(4, 3), visibleTaskIds(DISPLAY_0));
+        assertEquals(List.of(), visibleTaskIds(DISPLAY_1));
+    }
+
+    @Test
+    public void listenersReceiveTheCurrentTasksThenTheChanges() throws Exception {
+        update(() -> {
+            mShards.onTaskAppeared(record(1, DISPLAY_0, true), /* leash= */ null);
+            mShards.onTaskAppeared(record(2, DISPLAY_1, true), /* leash= */ null);
+        });
+        RecordingTaskStackListener listener = new RecordingTaskStackListener();
+        mShards.registerListener(listener,
+                new TaskStackFilter.Builder().setDisplayId(DISPLAY_0).build());
+
+        update(() -> {
+            mShards.onTaskAppeared(record(3, DISPLAY_0, true), /* leash= */ null);
+            mShards.onTaskAppeared(record(4, DISPLAY_1, true), /* leash= */ null);
+        });
+        update(() -> mShards.onTaskVanished(record(3, Display.INVALID_DISPLAY, false)));
+
+        assertEquals(List.of("snapshot 1", "appeared 3", "top 0 3", "vanished 3", "top 0 1"),
+                listener.awaitCalls(5));
+    }
+
+    @Test
+    public void updatesOfDifferentDisplaysRunInParallel() throws Exception {
+        int displays = 4;
+        int tasksPerDisplay = 100;
+        ArrayList<Thread> writers = new ArrayList<>();
+        for (int d = 0; d < displays; d++) {
+            int displayId = d;
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < tasksPerDisplay; i++) {
+                    int taskId = displayId * tasksPerDisplay + i;
+                    update(() -> mShards.onTaskAppeared(record(taskId, displayId, true),
+                            /* leash= */ null));
+                    if (i % 2 == 0) {
+                        update(() -> mShards.onTaskVanished(
+                                record(taskId, Display.INVALID_DISPLAY, false)));
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        for (int d = 0; d < displays; d++) {
+            List<Integer> taskIds = visibleTaskIds(d);
+            assertEquals(tasksPerDisplay / 2, taskIds.size());
+            assertEquals(d * tasksPerDisplay + tasksPerDisplay - 1, (int) taskIds.get(0));
+        }
+        assertEquals(displays * tasksPerDisplay / 2,
+                visibleTaskIds(Display.INVALID_DISPLAY).size());
+    }
+
+    private void update(Runnable update) {
+        mShards.beginUpdate();
+        try {
+            update.run();
+            mShards.publish();
+        } finally {
+            mShards.endUpdate();
+        }
+    }
+
+    private List<Integer> visibleTaskIds(int displayId) {
+        ArrayList<Integer> taskIds = new ArrayList<>();
+        for (ActivityManager.RunningTaskInfo task
+                : mShards.getSnapshot(displayId).getVisibleTasks(displayId)) {
+            taskIds.add(task.taskId);
+        }
+        return taskIds;
+    }
+}
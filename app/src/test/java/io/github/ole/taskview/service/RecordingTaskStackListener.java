@@ -0,0 +1,64 @@
+package io.github.ole.taskview.service;
+
+import static org.junit.Assert.fail;
+
+import android.app.ActivityManager;
+
+import com.android.wm.shell.ext.ICarTaskStackListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Records the calls delivered by {@link TaskStackListeners} on its delivery thread. */
+final class RecordingTaskStackListener extends ICarTaskStackListener.Stub {
+    private static final long TIMEOUT_MS = 5_000;
+
+    private final ArrayList<String> mCalls = new ArrayList<>();
+
+    @Override
+    public void onTaskStackSnapshot(List<ActivityManager.RunningTaskInfo> tasks) {
+        StringBuilder sb = new StringBuilder("snapshot");
+        for (ActivityManager.RunningTaskInfo task : tasks) {
+            sb.append(' ').append(task.taskId);
+        }
+        record(sb.toString());
+    }
+
+    @Override
+    public void onTaskAppeared(ActivityManager.RunningTaskInfo taskInfo) {
+        record("appeared " + taskInfo.taskId);
+    }
+
+    @Override
+    public void onTaskInfoChanged(ActivityManager.RunningTaskInfo taskInfo) {
+        record("changed " + taskInfo.taskId);
+    }
+
+    @Override
+    public void onTaskVanished(ActivityManager.RunningTaskInfo taskInfo) {
+        record("vanished " + taskInfo.taskId);
+    }
+
+    @Override
+    public void onTopTaskChanged(int displayId, ActivityManager.RunningTaskInfo taskInfo) {
+        record("top " + displayId + " " + (taskInfo == null ? "none" : taskInfo.taskId));
+    }
+
+    private synchronized void record(String call) {
+        mCalls.add(call);
+        notifyAll();
+    }
+
+    /** Waits for {@code count} calls in total, then returns all the calls so far. */
+    synchronized List<String> awaitCalls(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mCalls.size() < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                fail("Timed out waiting for " + count + " calls, got " + mCalls);
+            }
+            wait(remaining);
+        }
+        return new ArrayList<>(mCalls);
+    }
+}
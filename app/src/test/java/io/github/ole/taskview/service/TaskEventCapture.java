@@ -0,0 +1,270 @@
+package io.github.ole.taskview.service;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Captures the task events sent to {@link CarActivityService} by a test into a file, which
+ * {@link TaskEventReplayer} replays.
+ *
+ * <p>The format is versioned, a capture of another version is rejected:
+ * <pre>
+ * header: int magic, int version, long elapsedRealtimeNanos
+ * entry:  byte type, long nanos since the header, then
+ *         APPEARED, INFO_CHANGED, VANISHED: task
+ *         SNAPSHOT: int count, count * task
+ *         END: int displays, displays * (int displayId, int count, count * int taskId)
+ * task:   int taskId, int displayId, boolean visible, boolean running,
+ *         component baseActivity, component topActivity, int left, top, right, bottom
+ * component: boolean present, then the flattened name if present
+ * </pre>
+ * The END entry holds the visible tasks of each display, from top to bottom, when the capture
+ * is stopped, so that a replay can check that it ends in the same state.
+ *
+ * <p>Only the fields of {@link TaskRecord} are captured, the leashes aren't.
+ */
+final class TaskEventCapture implements Closeable {
+    static final int MAGIC = 0x54564350; // "TVCP"
+    static final int VERSION = 1;
+
+    static final byte TYPE_APPEARED = 1;
+    static final byte TYPE_INFO_CHANGED = 2;
+    static final byte TYPE_VANISHED = 3;
+    static final byte TYPE_SNAPSHOT = 4;
+    static final byte TYPE_END = 5;
+
+    private final File mFile;
+    private final long mStartNanos;
+    @GuardedBy("this")
+    private final DataOutputStream mOut;
+    @GuardedBy("this")
+    private int mEntryCount;
+
+    private TaskEventCapture(File file, DataOutputStream out, long startNanos) {
+        mFile = file;
+        mOut = out;
+        mStartNanos = startNanos;
+    }
+
+    /** Starts a new capture into {@code file}, overwriting it. */
+    static TaskEventCapture start(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(startNanos);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return new TaskEventCapture(file, out, startNanos);
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    synchronized int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /** Captures a task event, {@code type} is one of the task event types. */
+    synchronized void onTaskEvent(byte type, TaskRecord record) throws IOException {
+        writeEntryHeader(type);
+        writeTask(record);
+    }
+
+    synchronized void onTasksReplaced(Collection<TaskRecord> records) throws IOException {
+        writeEntryHeader(TYPE_SNAPSHOT);
+        mOut.writeInt(records.size());
+        for (TaskRecord record : records) {
+            writeTask(record);
+        }
+    }
+
+    /**
+     * Ends the capture with the visible task ids of each display, from top to bottom, then closes
+     * the file.
+     */
+    synchronized void end(SparseArray<int[]> visibleTaskIds) throws IOException {
+        try {
+            writeEntryHeader(TYPE_END);
+            mOut.writeInt(visibleTaskIds.size());
+            for (int i = 0; i < visibleTaskIds.size(); i++) {
+                int[] taskIds = visibleTaskIds.valueAt(i);
+                mOut.writeInt(visibleTaskIds.keyAt(i));
+                mOut.writeInt(taskIds.length);
+                for (int taskId : taskIds) {
+                    mOut.writeInt(taskId);
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mOut.close();
+    }
+
+    @GuardedBy("this")
+    private void writeEntryHeader(byte type) throws IOException {
+        mOut.writeByte(type);
+        mOut.writeLong(SystemClock.elapsedRealtimeNanos() - mStartNanos);
+        mEntryCount++;
+    }
+
+    @GuardedBy("this")
+    private void writeTask(TaskRecord record) throws IOException {
+        mOut.writeInt(record.getTaskId());
+        mOut.writeInt(record.getDisplayId());
+        mOut.writeBoolean(record.isVisible());
+        mOut.writeBoolean(record.isRunning());
+        writeComponent(record.getBaseActivity());
+        writeComponent(record.getTopActivity());
+        Rect bounds = record.getBounds();
+        mOut.writeInt(bounds.left);
+        mOut.writeInt(bounds.top);
+        mOut.writeInt(bounds.right);
+        mOut.writeInt(bounds.bottom);
+    }
+
+    @GuardedBy("this")
+    private void writeComponent(@Nullable ComponentName component) throws IOException {
+        mOut.writeBoolean(component != null);
+        if (component != null) {
+            mOut.writeUTF(component.flattenToString());
+        }
+    }
+
+    /** Reads a whole capture. */
+    static List<Entry> read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a task event capture: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported task event capture version " + version
+                        + ": " + file);
+            }
+            in.readLong();
+            ArrayList<Entry> entries = new ArrayList<>();
+            try {
+                while (true) {
+                    Entry entry = readEntry(in, file);
+                    if (entry == null) {
+                        return entries;
+                    }
+                    entries.add(entry);
+                    if (entry.mType == TYPE_END) {
+                        return entries;
+                    }
+                }
+            } catch (EOFException e) {
+                // Not ended, e.g. the process died while capturing, the last entry is dropped.
+                return entries;
+            }
+        }
+    }
+
+    /** Returns the next entry, {@code null} at the end of a capture which wasn't ended. */
+    @Nullable
+    private static Entry readEntry(DataInputStream in, File file) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        Entry entry = new Entry((byte) type, in.readLong());
+        switch (entry.mType) {
+            case TYPE_APPEARED:
+            case TYPE_INFO_CHANGED:
+            case TYPE_VANISHED:
+                entry.mTasks = List.of(readTask(in));
+                break;
+            case TYPE_SNAPSHOT:
+                int count = in.readInt();
+                ArrayList<ActivityManager.RunningTaskInfo> tasks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    tasks.add(readTask(in));
+                }
+                entry.mTasks = tasks;
+                break;
+            case TYPE_END:
+                int displays = in.readInt();
+                entry.mVisibleTaskIds = new SparseArray<>(displays);
+                for (int i = 0; i < displays; i++) {
+                    int displayId = in.readInt();
+                    int[] taskIds = new int[in.readInt()];
+                    for (int j = 0; j < taskIds.length; j++) {
+                        taskIds[j] = in.readInt();
+                    }
+                    entry.mVisibleTaskIds.put(displayId, taskIds);
+                }
+                break;
+            default:
+                throw new IOException("Unexpected entry type " + type + " in " + file);
+        }
+        return entry;
+    }
+
+    private static ActivityManager.RunningTaskInfo readTask(DataInputStream in)
+            throws IOException {
+        ActivityManager.RunningTaskInfo taskInfo = new ActivityManager.RunningTaskInfo();
+        taskInfo.taskId = in.readInt();
+        taskInfo.displayId = in.readInt();
+        taskInfo.isVisible = in.readBoolean();
+        taskInfo.isRunning = in.readBoolean();
+        taskInfo.baseActivity = readComponent(in);
+        taskInfo.topActivity = readComponent(in);
+        taskInfo.configuration.windowConfiguration.setBounds(
+                new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        return taskInfo;
+    }
+
+    @Nullable
+    private static ComponentName readComponent(DataInputStream in) throws IOException {
+        return in.readBoolean() ? ComponentName.unflattenFromString(in.readUTF()) : null;
+    }
+
+    /** A captured entry. */
+    static final class Entry {
+        final byte mType;
+        final long mNanos;
+        // The task infos rebuilt from the captured fields, for the task events and the snapshots.
+        @Nullable
+        List<ActivityManager.RunningTaskInfo> mTasks;
+        // For TYPE_END.
+        @Nullable
+        SparseArray<int[]> mVisibleTaskIds;
+
+        Entry(byte type, long nanos) {
+            mType = type;
+            mNanos = nanos;
+        }
+    }
+}
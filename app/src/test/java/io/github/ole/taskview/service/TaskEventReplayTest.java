@@ -0,0 +1,180 @@
+package io.github.ole.taskview.service;
+
+import static io.github.ole.taskview.service.TestTasks.taskInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.app.ActivityManager;
+import android.os.Binder;
+import android.os.IBinder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class TaskEventReplayTest {
+    private static final int DISPLAYS = 2;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final IBinder mMonitor = new Binder();
+    private CarActivityService mService;
+    private TaskEventCapture mCapture;
+    private File mCaptureFile;
+    // The live tasks of the scenario, by task id.
+    private final LinkedHashMap<Integer, ActivityManager.RunningTaskInfo> mTasks =
+            new LinkedHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mService = newService();
+        mService.registerTaskMonitor(mMonitor);
+        mCaptureFile = mFolder.newFile("tasks.capture");
+        mCapture = TaskEventCapture.start(mCaptureFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mCapture.close();
+        mService.close();
+    }
+
+    @Test
+    public void replayEndsInTheCapturedState() throws IOException {
+        int events = runScenario(/* seed= */ 42, /* steps= */ 500);
+        mCapture.end(TaskEventReplayer.getVisibleTaskIds(mService));
+
+        TaskEventReplayer.Result result = replay(TaskEventCapture.read(mCaptureFile));
+
+        assertEquals(events, result.mEvents);
+        assertTrue(result.mEnded);
+        assertNull(result.toString(), result.mMismatch);
+    }
+
+    @Test
+    public void replayReportsADivergedState() throws IOException {
+        appear(taskInfo(1, /* displayId= */ 0, /* visible= */ true));
+        appear(taskInfo(2, /* displayId= */ 0, /* visible= */ true));
+        vanish(1);
+        mCapture.end(TaskEventReplayer.getVisibleTaskIds(mService));
+
+        List<TaskEventCapture.Entry> entries = TaskEventCapture.read(mCaptureFile);
+        assertEquals(TaskEventCapture.TYPE_VANISHED, entries.get(2).mType);
+        entries.remove(2);
+
+        assertNotNull(replay(entries).mMismatch);
+    }
+
+    @Test
+    public void captureWhichWasntEndedIsReplayedWithoutTheFinalState() throws IOException {
+        int events = runScenario(/* seed= */ 7, /* steps= */ 50);
+        mCapture.close();
+
+        TaskEventReplayer.Result result = replay(TaskEventCapture.read(mCaptureFile));
+
+        assertEquals(events, result.mEvents);
+        assertFalse(result.mEnded);
+    }
+
+    @Test
+    public void rejectsACaptureOfAnotherVersion() throws IOException {
+        File file = mFolder.newFile("other.capture");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(TaskEventCapture.MAGIC);
+            out.writeInt(TaskEventCapture.VERSION + 1);
+            out.writeLong(0);
+        }
+
+        assertThrows(IOException.class, () -> TaskEventCapture.read(file));
+    }
+
+    private TaskEventReplayer.Result replay(List<TaskEventCapture.Entry> entries)
+            throws IOException {
+        CarActivityService service = newService();
+        try {
+            return TaskEventReplayer.replay(service, entries);
+        } finally {
+            service.close();
+        }
+    }
+
+    private CarActivityService newService() throws IOException {
+        return new CarActivityService(RuntimeEnvironment.getApplication(),
+                mFolder.newFile());
+    }
+
+    /** Sends random task events to the service, returns how many were sent. */
+    private int runScenario(long seed, int steps) throws IOException {
+        Random random = new Random(seed);
+        int nextTaskId = 1;
+        for (int i = 0; i < steps; i++) {
+            int op = random.nextInt(10);
+            if (op < 4 || mTasks.isEmpty()) {
+                appear(taskInfo(nextTaskId++, random.nextInt(DISPLAYS), random.nextBoolean()));
+            } else if (op < 7) {
+                ActivityManager.RunningTaskInfo old = randomTask(random);
+                change(taskInfo(old.taskId, old.displayId, !old.isVisible));
+            } else if (op < 9) {
+                vanish(randomTask(random).taskId);
+            } else {
+                snapshot();
+            }
+        }
+        return steps;
+    }
+
+    private ActivityManager.RunningTaskInfo randomTask(Random random) {
+        List<ActivityManager.RunningTaskInfo> tasks = new ArrayList<>(mTasks.values());
+        return tasks.get(random.nextInt(tasks.size()));
+    }
+
+    private void appear(ActivityManager.RunningTaskInfo taskInfo) throws IOException {
+        mTasks.put(taskInfo.taskId, taskInfo);
+        mService.onTaskAppeared(mMonitor, taskInfo, /* leash= */ null);
+        mCapture.onTaskEvent(TaskEventCapture.TYPE_APPEARED, TaskRecord.from(taskInfo));
+    }
+
+    private void change(ActivityManager.RunningTaskInfo taskInfo) throws IOException {
+        mTasks.put(taskInfo.taskId, taskInfo);
+        mService.onTaskInfoChanged(mMonitor, taskInfo);
+        mCapture.onTaskEvent(TaskEventCapture.TYPE_INFO_CHANGED, TaskRecord.from(taskInfo));
+    }
+
+    private void vanish(int taskId) throws IOException {
+        ActivityManager.RunningTaskInfo taskInfo = mTasks.remove(taskId);
+        mService.onTaskVanished(mMonitor, taskInfo);
+        mCapture.onTaskEvent(TaskEventCapture.TYPE_VANISHED, TaskRecord.from(taskInfo));
+    }
+
+    private void snapshot() throws IOException {
+        List<ActivityManager.RunningTaskInfo> tasks = new ArrayList<>(mTasks.values());
+        List<TaskRecord> records = new ArrayList<>();
+        for (ActivityManager.RunningTaskInfo taskInfo : tasks) {
+            records.add(TaskRecord.from(taskInfo));
+        }
+        mService.replaceTaskSnapshot(mMonitor, tasks, /* generation= */ 1, /* chunkIndex= */ 0,
+                /* chunkCount= */ 1);
+        mCapture.onTasksReplaced(records);
+    }
+}
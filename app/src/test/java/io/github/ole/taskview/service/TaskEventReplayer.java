@@ -0,0 +1,118 @@
+package io.github.ole.taskview.service;
+
+import android.app.ActivityManager;
+import android.os.Binder;
+import android.os.IBinder;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a {@link TaskEventCapture} against a {@link CarActivityService}. The binder methods of
+ * the service are called directly, in the captured order and as fast as possible, so that a
+ * replay of the same capture is deterministic.
+ */
+final class TaskEventReplayer {
+
+    private TaskEventReplayer() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Replays {@code entries} as the only monitor of {@code service}. */
+    static Result replay(CarActivityService service, List<TaskEventCapture.Entry> entries) {
+        IBinder monitor = new Binder();
+        service.registerTaskMonitor(monitor);
+
+        Result result = new Result();
+        SparseArray<int[]> expected = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < entries.size(); i++) {
+            TaskEventCapture.Entry entry = entries.get(i);
+            switch (entry.mType) {
+                case TaskEventCapture.TYPE_APPEARED:
+                    service.onTaskAppeared(monitor, entry.mTasks.get(0), /* leash= */ null);
+                    break;
+                case TaskEventCapture.TYPE_INFO_CHANGED:
+                    service.onTaskInfoChanged(monitor, entry.mTasks.get(0));
+                    break;
+                case TaskEventCapture.TYPE_VANISHED:
+                    service.onTaskVanished(monitor, entry.mTasks.get(0));
+                    break;
+                case TaskEventCapture.TYPE_SNAPSHOT:
+                    service.replaceTaskSnapshot(monitor, entry.mTasks, /* generation= */ i,
+                            /* chunkIndex= */ 0, /* chunkCount= */ 1);
+                    break;
+                case TaskEventCapture.TYPE_END:
+                    expected = entry.mVisibleTaskIds;
+                    continue;
+                default:
+                    continue;
+            }
+            result.mEvents++;
+        }
+        result.mElapsedNanos = System.nanoTime() - start;
+        service.unregisterTaskMonitor(monitor);
+
+        result.mEnded = expected != null;
+        if (expected != null) {
+            result.mMismatch = findMismatch(expected, getVisibleTaskIds(service));
+        }
+        return result;
+    }
+
+    /** Returns the visible task ids of each display, from top to bottom. */
+    static SparseArray<int[]> getVisibleTaskIds(CarActivityService service) {
+        List<ActivityManager.RunningTaskInfo> tasks = service.getVisibleTasksInternal();
+        SparseArray<int[]> taskIds = new SparseArray<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            int displayId = tasks.get(i).displayId;
+            if (taskIds.get(displayId) == null) {
+                List<ActivityManager.RunningTaskInfo> displayTasks =
+                        service.getVisibleTasksInternal(displayId);
+                int[] ids = new int[displayTasks.size()];
+                for (int j = 0; j < ids.length; j++) {
+                    ids[j] = displayTasks.get(j).taskId;
+                }
+                taskIds.put(displayId, ids);
+            }
+        }
+        return taskIds;
+    }
+
+    @Nullable
+    private static String findMismatch(SparseArray<int[]> expected, SparseArray<int[]> actual) {
+        if (expected.size() != actual.size()) {
+            return "displays=" + actual.size() + ", expected " + expected.size();
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            int displayId = expected.keyAt(i);
+            int[] actualIds = actual.get(displayId);
+            if (!Arrays.equals(expected.valueAt(i), actualIds)) {
+                return "display " + displayId + " tasks=" + Arrays.toString(actualIds)
+                        + ", expected " + Arrays.toString(expected.valueAt(i));
+            }
+        }
+        return null;
+    }
+
+    /** The outcome of a replay. */
+    static final class Result {
+        int mEvents;
+        long mElapsedNanos;
+        // Whether the capture was ended, only then the final state is checked.
+        boolean mEnded;
+        // Why the final state differs from the captured one, null if it matches.
+        @Nullable
+        String mMismatch;
+
+        @Override
+        public String toString() {
+            return "Result {events=" + mEvents + ", elapsedMs=" + mElapsedNanos / 1_000_000
+                    + ", finalState=" + (!mEnded ? "UNKNOWN"
+                            : mMismatch == null ? "MATCH" : "MISMATCH, " + mMismatch) + "}";
+        }
+    }
+}
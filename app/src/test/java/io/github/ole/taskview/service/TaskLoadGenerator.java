@@ -0,0 +1,398 @@
+package io.github.ole.taskview.service;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.graphics.Rect;
+import android.os.Binder;
+import android.os.IBinder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Drives a {@link CarActivityService} with task events from writer threads while reader threads
+ * query the visible tasks, to find how many task events the service absorbs while still serving
+ * the queries quickly.
+ *
+ * <p>The load is configured with {@code key=value} arguments, see {@link Config}. It reports the
+ * operations per second, the p50/p99/p999 latencies and the bytes allocated per operation of the
+ * writers and the readers. The results can be saved as a baseline and compared with a later run.
+ */
+final class TaskLoadGenerator {
+    private static final String TAG = "TaskLoadGenerator";
+
+    // The latencies of a thread beyond this count are sampled.
+    private static final int MAX_SAMPLES = 1 << 18;
+
+    private TaskLoadGenerator() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** The configuration of a run, parsed from {@code key=value} arguments. */
+    static final class Config {
+        // The task events are spread over the writers, which each update their own tasks, as the
+        // events of a task are reported in order.
+        int mWriters = 4;
+        int mReaders = 2;
+        int mTasks = 200;
+        int mDisplays = 4;
+        long mDurationMs = 3000;
+        // The ratio of the task events which make a task vanish and appear again, the others
+        // change a task.
+        float mChurn = 0.1f;
+        // The ratio of the task changes which toggle the visibility of the task.
+        float mVisibilityChanges = 0.2f;
+        long mSeed = 42;
+        // The paths of the baselines, if any.
+        String mSaveBaseline;
+        String mCompareBaseline;
+
+        /** Parses {@code key=value} arguments separated by spaces, e.g. "writers=8 tasks=50". */
+        static Config parse(String argsString) {
+            Config config = new Config();
+            String trimmed = argsString.trim();
+            String[] args = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+            for (int i = 0; i < args.length; i++) {
+                int separator = args[i].indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected key=value: " + args[i]);
+                }
+                String key = args[i].substring(0, separator);
+                String value = args[i].substring(separator + 1);
+                switch (key) {
+                    case "writers":
+                        config.mWriters = Integer.parseInt(value);
+                        break;
+                    case "readers":
+                        config.mReaders = Integer.parseInt(value);
+                        break;
+                    case "tasks":
+                        config.mTasks = Integer.parseInt(value);
+                        break;
+                    case "displays":
+                        config.mDisplays = Integer.parseInt(value);
+                        break;
+                    case "durationMs":
+                        config.mDurationMs = Long.parseLong(value);
+                        break;
+                    case "churn":
+                        config.mChurn = Float.parseFloat(value);
+                        break;
+                    case "visibilityChanges":
+                        config.mVisibilityChanges = Float.parseFloat(value);
+                        break;
+                    case "seed":
+                        config.mSeed = Long.parseLong(value);
+                        break;
+                    case "save":
+                        config.mSaveBaseline = value;
+                        break;
+                    case "baseline":
+                        config.mCompareBaseline = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown key: " + key);
+                }
+            }
+            if (config.mWriters <= 0 || config.mReaders < 0 || config.mDisplays <= 0
+                    || config.mTasks < config.mWriters) {
+                throw new IllegalArgumentException("Invalid configuration: " + config);
+            }
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return "Config {"
+                    + "writers=" + mWriters
+                    + ", readers=" + mReaders
+                    + ", tasks=" + mTasks
+                    + ", displays=" + mDisplays
+                    + ", durationMs=" + mDurationMs
+                    + ", churn=" + mChurn
+                    + ", visibilityChanges=" + mVisibilityChanges
+                    + ", seed=" + mSeed
+                    + "}";
+        }
+    }
+
+    /**
+     * Runs the load described by {@code config} against {@code service}, reports the results to
+     * {@code pw} and returns them, keyed by the name of each measure.
+     */
+    static Result run(CarActivityService service, Config config, PrintWriter pw)
+            throws InterruptedException, IOException {
+        IBinder monitor = new Binder();
+        service.registerTaskMonitor(monitor);
+        // Each task alternates between a visible and an invisible task info, built up front so
+        // that the load itself doesn't allocate.
+        ActivityManager.RunningTaskInfo[][] taskInfos =
+                new ActivityManager.RunningTaskInfo[config.mTasks][2];
+        for (int i = 0; i < config.mTasks; i++) {
+            taskInfos[i][0] = newTaskInfo(i, config.mDisplays, /* visible= */ false);
+            taskInfos[i][1] = newTaskInfo(i, config.mDisplays, /* visible= */ true);
+            service.onTaskAppeared(monitor, taskInfos[i][1], /* leash= */ null);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + config.mDurationMs * 1_000_000;
+        ArrayList<Writer> writers = new ArrayList<>();
+        ArrayList<Worker> readers = new ArrayList<>();
+        for (int i = 0; i < config.mWriters; i++) {
+            writers.add(new Writer(i, service, monitor, taskInfos, config, start, deadline));
+        }
+        for (int i = 0; i < config.mReaders; i++) {
+            readers.add(new Reader(i, service, config, start, deadline));
+        }
+        for (Worker worker : writers) {
+            worker.start();
+        }
+        for (Worker worker : readers) {
+            worker.start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Worker worker : writers) {
+            worker.join();
+        }
+        for (Worker worker : readers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        service.unregisterTaskMonitor(monitor);
+
+        Result result = new Result();
+        for (Writer writer : writers) {
+            for (int i = 0; i < writer.mTaskCount; i++) {
+                if (writer.mVisible[i]) {
+                    result.mVisibleTaskIds.add(taskInfos[writer.mFirstTask + i][1].taskId);
+                }
+            }
+        }
+        summarize("writer", writers, elapsed, result.mMeasures);
+        summarize("reader", readers, elapsed, result.mMeasures);
+        pw.println(TAG + ": " + config);
+        for (String key : new TreeSet<>(result.mMeasures.stringPropertyNames())) {
+            pw.println("  " + key + "=" + result.mMeasures.getProperty(key));
+        }
+        if (config.mCompareBaseline != null) {
+            compare(new File(config.mCompareBaseline), result.mMeasures, pw);
+        }
+        if (config.mSaveBaseline != null) {
+            File file = new File(config.mSaveBaseline);
+            try (OutputStream out = new FileOutputStream(file)) {
+                result.mMeasures.store(out, config.toString());
+            }
+            pw.println("  saved to " + file);
+        }
+        return result;
+    }
+
+    /** The outcome of a run. */
+    static final class Result {
+        final Properties mMeasures = new Properties();
+        // The ids of the tasks the writers left visible.
+        final TreeSet<Integer> mVisibleTaskIds = new TreeSet<>();
+    }
+
+    /** Returns the task info of the task {@code index}, spread over {@code displays}. */
+    static ActivityManager.RunningTaskInfo newTaskInfo(int index, int displays,
+                                                       boolean visible) {
+        ActivityManager.RunningTaskInfo taskInfo = new ActivityManager.RunningTaskInfo();
+        taskInfo.taskId = index + 1;
+        taskInfo.displayId = index % displays;
+        taskInfo.isVisible = visible;
+        taskInfo.isRunning = true;
+        taskInfo.baseActivity = new ComponentName("io.github.ole.load", "Activity" + index % 16);
+        taskInfo.topActivity = taskInfo.baseActivity;
+        taskInfo.configuration.windowConfiguration.setBounds(new Rect(0, 0, 1920, 1080));
+        return taskInfo;
+    }
+
+    private static void summarize(String name, List<? extends Worker> workers, long elapsedNanos,
+                                  Properties results) {
+        long ops = 0;
+        long allocBytes = 0;
+        int samples = 0;
+        for (Worker worker : workers) {
+            ops += worker.mOps;
+            allocBytes += worker.mAllocBytes;
+            samples += worker.mSampleCount;
+        }
+        long[] latencies = new long[samples];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.mSamples, 0, latencies, offset, worker.mSampleCount);
+            offset += worker.mSampleCount;
+        }
+        Arrays.sort(latencies);
+        results.setProperty(name + ".ops", Long.toString(ops));
+        results.setProperty(name + ".opsPerSec",
+                Long.toString(elapsedNanos == 0 ? 0 : ops * 1_000_000_000L / elapsedNanos));
+        results.setProperty(name + ".p50Ns", Long.toString(percentile(latencies, 0.50)));
+        results.setProperty(name + ".p99Ns", Long.toString(percentile(latencies, 0.99)));
+        results.setProperty(name + ".p999Ns", Long.toString(percentile(latencies, 0.999)));
+        results.setProperty(name + ".allocBytesPerOp",
+                Long.toString(ops == 0 ? 0 : allocBytes / ops));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+
+    private static void compare(File file, Properties results, PrintWriter pw)
+            throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            baseline.load(in);
+        }
+        pw.println("  compared to " + file + ":");
+        for (String key : new TreeSet<>(results.stringPropertyNames())) {
+            String base = baseline.getProperty(key);
+            if (base == null) {
+                continue;
+            }
+            long before = Long.parseLong(base);
+            long after = Long.parseLong(results.getProperty(key));
+            pw.println("    " + key + ": " + before + " -> " + after
+                    + (before == 0 ? "" : String.format(Locale.US, " (%+.1f%%)",
+                            (after - before) * 100.0 / before)));
+        }
+    }
+
+    /** A load thread, which records the latency of each of its operations. */
+    private abstract static class Worker extends Thread {
+        final Random mRandom;
+        final CountDownLatch mStart;
+        final long mDeadline;
+        final long[] mSamples = new long[MAX_SAMPLES];
+        int mSampleCount;
+        long mOps;
+        long mAllocBytes;
+
+        Worker(String name, long seed, CountDownLatch start, long deadline) {
+            super(name);
+            mRandom = new Random(seed);
+            mStart = start;
+            mDeadline = deadline;
+        }
+
+        @Override
+        public final void run() {
+            try {
+                mStart.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long allocStart = getAllocatedBytes();
+            while (System.nanoTime() < mDeadline) {
+                long opStart = System.nanoTime();
+                int ops = runOnce();
+                record(System.nanoTime() - opStart, ops);
+            }
+            mAllocBytes = getAllocatedBytes() - allocStart;
+        }
+
+        // The bytes allocated by the current thread, as counted by the JVM running the tests.
+        private static long getAllocatedBytes() {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        /** Runs one step of the load, returns the number of operations it made. */
+        abstract int runOnce();
+
+        private void record(long latency, int ops) {
+            mOps += ops;
+            // Reservoir sampling, so that the whole run is represented.
+            if (mSampleCount < mSamples.length) {
+                mSamples[mSampleCount++] = latency / ops;
+            } else {
+                long index = (long) (mRandom.nextDouble() * mOps);
+                if (index < mSamples.length) {
+                    mSamples[(int) index] = latency / ops;
+                }
+            }
+        }
+    }
+
+    private static final class Writer extends Worker {
+        private final CarActivityService mService;
+        private final IBinder mMonitor;
+        private final ActivityManager.RunningTaskInfo[][] mTaskInfos;
+        private final Config mConfig;
+        final int mFirstTask;
+        final int mTaskCount;
+        // Whether each task of the writer is visible, read once the writer is done.
+        final boolean[] mVisible;
+
+        Writer(int index, CarActivityService service, IBinder monitor,
+               ActivityManager.RunningTaskInfo[][] taskInfos, Config config,
+               CountDownLatch start, long deadline) {
+            super(TAG + ".Writer" + index, config.mSeed + index, start, deadline);
+            mService = service;
+            mMonitor = monitor;
+            mTaskInfos = taskInfos;
+            mConfig = config;
+            // The writers own disjoint ranges of the tasks.
+            mFirstTask = config.mTasks * index / config.mWriters;
+            mTaskCount = config.mTasks * (index + 1) / config.mWriters - mFirstTask;
+            mVisible = new boolean[mTaskCount];
+            Arrays.fill(mVisible, true);
+        }
+
+        @Override
+        int runOnce() {
+            int task = mRandom.nextInt(mTaskCount);
+            ActivityManager.RunningTaskInfo[] taskInfos = mTaskInfos[mFirstTask + task];
+            if (mRandom.nextFloat() < mConfig.mChurn) {
+                mService.onTaskVanished(mMonitor, taskInfos[0]);
+                mService.onTaskAppeared(mMonitor, taskInfos[1], /* leash= */ null);
+                mVisible[task] = true;
+                return 2;
+            }
+            if (mRandom.nextFloat() < mConfig.mVisibilityChanges) {
+                mVisible[task] = !mVisible[task];
+            }
+            mService.onTaskInfoChanged(mMonitor, taskInfos[mVisible[task] ? 1 : 0]);
+            return 1;
+        }
+    }
+
+    private static final class Reader extends Worker {
+        private final CarActivityService mService;
+        private final Config mConfig;
+
+        Reader(int index, CarActivityService service, Config config, CountDownLatch start,
+               long deadline) {
+            super(TAG + ".Reader" + index, config.mSeed - index - 1, start, deadline);
+            mService = service;
+            mConfig = config;
+        }
+
+        @Override
+        int runOnce() {
+            int displayId = mRandom.nextInt(mConfig.mDisplays);
+            mService.getVisibleTasks(displayId);
+            mService.getTopTask(displayId);
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.ole.taskview.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.ActivityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Runs a short {@link TaskLoadGenerator} load and checks the service ends in the state the writers
+ * left. A longer load is run with e.g. {@code -Dtaskview.load="durationMs=10000 writers=8"}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TaskLoadTest {
+    private static final String DEFAULT_LOAD = "durationMs=300 tasks=64 writers=4 readers=2";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private CarActivityService mService;
+
+    @Before
+    public void setUp() throws IOException {
+        mService = new CarActivityService(RuntimeEnvironment.getApplication(),
+                mFolder.newFile());
+    }
+
+    @After
+    public void tearDown() {
+        mService.close();
+    }
+
+    @Test
+    public void endsInTheStateLeftByTheWriters() throws Exception {
+        TaskLoadGenerator.Config config = TaskLoadGenerator.Config.parse(
+                System.getProperty("taskview.load", DEFAULT_LOAD));
+        StringWriter report = new StringWriter();
+
+        TaskLoadGenerator.Result result =
+                TaskLoadGenerator.run(mService, config, new PrintWriter(report));
+
+        System.out.println(report);
+        assertTrue(Long.parseLong(result.mMeasures.getProperty("writer.ops")) > 0);
+        if (config.mReaders > 0) {
+            assertTrue(Long.parseLong(result.mMeasures.getProperty("reader.ops")) > 0);
+        }
+        List<ActivityManager.RunningTaskInfo> visibleTasks = mService.getVisibleTasksInternal();
+        TreeSet<Integer> visibleTaskIds = new TreeSet<>();
+        for (ActivityManager.RunningTaskInfo taskInfo : visibleTasks) {
+            visibleTaskIds.add(taskInfo.taskId);
+        }
+        assertEquals(visibleTasks.size(), visibleTaskIds.size());
+        assertEquals(result.mVisibleTaskIds, visibleTaskIds);
+    }
+
+    @Test
+    public void parsesTheArguments() {
+        TaskLoadGenerator.Config config =
+                TaskLoadGenerator.Config.parse(" writers=2  tasks=10 churn=0.5 ");
+
+        assertEquals(2, config.mWriters);
+        assertEquals(10, config.mTasks);
+        assertEquals(0.5f, config.mChurn, 0f);
+        assertEquals(2, TaskLoadGenerator.Config.parse("").mReaders);
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.ole.taskview.service;
+
+import static io.github.ole.taskview.service.TestTasks.activity;
+import static io.github.ole.taskview.service.TestTasks.record;
+
+import static org.junit.Assert.assertEquals;
+
+import com.android.wm.shell.ext.TaskStackFilter;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+public class TaskStackListenersTest {
+    private final TaskStackListeners mListeners = new TaskStackListeners();
+
+    @After
+    public void tearDown() {
+        mListeners.quit();
+    }
+
+    @Test
+    public void deliversTheSnapshotThenTheLaterChangesInOrder() throws Exception {
+        RecordingTaskStackListener listener = new RecordingTaskStackListener();
+        mListeners.register(listener, TaskStackFilter.ALL, List.of(record(1, 0, true)));
+        mListeners.onTaskAppeared(record(2, 0, true));
+        mListeners.onTaskInfoChanged(record(2, 0, true), record(2, 0, false));
+        mListeners.onTopTaskChanged(0, record(1, 0, true));
+        mListeners.onTaskVanished(record(1, 0, true));
+        mListeners.flush();
+
+        assertEquals(List.of("snapshot 1", "appeared 2", "changed 2", "top 0 1", "vanished 1"),
+                listener.awaitCalls(5));
+    }
+
+    @Test
+    public void aNewListenerOnlyReceivesTheChangesAfterItsSnapshot() throws Exception {
+        RecordingTaskStackListener first = new RecordingTaskStackListener();
+        mListeners.register(first, TaskStackFilter.ALL, List.of());
+        mListeners.onTaskAppeared(record(1, 0, true));
+        // Queued but not flushed yet when the second listener registers.
+        RecordingTaskStackListener second = new RecordingTaskStackListener();
+        mListeners.register(second, TaskStackFilter.ALL, List.of(record(1, 0, true)));
+        mListeners.onTaskAppeared(record(2, 0, true));
+        mListeners.flush();
+
+        assertEquals(List.of("snapshot", "appeared 1", "appeared 2"), first.awaitCalls(3));
+        assertEquals(List.of("snapshot 1", "appeared 2"), second.awaitCalls(2));
+    }
+
+    @Test
+    public void filtersTheChangesForEachListener() throws Exception {
+        RecordingTaskStackListener display1 = new RecordingTaskStackListener();
+        mListeners.register(display1, new TaskStackFilter.Builder().setDisplayId(1).build(),
+                List.of(record(1, 0, true), record(2, 1, true)));
+        mListeners.onTaskAppeared(record(3, 0, true));
+        mListeners.onTopTaskChanged(0, record(3, 0, true));
+        // Reported once more when the task leaves the display, so that it can be dropped.
+        mListeners.onTaskInfoChanged(record(2, 1, true), record(2, 0, true));
+        mListeners.onTaskAppeared(record(4, 1, true));
+        mListeners.flush();
+
+        assertEquals(List.of("snapshot 2", "changed 2", "appeared 4"), display1.awaitCalls(3));
+    }
+
+    @Test
+    public void keepsTheOrderOfTheChangesQueuedInParallel() throws Exception {
+        RecordingTaskStackListener listener = new RecordingTaskStackListener();
+        mListeners.register(listener, TaskStackFilter.ALL, List.of());
+        mListeners.flush();
+        int threads = 4;
+        int tasksPerThread = 50;
+        CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int displayId = t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < tasksPerThread; i++) {
+                    int taskId = displayId * tasksPerThread + i;
+                    mListeners.onTaskAppeared(record(taskId, displayId, true));
+                    mListeners.onTaskVanished(record(taskId, displayId, true));
+                    mListeners.flush();
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        List<String> calls = listener.awaitCalls(1 + threads * tasksPerThread * 2);
+        // Each task appears before it vanishes, and the tasks of a display stay in order.
+        int[] lastTaskIds = new int[threads];
+        for (int t = 0; t < threads; t++) {
+            lastTaskIds[t] = t * tasksPerThread - 1;
+        }
+        for (int i = 1; i < calls.size(); i++) {
+            String[] call = calls.get(i).split(" ");
+            int taskId = Integer.parseInt(call[1]);
+            int displayId = taskId / tasksPerThread;
+            if (call[0].equals("appeared")) {
+                assertEquals(lastTaskIds[displayId] + 1, taskId);
+                lastTaskIds[displayId] = taskId;
+            } else {
+                assertEquals(lastTaskIds[displayId], taskId);
+            }
+        }
+    }
+
+    @Test
+    public void matchesTheComponentsOfTheFilter() throws Exception {
+        RecordingTaskStackListener listener = new RecordingTaskStackListener();
+        mListeners.register(listener,
+                new TaskStackFilter.Builder().addComponents(List.of(activity(2))).build(),
+                List.of(record(1, 0, true), record(2, 0, true)));
+        mListeners.onTaskAppeared(record(3, 0, true));
+        mListeners.onTaskVanished(record(2, 0, true));
+        mListeners.flush();
+
+        assertEquals(List.of("snapshot 2", "vanished 2"), listener.awaitCalls(2));
+    }
+}
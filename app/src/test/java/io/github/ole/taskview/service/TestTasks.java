@@ -0,0 +1,34 @@
+package io.github.ole.taskview.service;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.graphics.Rect;
+
+/** Builds the task infos and the records of the service tests. */
+final class TestTasks {
+    static final String PACKAGE = "io.github.ole.taskview.test";
+
+    private TestTasks() {
+        throw new UnsupportedOperationException();
+    }
+
+    static ActivityManager.RunningTaskInfo taskInfo(int taskId, int displayId, boolean visible) {
+        ActivityManager.RunningTaskInfo taskInfo = new ActivityManager.RunningTaskInfo();
+        taskInfo.taskId = taskId;
+        taskInfo.displayId = displayId;
+        taskInfo.isVisible = visible;
+        taskInfo.isRunning = true;
+        taskInfo.baseActivity = activity(taskId);
+        taskInfo.topActivity = activity(taskId);
+        taskInfo.configuration.windowConfiguration.setBounds(new Rect(0, 0, 100, 100));
+        return taskInfo;
+    }
+
+    static TaskRecord record(int taskId, int displayId, boolean visible) {
+        return TaskRecord.from(taskInfo(taskId, displayId, visible));
+    }
+
+    static ComponentName activity(int taskId) {
+        return new ComponentName(PACKAGE, PACKAGE + ".Activity" + taskId);
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.ole.taskview.service;
+
+import static io.github.ole.taskview.service.TestTasks.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.ActivityManager;
+import android.view.Display;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class VisibleTaskIndexTest {
+    private static final int DISPLAY_0 = 0;
+    private static final int DISPLAY_1 = 1;
+
+    private final VisibleTaskIndex mIndex = new VisibleTaskIndex();
+
+    @Test
+    public void listsTheVisibleTasksFromTopToBottom() {
+        mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ true);
+        mIndex.update(record(2, DISPLAY_0, true), /* moveToTop= */ true);
+        mIndex.update(record(3, DISPLAY_0, false), /* moveToTop= */ true);
+
+        VisibleTaskIndex.Snapshot snapshot = mIndex.snapshot(/* version= */ 1);
+
+        assertEquals(List.of(2, 1), taskIds(snapshot.getVisibleTasks(DISPLAY_0)));
+        assertEquals(2, snapshot.getTopTask(DISPLAY_0).taskId);
+        assertEquals(1, snapshot.getVersion());
+    }
+
+    @Test
+    public void keepsThePositionOfAKnownTaskUnlessMovedToTop() {
+        mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ true);
+        mIndex.update(record(2, DISPLAY_0, true), /* moveToTop= */ true);
+
+        assertTrue(mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ false));
+        assertEquals(List.of(2, 1), taskIds(mIndex.snapshot(1).getVisibleTasks(DISPLAY_0)));
+
+        assertTrue(mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ true));
+        assertEquals(List.of(1, 2), taskIds(mIndex.snapshot(2).getVisibleTasks(DISPLAY_0)));
+    }
+
+    @Test
+    public void removesTheTasksWhichBecomeInvisible() {
+        mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ true);
+
+        assertTrue(mIndex.update(record(1, DISPLAY_0, false), /* moveToTop= */ false));
+        assertFalse(mIndex.update(record(1, DISPLAY_0, false), /* moveToTop= */ false));
+        assertFalse(mIndex.remove(1));
+
+        VisibleTaskIndex.Snapshot snapshot = mIndex.snapshot(1);
+        assertEquals(List.of(), snapshot.getVisibleTasks(DISPLAY_0));
+        assertNull(snapshot.getTopTask(DISPLAY_0));
+    }
+
+    @Test
+    public void movesATaskToItsNewDisplay() {
+        mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ true);
+        mIndex.update(record(1, DISPLAY_1, true), /* moveToTop= */ false);
+
+        VisibleTaskIndex.Snapshot snapshot = mIndex.snapshot(1);
+        assertEquals(List.of(), snapshot.getVisibleTasks(DISPLAY_0));
+        assertEquals(List.of(1), taskIds(snapshot.getVisibleTasks(DISPLAY_1)));
+        assertEquals(List.of(1), taskIds(snapshot.getVisibleTasks(Display.INVALID_DISPLAY)));
+    }
+
+    @Test
+    public void snapshotsAreNotChangedByTheLaterUpdates() {
+        mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ true);
+        VisibleTaskIndex.Snapshot snapshot = mIndex.snapshot(1);
+        List<ActivityManager.RunningTaskInfo> tasks = snapshot.getVisibleTasks(DISPLAY_0);
+
+        mIndex.update(record(2, DISPLAY_0, true), /* moveToTop= */ true);
+        mIndex.remove(1);
+
+        assertEquals(List.of(1), taskIds(snapshot.getVisibleTasks(DISPLAY_0)));
+        // Built once per display, then shared by the readers.
+        assertSame(tasks, snapshot.getVisibleTasks(DISPLAY_0));
+        assertEquals(List.of(2), taskIds(mIndex.snapshot(2).getVisibleTasks(DISPLAY_0)));
+    }
+
+    @Test
+    public void mergeGroupsTheTasksByDisplayInTheGivenOrder() {
+        VisibleTaskIndex other = new VisibleTaskIndex();
+        mIndex.update(record(1, DISPLAY_0, true), /* moveToTop= */ true);
+        mIndex.update(record(2, DISPLAY_0, true), /* moveToTop= */ true);
+        other.update(record(3, DISPLAY_1, true), /* moveToTop= */ true);
+
+        VisibleTaskIndex.Snapshot merged = VisibleTaskIndex.merge(
+                List.of(other.snapshot(5), mIndex.snapshot(3)));
+
+        assertEquals(5, merged.getVersion());
+        assertEquals(List.of(3, 2, 1),
+                taskIds(merged.getVisibleTasks(Display.INVALID_DISPLAY)));
+        assertEquals(List.of(2, 1), taskIds(merged.getVisibleTasks(DISPLAY_0)));
+        assertEquals(3, merged.getTopTask(Display.INVALID_DISPLAY).taskId);
+        assertEquals(List.of(3), projectionTaskIds(merged, DISPLAY_1));
+    }
+
+    private static List<Integer> taskIds(List<ActivityManager.RunningTaskInfo> tasks) {
+        ArrayList<Integer> taskIds = new ArrayList<>();
+        for (ActivityManager.RunningTaskInfo task : tasks) {
+            taskIds.add(task.taskId);
+        }
+        return taskIds;
+    }
+
+    private static List<Integer> projectionTaskIds(VisibleTaskIndex.Snapshot snapshot,
+                                                   int displayId) {
+        ArrayList<Integer> taskIds = new ArrayList<>();
+        snapshot.getVisibleTaskProjections(displayId).forEach(p -> taskIds.add(p.getTaskId()));
+        return taskIds;
+    }
+}
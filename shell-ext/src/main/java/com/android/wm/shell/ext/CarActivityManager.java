@@ -7,7 +7,10 @@ import android.content.Context;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SharedMemory;
 import android.os.TransactionTooLargeException;
+import android.system.ErrnoException;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.Display;
 import android.view.SurfaceControl;
@@ -17,6 +20,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.UiContext;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -26,12 +30,23 @@ import java.util.concurrent.Executor;
  */
 public final class CarActivityManager {
     private static final String TAG = CarActivityManager.class.getSimpleName();
+    // The size of each chunk of replaceTaskSnapshot() and of the batches of onTaskEvents(). A
+    // task info parcels to a few KB (configuration, intents, task description), so a chunk stays
+    // well under the binder buffer limit without parceling the items to measure them.
+    static final int MAX_CHUNK_SIZE = 16;
+    // The number of task projections per page, each of them is around a hundred bytes.
+    private static final int PROJECTION_PAGE_SIZE = 256;
+    // The times the pages are read again when the tasks change in between.
+    private static final int MAX_PROJECTION_PAGE_RETRIES = 2;
 
     private final Context mContext;
 
     private ICarActivityService mService;
     private IBinder mTaskMonitorToken;
     private CarTaskViewControllerSupervisor mCarTaskViewControllerSupervisor;
+    // The binder wrappers of the registered task stack listeners.
+    private final ArrayMap<TaskStackListener, ICarTaskStackListener> mTaskStackListeners =
+            new ArrayMap<>();
 
     @SuppressLint("StaticFieldLeak")
     private static volatile CarActivityManager sManager;
@@ -121,6 +136,58 @@ public final class CarActivityManager {
         }
     }
 
+    /**
+     * Reports a batch of Task lifecycle events without waiting for the car service.
+     *
+     * @param seq the sequence number of the batch, incremented by one for each batch.
+     */
+    public void onTaskEvents(@NonNull List<CarTaskEvent> events, long seq) {
+        if (noValidToken()) return;
+        try {
+            mService.onTaskEvents(mTaskMonitorToken, events, seq);
+        } catch (RemoteException e) {
+            handleRemoteExceptionFromCarService(e);
+        }
+    }
+
+    /**
+     * Replaces all the Tasks known by the car service with {@code tasks}, ordered from bottom to
+     * top, in as few binder transactions as the size of the task infos allows.
+     *
+     * @param generation identifies the snapshot, a new value should be used for each snapshot.
+     */
+    public void replaceTaskSnapshot(@NonNull List<ActivityManager.RunningTaskInfo> tasks,
+                                    int generation) {
+        if (noValidToken()) return;
+        List<List<ActivityManager.RunningTaskInfo>> chunks = splitInChunks(tasks);
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                mService.replaceTaskSnapshot(mTaskMonitorToken, chunks.get(i), generation, i,
+                        chunks.size());
+            }
+        } catch (RemoteException e) {
+            handleRemoteExceptionFromCarService(e);
+        }
+    }
+
+    /**
+     * Splits {@code items} in chunks of at most {@link #MAX_CHUNK_SIZE} items, small enough for a
+     * binder transaction which can be sent safely. Returns a single empty chunk for no items.
+     */
+    @NonNull
+    public static <T> List<List<T>> splitInChunks(@NonNull List<T> items) {
+        if (items.size() <= MAX_CHUNK_SIZE) {
+            // E.g. an empty snapshot is still sent, to clear the state of the car service.
+            return Collections.singletonList(items);
+        }
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += MAX_CHUNK_SIZE) {
+            chunks.add(new ArrayList<>(
+                    items.subList(i, Math.min(i + MAX_CHUNK_SIZE, items.size()))));
+        }
+        return chunks;
+    }
+
     /**
      * Unregisters the caller from TaskMonitor.
      */
@@ -163,6 +230,130 @@ public final class CarActivityManager {
         return Collections.emptyList();
     }
 
+    /**
+     * Returns the top visible task in the given display, {@code null} if there is none.
+     *
+     * @param displayId the id of {@link Display} to retrieve the task from,
+     *         {Display.INVALID_DISPLAY} to retrieve the top task across all the displays.
+     */
+    @Nullable
+    public ActivityManager.RunningTaskInfo getTopTask(int displayId) {
+        try {
+            return mService.getTopTask(displayId);
+        } catch (RemoteException e) {
+            handleRemoteExceptionFromCarService(e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the projections of the visible tasks in the given display, from top to bottom. They
+     * are much smaller than the task infos of {@link #getVisibleTasks(int)} and are read in pages,
+     * so that any number of tasks fits in the binder transactions.
+     *
+     * @param displayId the id of {@link Display} to retrieve the tasks,
+     *         {Display.INVALID_DISPLAY} to retrieve the tasks in the all displays.
+     */
+    @NonNull
+    public List<CarTaskProjection> getVisibleTaskProjections(int displayId) {
+        try {
+            for (int attempt = 0; attempt <= MAX_PROJECTION_PAGE_RETRIES; attempt++) {
+                CarTaskProjectionPage page = mService.getVisibleTaskProjections(displayId,
+                        /* offset= */ 0, PROJECTION_PAGE_SIZE);
+                long version = page.getVersion();
+                List<CarTaskProjection> projections = new ArrayList<>(page.getProjections());
+                while (page.getNextOffset() != CarTaskProjectionPage.NO_MORE_PAGES
+                        && page.getVersion() == version) {
+                    page = mService.getVisibleTaskProjections(displayId, page.getNextOffset(),
+                            PROJECTION_PAGE_SIZE);
+                    projections.addAll(page.getProjections());
+                }
+                if (page.getVersion() == version) {
+                    return projections;
+                }
+            }
+        } catch (RemoteException e) {
+            handleRemoteExceptionFromCarService(e);
+            return Collections.emptyList();
+        }
+        // The tasks change faster than the pages are read, get them all at once instead.
+        return getVisibleTaskProjectionsBulk(displayId);
+    }
+
+    /**
+     * Like {@link #getVisibleTaskProjections(int)}, but all the projections are sent at once
+     * through a shared memory. This is meant for the large task stacks, the shared memory is a
+     * waste for a few tasks.
+     */
+    @NonNull
+    public List<CarTaskProjection> getVisibleTaskProjectionsBulk(int displayId) {
+        try (SharedMemory memory = SharedMemory.fromFileDescriptor(
+                mService.getVisibleTaskProjectionsBulk(displayId))) {
+            return CarTaskProjection.readFromSharedMemory(memory);
+        } catch (RemoteException e) {
+            handleRemoteExceptionFromCarService(e);
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Failed to read the task projections", e);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Registers a listener of the task stack changes, as an alternative to polling
+     * {@link #getVisibleTasks(int)}. The listener first receives the current tasks, then the
+     * changes of the tasks selected by {@code filter}.
+     *
+     * @param executor the executor which the {@code listener} will be called on.
+     * @param filter selects the tasks to be reported, {@link TaskStackFilter#ALL} for all of them.
+     * @throws IllegalArgumentException if the listener is already registered.
+     */
+    public void registerTaskStackListener(@NonNull Executor executor,
+                                          @NonNull TaskStackFilter filter,
+                                          @NonNull TaskStackListener listener) {
+        ICarTaskStackListener binder = new TaskStackListenerWrapper(executor, listener);
+        synchronized (mTaskStackListeners) {
+            if (mTaskStackListeners.containsKey(listener)) {
+                throw new IllegalArgumentException("Listener is already registered: " + listener);
+            }
+        }
+        try {
+            mService.registerTaskStackListener(binder, filter);
+        } catch (RemoteException e) {
+            // Not kept, the listener isn't registered with the car service.
+            handleRemoteExceptionFromCarService(e);
+            return;
+        }
+        ICarTaskStackListener registered;
+        synchronized (mTaskStackListeners) {
+            registered = mTaskStackListeners.putIfAbsent(listener, binder);
+        }
+        if (registered != null) {
+            // Registered concurrently by another thread, which keeps its registration.
+            try {
+                mService.unregisterTaskStackListener(binder);
+            } catch (RemoteException e) {
+                handleRemoteExceptionFromCarService(e);
+            }
+            throw new IllegalArgumentException("Listener is already registered: " + listener);
+        }
+    }
+
+    /** Unregisters a listener registered by {@link #registerTaskStackListener}. */
+    public void unregisterTaskStackListener(@NonNull TaskStackListener listener) {
+        ICarTaskStackListener binder;
+        synchronized (mTaskStackListeners) {
+            binder = mTaskStackListeners.remove(listener);
+        }
+        if (binder == null) {
+            return;
+        }
+        try {
+            mService.unregisterTaskStackListener(binder);
+        } catch (RemoteException e) {
+            handleRemoteExceptionFromCarService(e);
+        }
+    }
+
     /**
      * Registers a system ui proxy which will be used by the client apps to interact with the
      * system-ui for things like creating task views, getting notified about immersive mode
@@ -253,6 +444,50 @@ public final class CarActivityManager {
         }
     }
 
+    private static final class TaskStackListenerWrapper extends ICarTaskStackListener.Stub {
+        private final Executor mExecutor;
+        private final TaskStackListener mListener;
+
+        TaskStackListenerWrapper(Executor executor, TaskStackListener listener) {
+            mExecutor = executor;
+            mListener = listener;
+        }
+
+        @Override
+        public void onTaskStackSnapshot(List<ActivityManager.RunningTaskInfo> tasks) {
+            execute(() -> mListener.onTaskStackSnapshot(tasks));
+        }
+
+        @Override
+        public void onTaskAppeared(ActivityManager.RunningTaskInfo taskInfo) {
+            execute(() -> mListener.onTaskAppeared(taskInfo));
+        }
+
+        @Override
+        public void onTaskInfoChanged(ActivityManager.RunningTaskInfo taskInfo) {
+            execute(() -> mListener.onTaskInfoChanged(taskInfo));
+        }
+
+        @Override
+        public void onTaskVanished(ActivityManager.RunningTaskInfo taskInfo) {
+            execute(() -> mListener.onTaskVanished(taskInfo));
+        }
+
+        @Override
+        public void onTopTaskChanged(int displayId, ActivityManager.RunningTaskInfo taskInfo) {
+            execute(() -> mListener.onTopTaskChanged(displayId, taskInfo));
+        }
+
+        private void execute(Runnable runnable) {
+            long identity = Binder.clearCallingIdentity();
+            try {
+                mExecutor.execute(runnable);
+            } finally {
+                Binder.restoreCallingIdentity(identity);
+            }
+        }
+    }
+
     private boolean noValidToken() {
         boolean valid = mTaskMonitorToken != null;
         if (!valid) {
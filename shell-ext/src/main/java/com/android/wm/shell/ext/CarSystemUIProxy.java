@@ -1,7 +1,11 @@
 package com.android.wm.shell.ext;
 
+import android.util.Pair;
+
 import androidx.annotation.NonNull;
 
+import java.util.List;
+
 /**
  * A blueprint for the system ui proxy which is meant to host all the system ui interaction that is
  * required by other apps.
@@ -24,4 +28,16 @@ public interface CarSystemUIProxy {
      */
     @NonNull
     CarTaskViewHost createCarTaskView(@NonNull CarTaskViewClient carTaskViewClient);
+
+    /**
+     * Applies a batch of operations targeting the given task view hosts, in order.
+     * Implementations should apply them as a single WM transaction, the default implementation
+     * applies them one by one.
+     */
+    default void applyTaskViewOperations(
+            @NonNull List<Pair<CarTaskViewHost, CarTaskViewOperation>> operations) {
+        for (int i = 0; i < operations.size(); i++) {
+            operations.get(i).second.applyTo(operations.get(i).first);
+        }
+    }
 }
@@ -1,19 +1,37 @@
 package com.android.wm.shell.ext;
 
 import android.os.IBinder;
+import android.os.Parcel;
 import android.os.RemoteException;
+import android.util.Log;
+import android.util.Pair;
+
+import com.android.wm.shell.ext.utils.BinderTrafficStats;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class wraps the client's {@link CarSystemUIProxy} implementation & facilitates the
  * communication with {@link ICarSystemUIProxy}.
  */
 final class CarSystemUIProxyAidlWrapper extends ICarSystemUIProxy.Stub {
+    private static final String TAG = CarSystemUIProxyAidlWrapper.class.getSimpleName();
+    private static final BinderTrafficStats TRAFFIC_STATS =
+            BinderTrafficStats.forInterface(ICarSystemUIProxy.Stub.class);
     private final CarSystemUIProxy mCarSystemUIProxy;
 
     CarSystemUIProxyAidlWrapper(CarSystemUIProxy carSystemUIProxy) {
         mCarSystemUIProxy = carSystemUIProxy;
     }
 
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        return TRAFFIC_STATS.onTransact(code, data, reply, flags,
+                () -> super.onTransact(code, data, reply, flags));
+    }
+
     @Override
     public ICarTaskViewHost createControlledCarTaskView(ICarTaskViewClient client) {
         return createCarTaskView(client);
@@ -42,4 +60,22 @@ final class CarSystemUIProxyAidlWrapper extends ICarSystemUIProxy.Stub {
 
         return new CarTaskViewHostAidlToImplAdapter(carTaskViewHost);
     }
+
+    @Override
+    public void applyTaskViewOperations(List<CarTaskViewOperation> operations) {
+        List<Pair<CarTaskViewHost, CarTaskViewOperation>> resolved =
+                new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            CarTaskViewOperation op = operations.get(i);
+            // The hosts are created by this process, so the tokens unparcel to the local stubs.
+            if (!(op.getHostToken() instanceof CarTaskViewHostAidlToImplAdapter)) {
+                Log.w(TAG, "Skipping operation for an unknown task view host: " + op);
+                continue;
+            }
+            resolved.add(new Pair<>(
+                    ((CarTaskViewHostAidlToImplAdapter) op.getHostToken()).getCarTaskViewHost(),
+                    op));
+        }
+        mCarSystemUIProxy.applyTaskViewOperations(resolved);
+    }
 }
@@ -0,0 +1,143 @@
+package com.android.wm.shell.ext;
+
+import android.app.ActivityManager;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.view.SurfaceControl;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * A single task event which is delivered as part of a batch through
+ * {@link ICarTaskViewClient#onTaskEvents(java.util.List, long)} or
+ * {@link ICarActivityService#onTaskEvents(android.os.IBinder, java.util.List, long)}.
+ */
+public final class CarTaskEvent implements Parcelable {
+    public static final int TYPE_TASK_APPEARED = 1;
+    public static final int TYPE_TASK_INFO_CHANGED = 2;
+    public static final int TYPE_TASK_VANISHED = 3;
+    public static final int TYPE_RESIZE_BACKGROUND_COLOR = 4;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            TYPE_TASK_APPEARED,
+            TYPE_TASK_INFO_CHANGED,
+            TYPE_TASK_VANISHED,
+            TYPE_RESIZE_BACKGROUND_COLOR,
+    })
+    public @interface EventType {}
+
+    @EventType
+    private final int mType;
+    @Nullable
+    private final ActivityManager.RunningTaskInfo mTaskInfo;
+    @Nullable
+    private final SurfaceControl mLeash;
+    private final int mColor;
+
+    private CarTaskEvent(@EventType int type, @Nullable ActivityManager.RunningTaskInfo taskInfo,
+                         @Nullable SurfaceControl leash, int color) {
+        mType = type;
+        mTaskInfo = taskInfo;
+        mLeash = leash;
+        mColor = color;
+    }
+
+    private CarTaskEvent(Parcel in) {
+        mType = in.readInt();
+        mTaskInfo = in.readTypedObject(ActivityManager.RunningTaskInfo.CREATOR);
+        mLeash = in.readTypedObject(SurfaceControl.CREATOR);
+        mColor = in.readInt();
+    }
+
+    /**
+     * See {@link CarTaskViewClient#onTaskAppeared}. The leash is {@code null} for the tasks which
+     * are reported to the car service when it connects.
+     */
+    @NonNull
+    public static CarTaskEvent taskAppeared(@NonNull ActivityManager.RunningTaskInfo taskInfo,
+                                            @Nullable SurfaceControl leash) {
+        return new CarTaskEvent(TYPE_TASK_APPEARED, taskInfo, leash, /* color= */ 0);
+    }
+
+    /** See {@link CarTaskViewClient#onTaskInfoChanged}. */
+    @NonNull
+    public static CarTaskEvent taskInfoChanged(@NonNull ActivityManager.RunningTaskInfo taskInfo) {
+        return new CarTaskEvent(TYPE_TASK_INFO_CHANGED, taskInfo, /* leash= */ null,
+                /* color= */ 0);
+    }
+
+    /** See {@link CarTaskViewClient#onTaskVanished}. */
+    @NonNull
+    public static CarTaskEvent taskVanished(@NonNull ActivityManager.RunningTaskInfo taskInfo) {
+        return new CarTaskEvent(TYPE_TASK_VANISHED, taskInfo, /* leash= */ null, /* color= */ 0);
+    }
+
+    /** See {@link CarTaskViewClient#setResizeBackgroundColor}. */
+    @NonNull
+    public static CarTaskEvent resizeBackgroundColor(int color) {
+        return new CarTaskEvent(TYPE_RESIZE_BACKGROUND_COLOR, /* taskInfo= */ null,
+                /* leash= */ null, color);
+    }
+
+    @EventType
+    public int getType() {
+        return mType;
+    }
+
+    /** Returns the task info, {@code null} for {@link #TYPE_RESIZE_BACKGROUND_COLOR}. */
+    @Nullable
+    public ActivityManager.RunningTaskInfo getTaskInfo() {
+        return mTaskInfo;
+    }
+
+    /** Returns the leash of the task, only set for {@link #TYPE_TASK_APPEARED}. */
+    @Nullable
+    public SurfaceControl getLeash() {
+        return mLeash;
+    }
+
+    public int getColor() {
+        return mColor;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeInt(mType);
+        dest.writeTypedObject(mTaskInfo, flags);
+        dest.writeTypedObject(mLeash, flags);
+        dest.writeInt(mColor);
+    }
+
+    @Override
+    public String toString() {
+        return "CarTaskEvent {"
+                + "type=" + mType
+                + ", taskId=" + (mTaskInfo == null ? "null" : mTaskInfo.taskId)
+                + ", color=" + Integer.toHexString(mColor)
+                + "}";
+    }
+
+    @NonNull
+    public static final Creator<CarTaskEvent> CREATOR = new Creator<>() {
+        @Override
+        public CarTaskEvent createFromParcel(Parcel in) {
+            return new CarTaskEvent(in);
+        }
+
+        @Override
+        public CarTaskEvent[] newArray(int size) {
+            return new CarTaskEvent[size];
+        }
+    };
+}
@@ -0,0 +1,159 @@
+package com.android.wm.shell.ext;
+
+import android.content.ComponentName;
+import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The lean view of a task returned by {@link CarActivityManager#getVisibleTaskProjections(int)},
+ * a fraction of the size of a {@link android.app.ActivityManager.RunningTaskInfo} once parceled.
+ */
+public final class CarTaskProjection implements Parcelable {
+    private static final String SHARED_MEMORY_NAME = "CarTaskProjections";
+
+    private final int mTaskId;
+    private final int mDisplayId;
+    @Nullable
+    private final ComponentName mTopActivity;
+    @NonNull
+    private final Rect mBounds;
+    private final boolean mVisible;
+
+    public CarTaskProjection(int taskId, int displayId, @Nullable ComponentName topActivity,
+                             @NonNull Rect bounds, boolean visible) {
+        mTaskId = taskId;
+        mDisplayId = displayId;
+        mTopActivity = topActivity;
+        mBounds = new Rect(bounds);
+        mVisible = visible;
+    }
+
+    private CarTaskProjection(Parcel in) {
+        mTaskId = in.readInt();
+        mDisplayId = in.readInt();
+        mTopActivity = ComponentName.readFromParcel(in);
+        mBounds = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        mVisible = in.readBoolean();
+    }
+
+    public int getTaskId() {
+        return mTaskId;
+    }
+
+    public int getDisplayId() {
+        return mDisplayId;
+    }
+
+    /** Returns the top activity of the task, {@code null} if it has none. */
+    @Nullable
+    public ComponentName getTopActivity() {
+        return mTopActivity;
+    }
+
+    /** Returns the bounds of the task on its display. */
+    @NonNull
+    public Rect getBounds() {
+        return new Rect(mBounds);
+    }
+
+    public boolean isVisible() {
+        return mVisible;
+    }
+
+    /**
+     * Marshals {@code projections} into a new read only {@link SharedMemory}, which the caller
+     * should close.
+     */
+    @NonNull
+    public static SharedMemory writeToSharedMemory(@NonNull List<CarTaskProjection> projections)
+            throws ErrnoException {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedList(projections);
+            byte[] bytes = parcel.marshall();
+            SharedMemory memory = SharedMemory.create(SHARED_MEMORY_NAME, bytes.length);
+            ByteBuffer buffer = memory.mapReadWrite();
+            try {
+                buffer.put(bytes);
+            } finally {
+                SharedMemory.unmap(buffer);
+            }
+            memory.setProtect(OsConstants.PROT_READ);
+            return memory;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** Unmarshals the projections written by {@link #writeToSharedMemory(List)}. */
+    @NonNull
+    public static List<CarTaskProjection> readFromSharedMemory(@NonNull SharedMemory memory)
+            throws ErrnoException {
+        ByteBuffer buffer = memory.mapReadOnly();
+        Parcel parcel = Parcel.obtain();
+        try {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            parcel.unmarshall(bytes, /* offset= */ 0, bytes.length);
+            parcel.setDataPosition(0);
+            List<CarTaskProjection> projections = parcel.createTypedArrayList(CREATOR);
+            return projections != null ? projections : new ArrayList<>();
+        } finally {
+            parcel.recycle();
+            SharedMemory.unmap(buffer);
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeInt(mTaskId);
+        dest.writeInt(mDisplayId);
+        // Written as two strings, or a single null, instead of a typed object.
+        ComponentName.writeToParcel(mTopActivity, dest);
+        dest.writeInt(mBounds.left);
+        dest.writeInt(mBounds.top);
+        dest.writeInt(mBounds.right);
+        dest.writeInt(mBounds.bottom);
+        dest.writeBoolean(mVisible);
+    }
+
+    @Override
+    public String toString() {
+        return "CarTaskProjection {"
+                + "taskId=" + mTaskId
+                + ", displayId=" + mDisplayId
+                + ", topActivity=" + mTopActivity
+                + ", bounds=" + mBounds
+                + ", visible=" + mVisible
+                + "}";
+    }
+
+    @NonNull
+    public static final Creator<CarTaskProjection> CREATOR = new Creator<>() {
+        @Override
+        public CarTaskProjection createFromParcel(Parcel in) {
+            return new CarTaskProjection(in);
+        }
+
+        @Override
+        public CarTaskProjection[] newArray(int size) {
+            return new CarTaskProjection[size];
+        }
+    };
+}
@@ -0,0 +1,87 @@
+package com.android.wm.shell.ext;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * A page of {@link CarTaskProjection}s returned by
+ * {@link ICarActivityService#getVisibleTaskProjections(int, int, int)}.
+ */
+public final class CarTaskProjectionPage implements Parcelable {
+    /** The {@link #getNextOffset()} of the last page. */
+    public static final int NO_MORE_PAGES = -1;
+
+    @NonNull
+    private final List<CarTaskProjection> mProjections;
+    private final int mNextOffset;
+    private final long mVersion;
+
+    public CarTaskProjectionPage(@NonNull List<CarTaskProjection> projections, int nextOffset,
+                                 long version) {
+        mProjections = projections;
+        mNextOffset = nextOffset;
+        mVersion = version;
+    }
+
+    private CarTaskProjectionPage(Parcel in) {
+        mProjections = in.createTypedArrayList(CarTaskProjection.CREATOR);
+        mNextOffset = in.readInt();
+        mVersion = in.readLong();
+    }
+
+    @NonNull
+    public List<CarTaskProjection> getProjections() {
+        return mProjections;
+    }
+
+    /** Returns the offset of the next page, {@link #NO_MORE_PAGES} if this is the last one. */
+    public int getNextOffset() {
+        return mNextOffset;
+    }
+
+    /**
+     * Returns the version of the task state the page is taken from. The pages of different
+     * versions shouldn't be combined.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeTypedList(mProjections, flags);
+        dest.writeInt(mNextOffset);
+        dest.writeLong(mVersion);
+    }
+
+    @Override
+    public String toString() {
+        return "CarTaskProjectionPage {"
+                + "size=" + mProjections.size()
+                + ", nextOffset=" + mNextOffset
+                + ", version=" + mVersion
+                + "}";
+    }
+
+    @NonNull
+    public static final Creator<CarTaskProjectionPage> CREATOR = new Creator<>() {
+        @Override
+        public CarTaskProjectionPage createFromParcel(Parcel in) {
+            return new CarTaskProjectionPage(in);
+        }
+
+        @Override
+        public CarTaskProjectionPage[] newArray(int size) {
+            return new CarTaskProjectionPage[size];
+        }
+    };
+}
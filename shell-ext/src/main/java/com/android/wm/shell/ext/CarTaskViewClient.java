@@ -2,20 +2,93 @@ package com.android.wm.shell.ext;
 
 import android.app.ActivityManager;
 import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.RemoteException;
+import android.util.Log;
 import android.view.SurfaceControl;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 
+import com.android.wm.shell.ext.utils.SurfaceControlHelper;
+
+import java.util.ArrayList;
+
 /**
  * Represents the client part of the task view as seen by the server. This wraps the AIDL based
  * communication with the client apps.
+ *
+ * <p>The task events are not delivered synchronously. They are queued per client and sent in
+ * batches through the oneway {@link ICarTaskViewClient#onTaskEvents} from a background thread,
+ * so that a slow client can't hold up the shell thread. At most {@link #MAX_UNACKED_BATCHES}
+ * batches are in flight, the next one is sent once the client acknowledges them through
+ * {@link #onTaskEventsHandled(long)}. Meanwhile the queued events are conflated:
+ * <ul>
+ *     <li>{@code onTaskInfoChanged} replaces a queued one for the same task.</li>
+ *     <li>{@code setResizeBackgroundColor} replaces a queued one.</li>
+ *     <li>{@code onTaskVanished} cancels a queued {@code onTaskAppeared} of the same task, along
+ *     with the task info changes in between.</li>
+ * </ul>
+ * So the queue of a client which stops reading is bounded by the number of its tasks instead of
+ * the number of events. A client which doesn't acknowledge a batch within
+ * {@link #UNRESPONSIVE_TIMEOUT_MS} is marked as unresponsive, which is logged and dumped; it
+ * receives the conflated state in one batch as soon as it acknowledges again.
  */
 public final class CarTaskViewClient {
+    private static final String TAG = CarTaskViewClient.class.getSimpleName();
+    private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final int MAX_UNACKED_BATCHES = 2;
+    private static final long UNRESPONSIVE_TIMEOUT_MS = 5_000;
+
+    @GuardedBy("CarTaskViewClient.class")
+    private static Handler sDispatchHandler;
+
     private final ICarTaskViewClient mICarTaskViewClient;
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+    private final Runnable mDispatchRunnable = this::dispatchPendingEvents;
+    private final Runnable mUnresponsiveCheck = this::checkResponsive;
+
+    @GuardedBy("mLock")
+    private final ArrayList<CarTaskEvent> mPendingEvents = new ArrayList<>();
+    @GuardedBy("mLock")
+    private boolean mDispatchScheduled;
+    @GuardedBy("mLock")
+    private long mLastSentSeq;
+    @GuardedBy("mLock")
+    private long mLastAckedSeq;
+    @GuardedBy("mLock")
+    private boolean mUnresponsive;
+    @GuardedBy("mLock")
+    private boolean mReleased;
+
+    @GuardedBy("mLock")
+    private int mSentBatches;
+    @GuardedBy("mLock")
+    private int mSentEvents;
+    @GuardedBy("mLock")
+    private int mConflatedEvents;
+    @GuardedBy("mLock")
+    private int mMaxPendingEvents;
+    @GuardedBy("mLock")
+    private int mUnresponsiveCount;
 
     CarTaskViewClient(ICarTaskViewClient iCarCarTaskViewClient) {
         mICarTaskViewClient = iCarCarTaskViewClient;
+        mHandler = getDispatchHandler();
+    }
+
+    private static Handler getDispatchHandler() {
+        synchronized (CarTaskViewClient.class) {
+            if (sDispatchHandler == null) {
+                HandlerThread thread = new HandlerThread("CarTaskViewClientDispatcher");
+                thread.start();
+                sDispatchHandler = new Handler(thread.getLooper());
+            }
+            return sDispatchHandler;
+        }
     }
 
     /** Returns the current bounds (in pixels) on screen for the task view's view part. */
@@ -37,38 +110,206 @@ public final class CarTaskViewClient {
      */
     public void setResizeBackgroundColor(@NonNull SurfaceControl.Transaction transaction,
                                          int color) {
-        try {
-            mICarTaskViewClient.setResizeBackgroundColor(transaction, color);
-        } catch (RemoteException ex) {
-            ex.rethrowFromSystemServer();
-        }
+        enqueue(CarTaskEvent.resizeBackgroundColor(color));
     }
 
     /** Called when a task has appeared on the TaskView. */
     public void onTaskAppeared(@NonNull ActivityManager.RunningTaskInfo taskInfo,
                                @NonNull SurfaceControl leash) {
-        try {
-            mICarTaskViewClient.onTaskAppeared(taskInfo, leash);
-        } catch (RemoteException ex) {
-            ex.rethrowFromSystemServer();
-        }
+        // The leash is owned by the caller, which might release it before the event is sent.
+        enqueue(CarTaskEvent.taskAppeared(taskInfo, SurfaceControlHelper.copy(leash, TAG)));
     }
 
     /** Called when a task has vanished from the TaskView. */
     public void onTaskVanished(@NonNull ActivityManager.RunningTaskInfo taskInfo) {
-        try {
-            mICarTaskViewClient.onTaskVanished(taskInfo);
-        } catch (RemoteException ex) {
-            ex.rethrowFromSystemServer();
-        }
+        enqueue(CarTaskEvent.taskVanished(taskInfo));
     }
 
     /** Called when the task in the TaskView is changed. */
     public void onTaskInfoChanged(@NonNull ActivityManager.RunningTaskInfo taskInfo) {
+        enqueue(CarTaskEvent.taskInfoChanged(taskInfo));
+    }
+
+    /** Called when the client has handled the batches of events up to {@code seq}. */
+    public void onTaskEventsHandled(long seq) {
+        synchronized (mLock) {
+            if (seq <= mLastAckedSeq || seq > mLastSentSeq) {
+                Log.w(TAG, "Ignoring unexpected ack " + seq + ", lastAcked=" + mLastAckedSeq
+                        + ", lastSent=" + mLastSentSeq);
+                return;
+            }
+            mLastAckedSeq = seq;
+            if (mUnresponsive) {
+                mUnresponsive = false;
+                Log.i(TAG, "Client is responsive again: " + mICarTaskViewClient.asBinder());
+            }
+            if (mLastAckedSeq == mLastSentSeq) {
+                mHandler.removeCallbacks(mUnresponsiveCheck);
+            }
+            scheduleDispatchLocked();
+        }
+    }
+
+    /** Drops the queued events, nothing is sent to the client afterwards. */
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            releaseLeashes(mPendingEvents);
+            mPendingEvents.clear();
+            mHandler.removeCallbacks(mDispatchRunnable);
+            mHandler.removeCallbacks(mUnresponsiveCheck);
+        }
+    }
+
+    private void enqueue(CarTaskEvent event) {
+        synchronized (mLock) {
+            if (mReleased) {
+                releaseLeash(event);
+                return;
+            }
+            if (!conflateLocked(event)) {
+                mPendingEvents.add(event);
+            }
+            mMaxPendingEvents = Math.max(mMaxPendingEvents, mPendingEvents.size());
+            scheduleDispatchLocked();
+        }
+    }
+
+    /** Returns {@code true} if the event has been merged into the pending ones. */
+    @GuardedBy("mLock")
+    private boolean conflateLocked(CarTaskEvent event) {
+        if (event.getType() == CarTaskEvent.TYPE_RESIZE_BACKGROUND_COLOR) {
+            for (int i = mPendingEvents.size() - 1; i >= 0; i--) {
+                if (mPendingEvents.get(i).getType() == CarTaskEvent.TYPE_RESIZE_BACKGROUND_COLOR) {
+                    mPendingEvents.set(i, event);
+                    mConflatedEvents++;
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (event.getType() == CarTaskEvent.TYPE_TASK_APPEARED) {
+            return false;
+        }
+        int taskId = event.getTaskInfo().taskId;
+        for (int i = mPendingEvents.size() - 1; i >= 0; i--) {
+            CarTaskEvent pending = mPendingEvents.get(i);
+            if (pending.getTaskInfo() == null || pending.getTaskInfo().taskId != taskId) {
+                continue;
+            }
+            if (pending.getType() == CarTaskEvent.TYPE_TASK_INFO_CHANGED) {
+                if (event.getType() == CarTaskEvent.TYPE_TASK_INFO_CHANGED) {
+                    mPendingEvents.set(i, event);
+                    mConflatedEvents++;
+                    return true;
+                }
+                // Keep looking for the appeared event of the vanished task.
+                continue;
+            }
+            if (pending.getType() == CarTaskEvent.TYPE_TASK_APPEARED
+                    && event.getType() == CarTaskEvent.TYPE_TASK_VANISHED) {
+                // The client has never seen the task, drop its whole lifecycle.
+                for (int j = mPendingEvents.size() - 1; j >= i; j--) {
+                    CarTaskEvent dropped = mPendingEvents.get(j);
+                    if (dropped.getTaskInfo() != null && dropped.getTaskInfo().taskId == taskId) {
+                        releaseLeash(dropped);
+                        mPendingEvents.remove(j);
+                        mConflatedEvents++;
+                    }
+                }
+                mConflatedEvents++;
+                return true;
+            }
+            return false;
+        }
+        return false;
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleDispatchLocked() {
+        if (mDispatchScheduled || mPendingEvents.isEmpty()
+                || mLastSentSeq - mLastAckedSeq >= MAX_UNACKED_BATCHES) {
+            return;
+        }
+        mDispatchScheduled = true;
+        mHandler.post(mDispatchRunnable);
+    }
+
+    private void dispatchPendingEvents() {
+        ArrayList<CarTaskEvent> batch;
+        long seq;
+        synchronized (mLock) {
+            mDispatchScheduled = false;
+            if (mReleased || mPendingEvents.isEmpty()) {
+                return;
+            }
+            if (mLastSentSeq - mLastAckedSeq >= MAX_UNACKED_BATCHES) {
+                // Sent again when the client acknowledges the batches in flight.
+                if (DBG) {
+                    Log.d(TAG, "Waiting for the client, pending=" + mPendingEvents.size());
+                }
+                return;
+            }
+            batch = new ArrayList<>(mPendingEvents);
+            mPendingEvents.clear();
+            seq = ++mLastSentSeq;
+            mSentBatches++;
+            mSentEvents += batch.size();
+            mHandler.removeCallbacks(mUnresponsiveCheck);
+            mHandler.postDelayed(mUnresponsiveCheck, UNRESPONSIVE_TIMEOUT_MS);
+        }
         try {
-            mICarTaskViewClient.onTaskInfoChanged(taskInfo);
-        } catch (RemoteException ex) {
-            ex.rethrowFromSystemServer();
+            mICarTaskViewClient.onTaskEvents(batch, seq);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to send task events as TaskView client has already died. Host "
+                    + "part will be released shortly.");
+            synchronized (mLock) {
+                mReleased = true;
+            }
+        } finally {
+            // The client got its own references to the leashes as part of the transaction.
+            releaseLeashes(batch);
+        }
+    }
+
+    private void checkResponsive() {
+        synchronized (mLock) {
+            if (mUnresponsive || mReleased || mLastAckedSeq == mLastSentSeq) {
+                return;
+            }
+            mUnresponsive = true;
+            mUnresponsiveCount++;
+            Log.w(TAG, "Client " + mICarTaskViewClient.asBinder() + " hasn't handled its task "
+                    + "events for " + UNRESPONSIVE_TIMEOUT_MS + "ms, conflating its events. "
+                    + "pending=" + mPendingEvents.size());
+        }
+    }
+
+    private static void releaseLeashes(ArrayList<CarTaskEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            releaseLeash(events.get(i));
+        }
+    }
+
+    private static void releaseLeash(CarTaskEvent event) {
+        if (event.getLeash() != null) {
+            SurfaceControlHelper.release(event.getLeash());
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "CarTaskViewClient {"
+                    + "pending=" + mPendingEvents.size()
+                    + ", maxPending=" + mMaxPendingEvents
+                    + ", sentBatches=" + mSentBatches
+                    + ", sentEvents=" + mSentEvents
+                    + ", conflated=" + mConflatedEvents
+                    + ", unacked=" + (mLastSentSeq - mLastAckedSeq)
+                    + ", unresponsive=" + mUnresponsive
+                    + ", unresponsiveCount=" + mUnresponsiveCount
+                    + "}";
         }
     }
 }
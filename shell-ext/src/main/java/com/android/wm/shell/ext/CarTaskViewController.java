@@ -32,6 +32,7 @@ public final class CarTaskViewController {
     private final CarTaskViewInputInterceptor mTaskViewInputInterceptor;
 
     private boolean mReleased = false;
+    private int mBatchDepth = 0;
 
     /**
      * @param service the binder interface to communicate with the car system UI.
@@ -76,6 +77,9 @@ public final class CarTaskViewController {
                     taskViewClient.mICarTaskViewClient);
             taskViewClient.setRemoteHost(host);
             mRemoteCarTaskViews.add(taskViewClient);
+            if (mBatchDepth > 0) {
+                taskViewClient.getOutbox().suspend();
+            }
 
             if (controlledRemoteCarTaskViewConfig.mShouldCaptureGestures
                     || controlledRemoteCarTaskViewConfig.mShouldCaptureLongPress) {
@@ -131,13 +135,68 @@ public final class CarTaskViewController {
         Iterator<RemoteCarTaskView> iterator = mRemoteCarTaskViews.iterator();
         while (iterator.hasNext()) {
             RemoteCarTaskView taskView = iterator.next();
-            // Remove the task view here itself because release triggers removal again which can
-            // result in concurrent modification exception.
+            // Remove the task view here itself because release triggers removal again which
+            // can result in concurrent modification exception.
             iterator.remove();
             taskView.release();
         }
     }
 
+    /**
+     * Starts collecting the bounds, visibility, z-order and insets updates made on the task views
+     * of this controller until the matching {@link #commit()}, instead of sending them one by one.
+     *
+     * <p>Batches can be nested, the operations are only sent by the outermost {@link #commit()}.
+     */
+    @MainThread
+    public void beginBatch() {
+        if (mReleased) {
+            throw new IllegalStateException("CarTaskViewController is already released");
+        }
+        if (mBatchDepth++ > 0) {
+            return;
+        }
+        for (int i = 0, length = mRemoteCarTaskViews.size(); i < length; i++) {
+            mRemoteCarTaskViews.get(i).getOutbox().suspend();
+        }
+    }
+
+    /**
+     * Sends the operations collected since {@link #beginBatch()} to the car system ui in a single
+     * binder call, which applies them to all the task views as one WM transaction.
+     *
+     * <p>The call is synchronous, so the later calls of the task views are ordered after the
+     * batch. It returns as soon as the car system ui queued the operations, not once they are
+     * applied, which keeps it short enough for the main thread.
+     */
+    @MainThread
+    public void commit() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("commit() called without beginBatch()");
+        }
+        if (--mBatchDepth > 0) {
+            return;
+        }
+        List<CarTaskViewOperation> operations = new ArrayList<>();
+        for (int i = 0, length = mRemoteCarTaskViews.size(); i < length; i++) {
+            mRemoteCarTaskViews.get(i).getOutbox().drainTo(operations);
+        }
+        try {
+            if (!operations.isEmpty()) {
+                if (DBG) {
+                    Log.d(TAG, "Committing " + operations.size() + " operations");
+                }
+                mService.applyTaskViewOperations(operations);
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Unable to apply the task view operations.", e);
+        } finally {
+            for (int i = 0, length = mRemoteCarTaskViews.size(); i < length; i++) {
+                mRemoteCarTaskViews.get(i).getOutbox().resume();
+            }
+        }
+    }
+
     /**
      * Brings all the embedded tasks to the front.
      */
@@ -146,12 +205,11 @@ public final class CarTaskViewController {
         if (mReleased) {
             throw new IllegalStateException("CarTaskViewController is already released");
         }
+        beginBatch();
         for (int i = 0, length = mRemoteCarTaskViews.size(); i < length; i++) {
-            RemoteCarTaskView remoteCarTaskView = mRemoteCarTaskViews.get(i);
-            // TODO(b/267314188): Add a new method in ICarSystemUI to call
-            // showEmbeddedTask in a single WCT for multiple tasks.
-            remoteCarTaskView.showEmbeddedTask();
+            mRemoteCarTaskViews.get(i).showEmbeddedTask();
         }
+        commit();
     }
 
     /**
@@ -162,14 +220,14 @@ public final class CarTaskViewController {
         if (mReleased) {
             throw new IllegalStateException("CarTaskViewController is already released");
         }
+        beginBatch();
         for (int i = 0, length = mRemoteCarTaskViews.size(); i < length; i++) {
             RemoteCarTaskView carTaskView = mRemoteCarTaskViews.get(i);
-            // TODO(b/267314188): Add a new method in ICarSystemUI to call
-            // showEmbeddedTask in a single WCT for multiple tasks.
             if (carTaskView instanceof ControlledRemoteCarTaskView) {
                 carTaskView.showEmbeddedTask();
             }
         }
+        commit();
     }
 
     boolean isHostVisible() {
@@ -31,7 +31,8 @@ public final class CarTaskViewControllerHostLifecycle {
      * internal state.
      */
     public void hostDestroyed() {
-        for (CarTaskViewControllerHostLifecycleObserver observer : mObserverList) {
+        // The observers unregister themselves once the host is destroyed.
+        for (CarTaskViewControllerHostLifecycleObserver observer : new ArrayList<>(mObserverList)) {
             observer.onHostDestroyed(this);
         }
     }
@@ -79,4 +79,16 @@ public interface CarTaskViewHost {
      * {@link #addInsets(int, int, Rect)}
      */
     void removeInsets(int index, int type);
+
+    /**
+     * Notifies the host side that the client has handled the task events sent up to {@code seq}
+     * through {@link ICarTaskViewClient#onTaskEvents}.
+     */
+    void onTaskEventsHandled(long seq);
+
+    /**
+     * Sets the {@link TaskInfoFilter} fields whose changes are forwarded to the client through
+     * {@code onTaskInfoChanged}.
+     */
+    void setTaskInfoFilter(@TaskInfoFilter.Fields int fields);
 }
@@ -4,22 +4,40 @@ import android.app.PendingIntent;
 import android.content.Intent;
 import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.Parcel;
+import android.os.RemoteException;
 import android.util.Log;
 import android.view.SurfaceControl;
 
 import androidx.annotation.NonNull;
 
+import com.android.wm.shell.ext.utils.BinderTrafficStats;
+
 /**
  * An adapter that adapts {@link ICarTaskViewHost} to {@link CarTaskViewHost}.
  */
 final class CarTaskViewHostAidlToImplAdapter extends ICarTaskViewHost.Stub {
     private static final String TAG = "CarTaskViewHostImpl";
+    // Shared by the task views of the process.
+    private static final BinderTrafficStats TRAFFIC_STATS =
+            BinderTrafficStats.forInterface(ICarTaskViewHost.Stub.class);
     private final CarTaskViewHost mCarTaskViewHost;
 
     CarTaskViewHostAidlToImplAdapter(CarTaskViewHost carTaskViewHost) {
         mCarTaskViewHost = carTaskViewHost;
     }
 
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        return TRAFFIC_STATS.onTransact(code, data, reply, flags,
+                () -> super.onTransact(code, data, reply, flags));
+    }
+
+    CarTaskViewHost getCarTaskViewHost() {
+        return mCarTaskViewHost;
+    }
+
     @Override
     public void release() {
         Log.d(TAG, "release");
@@ -78,4 +96,15 @@ final class CarTaskViewHostAidlToImplAdapter extends ICarTaskViewHost.Stub {
     public void removeInsets(int index, int type) {
         mCarTaskViewHost.removeInsets(index, type);
     }
+
+    @Override
+    public void onTaskEventsHandled(long seq) {
+        mCarTaskViewHost.onTaskEventsHandled(seq);
+    }
+
+    @Override
+    public void setTaskInfoFilter(int fields) {
+        Log.d(TAG, "setTaskInfoFilter " + Integer.toHexString(fields));
+        mCarTaskViewHost.setTaskInfoFilter(fields);
+    }
 }
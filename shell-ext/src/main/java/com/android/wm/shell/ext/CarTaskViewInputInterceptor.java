@@ -13,6 +13,7 @@ import android.view.WindowManager;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.android.wm.shell.ext.utils.InputManagerHelper;
 import com.android.wm.shell.ext.utils.ViewHelper;
@@ -85,6 +86,25 @@ final class CarTaskViewInputInterceptor {
         return sTmpBounds.contains((int) event.getX(), (int) event.getY());
     }
 
+    /**
+     * Returns the first of {@code taskViews} which captures the gestures and contains
+     * {@code event}, null if there is none.
+     */
+    @Nullable
+    @MainThread
+    static RemoteCarTaskView findGestureTarget(List<RemoteCarTaskView> taskViews,
+                                               MotionEvent event) {
+        for (int i = 0, length = taskViews.size(); i < length; i++) {
+            RemoteCarTaskView tv = taskViews.get(i);
+            if (tv instanceof ControlledRemoteCarTaskView
+                    && ((ControlledRemoteCarTaskView) tv).getConfig().mShouldCaptureGestures
+                    && isIn(event, tv)) {
+                return tv;
+            }
+        }
+        return null;
+    }
+
     /**
      * Initializes & starts intercepting gestures. Does nothing if already initialized.
      */
@@ -181,19 +201,11 @@ final class CarTaskViewInputInterceptor {
             mGestureDetector.onTouchEvent(event);
 
             if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                mActionDownInsideTaskView = null;
-
-                List<RemoteCarTaskView> taskViewList = mTaskViewController.getRemoteCarTaskViews();
-                for (int i = 0, length = taskViewList.size(); i < length; i++) {
-                    RemoteCarTaskView tv = taskViewList.get(i);
-                    if (tv instanceof ControlledRemoteCarTaskView
-                            && ((ControlledRemoteCarTaskView) tv).getConfig()
-                            .mShouldCaptureGestures && isIn(event, tv)) {
-                        mTouchDownX = event.getX();
-                        mTouchDownY = event.getY();
-                        mActionDownInsideTaskView = tv;
-                        break;
-                    }
+                mActionDownInsideTaskView = findGestureTarget(
+                        mTaskViewController.getRemoteCarTaskViews(), event);
+                if (mActionDownInsideTaskView != null) {
+                    mTouchDownX = event.getX();
+                    mTouchDownY = event.getY();
                 }
 
                 // Stop consuming immediately on ACTION_DOWN
@@ -249,23 +261,19 @@ final class CarTaskViewInputInterceptor {
     private final class TaskViewGestureListener extends GestureDetector.SimpleOnGestureListener {
         @Override
         public void onLongPress(@NonNull MotionEvent e) {
-            List<RemoteCarTaskView> taskViewList = mTaskViewController.getRemoteCarTaskViews();
-            for (int i = 0, length = taskViewList.size(); i < length; i++) {
-                RemoteCarTaskView tv = taskViewList.get(i);
-                if (tv instanceof ControlledRemoteCarTaskView
-                        && ((ControlledRemoteCarTaskView) tv).getConfig().mShouldCaptureGestures
-                        && isIn(e, tv)) {
-                    if (DBG) {
-                        Log.d(TAG, "Long press captured for taskView: " + tv);
-                    }
-                    InputManagerHelper.pilferPointers(mInputManager, mSpyWindow);
-                    tv.performLongClick();
-                    return;
+            RemoteCarTaskView tv =
+                    findGestureTarget(mTaskViewController.getRemoteCarTaskViews(), e);
+            if (tv == null) {
+                if (DBG) {
+                    Log.d(TAG, "Long press not captured");
                 }
+                return;
             }
             if (DBG) {
-                Log.d(TAG, "Long press not captured");
+                Log.d(TAG, "Long press captured for taskView: " + tv);
             }
+            InputManagerHelper.pilferPointers(mInputManager, mSpyWindow);
+            tv.performLongClick();
         }
     }
 }
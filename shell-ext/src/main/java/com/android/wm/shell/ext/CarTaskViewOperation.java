@@ -0,0 +1,204 @@
+package com.android.wm.shell.ext;
+
+import android.graphics.Rect;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * A single {@link ICarTaskViewHost} operation which is sent as part of a batch through
+ * {@link ICarSystemUIProxy#applyTaskViewOperations(java.util.List)}.
+ */
+public final class CarTaskViewOperation implements Parcelable {
+    public static final int TYPE_SET_WINDOW_BOUNDS = 1;
+    public static final int TYPE_SET_TASK_VISIBILITY = 2;
+    public static final int TYPE_REORDER_TASK = 3;
+    public static final int TYPE_ADD_INSETS = 4;
+    public static final int TYPE_REMOVE_INSETS = 5;
+    public static final int TYPE_SHOW_EMBEDDED_TASK = 6;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            TYPE_SET_WINDOW_BOUNDS,
+            TYPE_SET_TASK_VISIBILITY,
+            TYPE_REORDER_TASK,
+            TYPE_ADD_INSETS,
+            TYPE_REMOVE_INSETS,
+            TYPE_SHOW_EMBEDDED_TASK,
+    })
+    public @interface OperationType {}
+
+    private final IBinder mHostToken;
+    @OperationType
+    private final int mType;
+    @Nullable
+    private final Rect mRect;
+    private final boolean mValue;
+    private final int mInsetsIndex;
+    private final int mInsetsType;
+
+    private CarTaskViewOperation(IBinder hostToken, @OperationType int type, @Nullable Rect rect,
+                                 boolean value, int insetsIndex, int insetsType) {
+        mHostToken = hostToken;
+        mType = type;
+        mRect = rect;
+        mValue = value;
+        mInsetsIndex = insetsIndex;
+        mInsetsType = insetsType;
+    }
+
+    private CarTaskViewOperation(Parcel in) {
+        mHostToken = in.readStrongBinder();
+        mType = in.readInt();
+        mRect = in.readTypedObject(Rect.CREATOR);
+        mValue = in.readBoolean();
+        mInsetsIndex = in.readInt();
+        mInsetsType = in.readInt();
+    }
+
+    /** See {@link CarTaskViewHost#setWindowBounds(Rect)}. */
+    @NonNull
+    public static CarTaskViewOperation setWindowBounds(@NonNull IBinder hostToken,
+                                                       @NonNull Rect bounds) {
+        return new CarTaskViewOperation(hostToken, TYPE_SET_WINDOW_BOUNDS, new Rect(bounds),
+                /* value= */ false, /* insetsIndex= */ 0, /* insetsType= */ 0);
+    }
+
+    /** See {@link CarTaskViewHost#setTaskVisibility(boolean)}. */
+    @NonNull
+    public static CarTaskViewOperation setTaskVisibility(@NonNull IBinder hostToken,
+                                                         boolean visibility) {
+        return new CarTaskViewOperation(hostToken, TYPE_SET_TASK_VISIBILITY, /* rect= */ null,
+                visibility, /* insetsIndex= */ 0, /* insetsType= */ 0);
+    }
+
+    /** See {@link CarTaskViewHost#reorderTask(boolean)}. */
+    @NonNull
+    public static CarTaskViewOperation reorderTask(@NonNull IBinder hostToken, boolean onTop) {
+        return new CarTaskViewOperation(hostToken, TYPE_REORDER_TASK, /* rect= */ null, onTop,
+                /* insetsIndex= */ 0, /* insetsType= */ 0);
+    }
+
+    /** See {@link CarTaskViewHost#addInsets(int, int, Rect)}. */
+    @NonNull
+    public static CarTaskViewOperation addInsets(@NonNull IBinder hostToken, int index, int type,
+                                                 @NonNull Rect frame) {
+        return new CarTaskViewOperation(hostToken, TYPE_ADD_INSETS, new Rect(frame),
+                /* value= */ false, index, type);
+    }
+
+    /** See {@link CarTaskViewHost#removeInsets(int, int)}. */
+    @NonNull
+    public static CarTaskViewOperation removeInsets(@NonNull IBinder hostToken, int index,
+                                                    int type) {
+        return new CarTaskViewOperation(hostToken, TYPE_REMOVE_INSETS, /* rect= */ null,
+                /* value= */ false, index, type);
+    }
+
+    /** See {@link CarTaskViewHost#showEmbeddedTask()}. */
+    @NonNull
+    public static CarTaskViewOperation showEmbeddedTask(@NonNull IBinder hostToken) {
+        return new CarTaskViewOperation(hostToken, TYPE_SHOW_EMBEDDED_TASK, /* rect= */ null,
+                /* value= */ false, /* insetsIndex= */ 0, /* insetsType= */ 0);
+    }
+
+    /** Returns the binder of the {@link ICarTaskViewHost} the operation is targeted to. */
+    @NonNull
+    public IBinder getHostToken() {
+        return mHostToken;
+    }
+
+    @OperationType
+    public int getType() {
+        return mType;
+    }
+
+    /** Returns the window bounds or the insets frame, depending on the type. */
+    @Nullable
+    public Rect getRect() {
+        return mRect;
+    }
+
+    /** Returns the visibility or the {@code onTop} flag, depending on the type. */
+    public boolean getValue() {
+        return mValue;
+    }
+
+    public int getInsetsIndex() {
+        return mInsetsIndex;
+    }
+
+    public int getInsetsType() {
+        return mInsetsType;
+    }
+
+    /** Applies this operation on the given host, as if it was called directly. */
+    public void applyTo(@NonNull CarTaskViewHost host) {
+        switch (mType) {
+            case TYPE_SET_WINDOW_BOUNDS:
+                host.setWindowBounds(mRect);
+                break;
+            case TYPE_SET_TASK_VISIBILITY:
+                host.setTaskVisibility(mValue);
+                break;
+            case TYPE_REORDER_TASK:
+                host.reorderTask(mValue);
+                break;
+            case TYPE_ADD_INSETS:
+                host.addInsets(mInsetsIndex, mInsetsType, mRect);
+                break;
+            case TYPE_REMOVE_INSETS:
+                host.removeInsets(mInsetsIndex, mInsetsType);
+                break;
+            case TYPE_SHOW_EMBEDDED_TASK:
+                host.showEmbeddedTask();
+                break;
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeStrongBinder(mHostToken);
+        dest.writeInt(mType);
+        dest.writeTypedObject(mRect, flags);
+        dest.writeBoolean(mValue);
+        dest.writeInt(mInsetsIndex);
+        dest.writeInt(mInsetsType);
+    }
+
+    @Override
+    public String toString() {
+        return "CarTaskViewOperation {"
+                + "type=" + mType
+                + ", rect=" + mRect
+                + ", value=" + mValue
+                + ", insetsIndex=" + mInsetsIndex
+                + ", insetsType=" + mInsetsType
+                + "}";
+    }
+
+    @NonNull
+    public static final Creator<CarTaskViewOperation> CREATOR = new Creator<>() {
+        @Override
+        public CarTaskViewOperation createFromParcel(Parcel in) {
+            return new CarTaskViewOperation(in);
+        }
+
+        @Override
+        public CarTaskViewOperation[] newArray(int size) {
+            return new CarTaskViewOperation[size];
+        }
+    };
+}
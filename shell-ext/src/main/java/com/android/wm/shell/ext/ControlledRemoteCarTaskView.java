@@ -8,6 +8,8 @@ import android.content.Intent;
 import android.graphics.Rect;
 import android.graphics.Region;
 import android.os.Binder;
+import android.os.Parcel;
+import android.os.RemoteException;
 import android.os.UserManager;
 import android.util.Log;
 import android.view.Display;
@@ -17,8 +19,10 @@ import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.android.wm.shell.ext.utils.BinderTrafficStats;
 import com.android.wm.shell.ext.utils.ViewHelper;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 
 /**
@@ -35,6 +39,9 @@ import java.util.concurrent.Executor;
  */
 public final class ControlledRemoteCarTaskView extends RemoteCarTaskView {
     private static final String TAG = ControlledRemoteCarTaskView.class.getSimpleName();
+    // Shared by the task views of the process.
+    private static final BinderTrafficStats CLIENT_TRAFFIC_STATS =
+            BinderTrafficStats.forInterface(ICarTaskViewClient.Stub.class);
 
     private final Executor mCallbackExecutor;
     private final ControlledRemoteCarTaskViewCallback mCallback;
@@ -46,8 +53,16 @@ public final class ControlledRemoteCarTaskView extends RemoteCarTaskView {
 
     private ActivityManager.RunningTaskInfo mTaskInfo;
     @Nullable private RunnerWithBackoff mStartActivityWithBackoff;
+    @Nullable private Integer mResizeBackgroundColor;
 
     final ICarTaskViewClient mICarTaskViewClient = new ICarTaskViewClient.Stub() {
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+                throws RemoteException {
+            return CLIENT_TRAFFIC_STATS.onTransact(code, data, reply, flags,
+                    () -> super.onTransact(code, data, reply, flags));
+        }
+
         @Override
         public void onTaskAppeared(ActivityManager.RunningTaskInfo taskInfo, SurfaceControl leash) {
             long identity = Binder.clearCallingIdentity();
@@ -55,8 +70,7 @@ public final class ControlledRemoteCarTaskView extends RemoteCarTaskView {
                 mTaskInfo = taskInfo;
                 updateWindowBounds();
                 if (taskInfo.taskDescription != null) {
-                    ViewHelper.seResizeBackgroundColor(ControlledRemoteCarTaskView.this,
-                            taskInfo.taskDescription.getBackgroundColor());
+                    updateResizeBackgroundColor(taskInfo.taskDescription.getBackgroundColor());
                 }
                 ControlledRemoteCarTaskView.this.onTaskAppeared(taskInfo, leash);
             } finally {
@@ -69,8 +83,7 @@ public final class ControlledRemoteCarTaskView extends RemoteCarTaskView {
             long identity = Binder.clearCallingIdentity();
             try {
                 if (taskInfo.taskDescription != null) {
-                    ViewHelper.seResizeBackgroundColor(ControlledRemoteCarTaskView.this,
-                            taskInfo.taskDescription.getBackgroundColor());
+                    updateResizeBackgroundColor(taskInfo.taskDescription.getBackgroundColor());
                 }
                 ControlledRemoteCarTaskView.this.onTaskInfoChanged(taskInfo);
             } finally {
@@ -91,16 +104,48 @@ public final class ControlledRemoteCarTaskView extends RemoteCarTaskView {
 
         @Override
         public void setResizeBackgroundColor(SurfaceControl.Transaction t, int color) {
-            ViewHelper.seResizeBackgroundColor(ControlledRemoteCarTaskView.this, color);
+            updateResizeBackgroundColor(color);
+        }
+
+        @Override
+        public void onTaskEvents(List<CarTaskEvent> events, long seq) {
+            for (int i = 0, size = events.size(); i < size; i++) {
+                CarTaskEvent event = events.get(i);
+                switch (event.getType()) {
+                    case CarTaskEvent.TYPE_TASK_APPEARED:
+                        onTaskAppeared(event.getTaskInfo(), event.getLeash());
+                        break;
+                    case CarTaskEvent.TYPE_TASK_INFO_CHANGED:
+                        onTaskInfoChanged(event.getTaskInfo());
+                        break;
+                    case CarTaskEvent.TYPE_TASK_VANISHED:
+                        onTaskVanished(event.getTaskInfo());
+                        break;
+                    case CarTaskEvent.TYPE_RESIZE_BACKGROUND_COLOR:
+                        setResizeBackgroundColor(/* t= */ null, event.getColor());
+                        break;
+                }
+            }
+            notifyTaskEventsHandled(seq);
         }
 
         @Override
         public Rect getCurrentBoundsOnScreen() {
-            ViewHelper.getBoundsOnScreen(ControlledRemoteCarTaskView.this, mTmpRect);
-            return mTmpRect;
+            // Called on a binder thread, so it can't share mTmpRect with the main thread.
+            Rect bounds = new Rect();
+            ViewHelper.getBoundsOnScreen(ControlledRemoteCarTaskView.this, bounds);
+            return bounds;
         }
     };
 
+    private void updateResizeBackgroundColor(int color) {
+        if (mResizeBackgroundColor != null && mResizeBackgroundColor == color) {
+            return;
+        }
+        mResizeBackgroundColor = color;
+        ViewHelper.seResizeBackgroundColor(this, color);
+    }
+
     ControlledRemoteCarTaskView(
             @NonNull Context context,
             ControlledRemoteCarTaskViewConfig config,
@@ -300,7 +345,8 @@ public final class ControlledRemoteCarTaskView extends RemoteCarTaskView {
         return TAG + " {\n"
                 + "  config=" + mConfig + "\n"
                 + "  taskId=" + (getTaskInfo() == null ? "null" : getTaskInfo().taskId) + "\n"
-                + (withBounds ? ("  boundsOnScreen=" + mTmpRect) : "")
+                + (withBounds ? ("  boundsOnScreen=" + mTmpRect + "\n") : "")
+                + "  outbox=" + getOutbox() + "\n"
                 + "}\n";
     }
 
@@ -7,6 +7,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Rect;
 import android.graphics.Region;
+import android.os.Bundle;
 import android.os.DeadObjectException;
 import android.os.RemoteException;
 import android.util.Log;
@@ -19,10 +20,12 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.android.wm.shell.ext.utils.SurfaceControlHelper;
+import com.android.wm.shell.ext.utils.TaskViewTrace;
 import com.android.wm.shell.ext.utils.ViewHelper;
 import com.android.wm.shell.ext.view.TouchableInsetsProvider;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A {@link SurfaceView} that can embed a Task inside of it. The task management is done remotely
@@ -34,14 +37,19 @@ public abstract class RemoteCarTaskView extends SurfaceView {
 
     private final TouchableInsetsProvider mTouchableInsetsProvider;
     private final SurfaceCallbackHandler mSurfaceCallbackHandler = new SurfaceCallbackHandler();
+    private final RemoteCarTaskViewOutbox mOutbox = new RemoteCarTaskViewOutbox();
     private final Rect mTmpRect = new Rect();
     private final AtomicBoolean mReleased = new AtomicBoolean(false);
     private final AtomicBoolean mDeferredSurfaceCreated = new AtomicBoolean(false);
+    // The launch traced until the task appears, see TaskViewTrace. Ended on the binder thread.
+    private final AtomicLong mLaunchFlowId = new AtomicLong(TaskViewTrace.NO_FLOW);
     private boolean mSurfaceCreatedDeferred = false;
     private boolean mInitialized = false;
     boolean mSurfaceCreated = false;
     private Region mObscuredTouchRegion;
     private ICarTaskViewHost mICarTaskViewHost;
+    @TaskInfoFilter.Fields
+    private int mTaskInfoFilter = TaskInfoFilter.FIELD_ANY;
 
     RemoteCarTaskView(Context context) {
         super(context);
@@ -52,11 +60,7 @@ public abstract class RemoteCarTaskView extends SurfaceView {
     /** Brings the embedded task to the front. Does nothing if there is no task. */
     @MainThread
     public void showEmbeddedTask() {
-        try {
-            mICarTaskViewHost.showEmbeddedTask();
-        } catch (RemoteException e) {
-            Log.e(TAG, "exception in showEmbeddedTask", e);
-        }
+        mOutbox.showEmbeddedTask();
     }
 
     /**
@@ -64,11 +68,7 @@ public abstract class RemoteCarTaskView extends SurfaceView {
      */
     @MainThread
     public void setTaskVisibility(boolean visibility) {
-        try {
-            mICarTaskViewHost.setTaskVisibility(visibility);
-        } catch (RemoteException e) {
-            Log.e(TAG, "exception in setTaskVisibility", e);
-        }
+        mOutbox.setTaskVisibility(visibility);
     }
 
     /**
@@ -76,11 +76,7 @@ public abstract class RemoteCarTaskView extends SurfaceView {
      */
     @MainThread
     public void reorderTask(boolean onTop) {
-        try {
-            mICarTaskViewHost.reorderTask(onTop);
-        } catch (RemoteException e) {
-            Log.e(TAG, "exception in reorderTask for task", e);
-        }
+        mOutbox.reorderTask(onTop);
     }
 
     /**
@@ -90,12 +86,8 @@ public abstract class RemoteCarTaskView extends SurfaceView {
     @MainThread
     public void updateWindowBounds() {
         ViewHelper.getBoundsOnScreen(RemoteCarTaskView.this, mTmpRect);
-        try {
-            Log.d(TAG, "updateWindowBounds: " + mTmpRect);
-            mICarTaskViewHost.setWindowBounds(mTmpRect);
-        } catch (RemoteException e) {
-            Log.e(TAG, "exception in setWindowBounds", e);
-        }
+        Log.d(TAG, "updateWindowBounds: " + mTmpRect);
+        mOutbox.setWindowBounds(mTmpRect);
     }
 
     /**
@@ -104,12 +96,8 @@ public abstract class RemoteCarTaskView extends SurfaceView {
      * @param bounds the new bounds in screen coordinates.
      */
     public void setWindowBounds(Rect bounds) {
-        try {
-            Log.d(TAG, "setWindowBounds: " + bounds);
-            mICarTaskViewHost.setWindowBounds(bounds);
-        } catch (RemoteException e) {
-            Log.e(TAG, "exception in setWindowBounds", e);
-        }
+        Log.d(TAG, "setWindowBounds: " + bounds);
+        mOutbox.setWindowBounds(bounds);
     }
 
     /**
@@ -167,10 +155,11 @@ public abstract class RemoteCarTaskView extends SurfaceView {
             Log.d(TAG, "setSurfaceCreatedDeferred: " + deferred);
             mSurfaceCreatedDeferred = deferred;
             if (mSurfaceCreated && !mSurfaceCreatedDeferred && mDeferredSurfaceCreated.get()) {
+                mOutbox.flush();
                 try {
                     Log.i(TAG, "Resend deferred notifySurfaceCreated");
                     mICarTaskViewHost.notifySurfaceCreated(
-                            SurfaceControlHelper.copy(getSurfaceControl()));
+                            SurfaceControlHelper.copy(getSurfaceControl(), TAG));
                 } catch (RemoteException e) {
                     Log.e(TAG, "exception in notifySurfaceCreated", e);
                 }
@@ -196,11 +185,7 @@ public abstract class RemoteCarTaskView extends SurfaceView {
      */
     @MainThread
     public void addInsets(int index, int type, @NonNull Rect frame) {
-        try {
-            mICarTaskViewHost.addInsets(index, type, frame);
-        } catch (RemoteException e) {
-            Log.e(TAG, "exception in addInsets", e);
-        }
+        mOutbox.addInsets(index, type, frame);
     }
 
     /**
@@ -214,15 +199,44 @@ public abstract class RemoteCarTaskView extends SurfaceView {
      * @param type  The insets type of the insets source. This doesn't accept the composite types.
      */
     public void removeInsets(int index, int type) {
+        mOutbox.removeInsets(index, type);
+    }
+
+    /**
+     * Sets the {@link TaskInfoFilter} fields whose changes should be reported through
+     * {@code onTaskInfoChanged}. Defaults to {@link TaskInfoFilter#FIELD_ANY}, every change is
+     * reported, as before the filter existed. Hosts which only need some of the fields opt in with
+     * e.g. {@link TaskInfoFilter#FIELDS_ALL}, which drops the changes of the other fields.
+     */
+    @MainThread
+    public void setTaskInfoFilter(@TaskInfoFilter.Fields int fields) {
+        mTaskInfoFilter = fields;
+        if (mICarTaskViewHost == null) {
+            // Sent once the host is set.
+            return;
+        }
+        try {
+            mICarTaskViewHost.setTaskInfoFilter(fields);
+        } catch (RemoteException e) {
+            Log.e(TAG, "exception in setTaskInfoFilter", e);
+        }
+    }
+
+    /** Acknowledges to the host that the task events up to {@code seq} have been handled. */
+    void notifyTaskEventsHandled(long seq) {
         try {
-            mICarTaskViewHost.removeInsets(index, type);
+            mICarTaskViewHost.onTaskEventsHandled(seq);
         } catch (RemoteException e) {
-            Log.e(TAG, "exception in removeInsets", e);
+            Log.e(TAG, "exception in onTaskEventsHandled", e);
         }
     }
 
     void setRemoteHost(@NonNull ICarTaskViewHost carTaskViewHost) {
         mICarTaskViewHost = carTaskViewHost;
+        mOutbox.setHost(carTaskViewHost);
+        if (mTaskInfoFilter != TaskInfoFilter.FIELD_ANY) {
+            setTaskInfoFilter(mTaskInfoFilter);
+        }
 
         if (mSurfaceCreated) {
             if (!mInitialized) {
@@ -246,12 +260,21 @@ public abstract class RemoteCarTaskView extends SurfaceView {
             @Nullable Intent fillInIntent,
             @NonNull ActivityOptions options,
             @Nullable Rect launchBounds) {
+        mOutbox.flush();
+        long flowId = TaskViewTrace.beginLaunch();
+        // A launch which didn't end in a task, e.g. retried by the backoff, is ended here.
+        TaskViewTrace.endLaunch(mLaunchFlowId.getAndSet(flowId));
+        Bundle optionsBundle = options.toBundle();
+        TaskViewTrace.putFlowId(optionsBundle, flowId);
+        TaskViewTrace.beginStage("RemoteCarTaskView.startActivity", flowId);
         try {
             Log.d(TAG, "startActivity: " + pendingIntent + " " + launchBounds);
             mICarTaskViewHost.startActivity(
-                    pendingIntent, fillInIntent, options.toBundle(), launchBounds);
+                    pendingIntent, fillInIntent, optionsBundle, launchBounds);
         } catch (RemoteException exception) {
             Log.e(TAG, "exception in startActivity", exception);
+        } finally {
+            TaskViewTrace.endStage(flowId);
         }
     }
 
@@ -259,6 +282,9 @@ public abstract class RemoteCarTaskView extends SurfaceView {
     @MainThread
     public void release() {
         getHolder().removeCallback(mSurfaceCallbackHandler);
+        // Nothing queued matters to the host once the task view is released.
+        mOutbox.clear();
+        TaskViewTrace.endLaunch(mLaunchFlowId.getAndSet(TaskViewTrace.NO_FLOW));
         try {
             mReleased.set(true);
             mICarTaskViewHost.release();
@@ -270,6 +296,13 @@ public abstract class RemoteCarTaskView extends SurfaceView {
         onReleased();
     }
 
+    /**
+     * @return the outbox which conflates the calls to the host, exposed for its counters.
+     */
+    RemoteCarTaskViewOutbox getOutbox() {
+        return mOutbox;
+    }
+
     /**
      * Called when the task view is initialized. It is called only once for the lifetime of
      * taskview.
@@ -288,6 +321,10 @@ public abstract class RemoteCarTaskView extends SurfaceView {
      * @param leash the suface control for the task surface.
      */
     void onTaskAppeared(ActivityManager.RunningTaskInfo taskInfo, SurfaceControl leash) {
+        // The host applies its stored state to the new task, resend everything from now on.
+        mOutbox.invalidateSentState();
+        TaskViewTrace.traceTaskAppeared(taskInfo.taskId);
+        TaskViewTrace.endLaunch(mLaunchFlowId.getAndSet(TaskViewTrace.NO_FLOW));
     }
 
     /**
@@ -304,6 +341,7 @@ public abstract class RemoteCarTaskView extends SurfaceView {
      * @param taskInfo the taskInfo of the task that has vanished.
      */
     void onTaskVanished(ActivityManager.RunningTaskInfo taskInfo) {
+        mOutbox.invalidateSentState();
     }
 
     @Override
@@ -328,10 +366,11 @@ public abstract class RemoteCarTaskView extends SurfaceView {
                 }
             }
             mSurfaceCreated = true;
+            mOutbox.flush();
             try {
                 if (!mSurfaceCreatedDeferred) {
                     mICarTaskViewHost.notifySurfaceCreated(
-                            SurfaceControlHelper.copy(getSurfaceControl()));
+                            SurfaceControlHelper.copy(getSurfaceControl(), TAG));
                 } else {
                     mDeferredSurfaceCreated.set(true);
                     Log.d(TAG, "Skip notifySurfaceCreated");
@@ -344,18 +383,15 @@ public abstract class RemoteCarTaskView extends SurfaceView {
         @Override
         public void surfaceChanged(
                 @NonNull SurfaceHolder holder, int format, int width, int height) {
-            try {
-                ViewHelper.getBoundsOnScreen(RemoteCarTaskView.this, mTmpRect);
-                Log.d(TAG, "surfaceChanged setWindowBounds: " + mTmpRect);
-                mICarTaskViewHost.setWindowBounds(mTmpRect);
-            } catch (RemoteException e) {
-                Log.e(TAG, "exception in setWindowBounds", e);
-            }
+            ViewHelper.getBoundsOnScreen(RemoteCarTaskView.this, mTmpRect);
+            Log.d(TAG, "surfaceChanged setWindowBounds: " + mTmpRect);
+            mOutbox.setWindowBounds(mTmpRect);
         }
 
         @Override
         public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
             mSurfaceCreated = false;
+            mOutbox.flush();
             try {
                 Log.d(TAG, "surfaceDestroyed");
                 mDeferredSurfaceCreated.set(false);
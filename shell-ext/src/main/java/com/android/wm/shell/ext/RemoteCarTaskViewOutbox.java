@@ -0,0 +1,500 @@
+package com.android.wm.shell.ext;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.Choreographer;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Conflates the state-setting calls that a {@link RemoteCarTaskView} makes on its
+ * {@link ICarTaskViewHost} and sends them at most once per {@link Choreographer} frame.
+ *
+ * <p>Within a frame only the latest value per command type is kept (per insets source for
+ * {@code addInsets}/{@code removeInsets}). Window bounds, task visibility and insets that repeat
+ * the last value sent to the host are dropped. {@code reorderTask} is only conflated within a
+ * frame, since reordering is an action whose effect depends on the other tasks of the display.
+ *
+ * <p>The pending commands are sent in the order of their last call, a conflated command takes the
+ * position of the call that replaced it. This is the order in which the host would have observed
+ * the surviving calls without the outbox, so e.g. a {@code reorderTask} queued after
+ * {@code showEmbeddedTask} still wins over the reordering done by the latter.
+ *
+ * <p>{@code showEmbeddedTask} is queued too, but sent right away unless the outbox is suspended.
+ * As it makes the task visible on the host, it counts as the last visibility sent.
+ *
+ * <p>Calls which are not state setters ({@code startActivity}, surface notifications and
+ * {@code release}) are not queued, callers must {@link #flush()} before making them so that the
+ * host observes the calls in order.
+ *
+ * <p>The host is called without holding the lock of the outbox, the commands are sent from the
+ * main thread only.
+ */
+final class RemoteCarTaskViewOutbox implements Choreographer.FrameCallback {
+    private static final String TAG = RemoteCarTaskViewOutbox.class.getSimpleName();
+
+    // Keys of mPendingOrder, the insets commands use their non-negative InsetsCommand#key().
+    private static final int KEY_BOUNDS = -1;
+    private static final int KEY_VISIBILITY = -2;
+    private static final int KEY_REORDER = -3;
+    private static final int KEY_SHOW_EMBEDDED_TASK = -4;
+
+    private final Object mLock = new Object();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mScheduleFrameRunnable = this::scheduleFrameOnMainThread;
+
+    @GuardedBy("mLock")
+    private ICarTaskViewHost mHost;
+
+    @GuardedBy("mLock")
+    @Nullable
+    private Rect mPendingBounds;
+    @GuardedBy("mLock")
+    @Nullable
+    private Boolean mPendingVisibility;
+    @GuardedBy("mLock")
+    @Nullable
+    private Boolean mPendingReorder;
+    // Keyed by (index, type), a null frame means that the insets source should be removed.
+    @GuardedBy("mLock")
+    private final SparseArray<InsetsCommand> mPendingInsets = new SparseArray<>();
+
+    @GuardedBy("mLock")
+    @Nullable
+    private Rect mSentBounds;
+    @GuardedBy("mLock")
+    @Nullable
+    private Boolean mSentVisibility;
+    @GuardedBy("mLock")
+    private final SparseArray<InsetsCommand> mSentInsets = new SparseArray<>();
+
+    @GuardedBy("mLock")
+    private boolean mPendingShowEmbeddedTask;
+    // The keys of the pending commands in the order of their last call.
+    @GuardedBy("mLock")
+    private final ArrayList<Integer> mPendingOrder = new ArrayList<>();
+    // Only used on the main thread, to send the commands outside of the lock.
+    private final ArrayList<CarTaskViewOperation> mFlushBuffer = new ArrayList<>();
+
+    @GuardedBy("mLock")
+    private boolean mFrameScheduled;
+    @GuardedBy("mLock")
+    private boolean mSuspended;
+
+    @GuardedBy("mLock")
+    private long mQueuedCount;
+    @GuardedBy("mLock")
+    private long mSentCount;
+    @GuardedBy("mLock")
+    private long mConflatedCount;
+    @GuardedBy("mLock")
+    private long mDuplicateCount;
+
+    void setHost(@NonNull ICarTaskViewHost host) {
+        synchronized (mLock) {
+            mHost = host;
+            resetSentStateLocked();
+            // E.g. showEmbeddedTask called before the host was known.
+            if (hasPendingLocked()) {
+                scheduleFlushLocked();
+            }
+        }
+    }
+
+    /** Queues the window bounds for the next frame. */
+    void setWindowBounds(@NonNull Rect bounds) {
+        synchronized (mLock) {
+            mQueuedCount++;
+            if (mPendingBounds != null) {
+                mConflatedCount++;
+                mPendingBounds.set(bounds);
+            } else {
+                mPendingBounds = new Rect(bounds);
+            }
+            moveToEndLocked(KEY_BOUNDS);
+            scheduleFlushLocked();
+        }
+    }
+
+    /** Queues the task visibility for the next frame. */
+    void setTaskVisibility(boolean visibility) {
+        synchronized (mLock) {
+            mQueuedCount++;
+            if (mPendingVisibility != null) {
+                mConflatedCount++;
+            }
+            mPendingVisibility = visibility;
+            moveToEndLocked(KEY_VISIBILITY);
+            scheduleFlushLocked();
+        }
+    }
+
+    /** Queues the task reordering for the next frame. */
+    void reorderTask(boolean onTop) {
+        synchronized (mLock) {
+            mQueuedCount++;
+            if (mPendingReorder != null) {
+                mConflatedCount++;
+            }
+            mPendingReorder = onTop;
+            moveToEndLocked(KEY_REORDER);
+            scheduleFlushLocked();
+        }
+    }
+
+    /** Queues the addition of an insets source for the next frame. */
+    void addInsets(int index, int type, @NonNull Rect frame) {
+        queueInsets(new InsetsCommand(index, type, new Rect(frame)));
+    }
+
+    /** Queues the removal of an insets source for the next frame. */
+    void removeInsets(int index, int type) {
+        queueInsets(new InsetsCommand(index, type, /* frame= */ null));
+    }
+
+    private void queueInsets(InsetsCommand command) {
+        synchronized (mLock) {
+            mQueuedCount++;
+            int key = command.key();
+            if (mPendingInsets.get(key) != null) {
+                mConflatedCount++;
+            }
+            mPendingInsets.put(key, command);
+            moveToEndLocked(key);
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Forgets the values last sent to the host, so that the next value of every command type is
+     * sent even if it equals the previous one. Should be called whenever the host side state may
+     * have been reset, e.g. when the embedded task appears or vanishes.
+     */
+    void invalidateSentState() {
+        synchronized (mLock) {
+            resetSentStateLocked();
+        }
+    }
+
+    /**
+     * Sends {@code showEmbeddedTask} after the pending commands, or queues it for the batch if the
+     * outbox is suspended.
+     */
+    @MainThread
+    void showEmbeddedTask() {
+        synchronized (mLock) {
+            mQueuedCount++;
+            if (mPendingShowEmbeddedTask) {
+                mConflatedCount++;
+            }
+            mPendingShowEmbeddedTask = true;
+            moveToEndLocked(KEY_SHOW_EMBEDDED_TASK);
+            if (mSuspended) {
+                // Sent as part of the batch of the CarTaskViewController.
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Stops flushing until {@link #resume()} is called, e.g. while the
+     * {@link CarTaskViewController} is collecting a batch. The pending commands are kept and can
+     * be taken with {@link #drainTo(List)}, {@link #flush()} doesn't send them either.
+     */
+    void suspend() {
+        synchronized (mLock) {
+            mSuspended = true;
+        }
+    }
+
+    /** Resumes flushing, see {@link #suspend()}. */
+    void resume() {
+        synchronized (mLock) {
+            mSuspended = false;
+            if (hasPendingLocked()) {
+                scheduleFlushLocked();
+            }
+        }
+    }
+
+    /**
+     * Sends all the pending commands to the host right away. Does nothing while the outbox is
+     * suspended, the pending commands are then sent with the batch of the
+     * {@link CarTaskViewController}, which may come after the calls that follow the flush.
+     */
+    @MainThread
+    void flush() {
+        ICarTaskViewHost host;
+        synchronized (mLock) {
+            if (mHost == null || mSuspended || !hasPendingLocked()) {
+                return;
+            }
+            host = mHost;
+            collectPendingLocked(mFlushBuffer);
+        }
+        try {
+            for (int i = 0, size = mFlushBuffer.size(); i < size; i++) {
+                send(host, mFlushBuffer.get(i));
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "exception in flushing the pending commands", e);
+        } finally {
+            mFlushBuffer.clear();
+        }
+    }
+
+    /** Drops all the pending commands, e.g. when the task view is released. */
+    @MainThread
+    void clear() {
+        synchronized (mLock) {
+            clearPendingLocked();
+            mMainHandler.removeCallbacks(mScheduleFrameRunnable);
+            Choreographer.getInstance().removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        synchronized (mLock) {
+            mFrameScheduled = false;
+            if (mSuspended) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    private static void send(ICarTaskViewHost host, CarTaskViewOperation op)
+            throws RemoteException {
+        switch (op.getType()) {
+            case CarTaskViewOperation.TYPE_SET_WINDOW_BOUNDS:
+                host.setWindowBounds(op.getRect());
+                break;
+            case CarTaskViewOperation.TYPE_SET_TASK_VISIBILITY:
+                host.setTaskVisibility(op.getValue());
+                break;
+            case CarTaskViewOperation.TYPE_REORDER_TASK:
+                host.reorderTask(op.getValue());
+                break;
+            case CarTaskViewOperation.TYPE_ADD_INSETS:
+                host.addInsets(op.getInsetsIndex(), op.getInsetsType(), op.getRect());
+                break;
+            case CarTaskViewOperation.TYPE_REMOVE_INSETS:
+                host.removeInsets(op.getInsetsIndex(), op.getInsetsType());
+                break;
+            case CarTaskViewOperation.TYPE_SHOW_EMBEDDED_TASK:
+                host.showEmbeddedTask();
+                break;
+            default:
+                Log.w(TAG, "Unknown operation: " + op);
+        }
+    }
+
+    /**
+     * Moves the pending commands to {@code out} as {@link CarTaskViewOperation}s, instead of
+     * sending them to the host one by one. The values are treated as sent.
+     */
+    void drainTo(@NonNull List<CarTaskViewOperation> out) {
+        synchronized (mLock) {
+            if (mHost == null || !hasPendingLocked()) {
+                return;
+            }
+            collectPendingLocked(out);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void collectPendingLocked(List<CarTaskViewOperation> out) {
+        IBinder token = mHost.asBinder();
+        for (int i = 0, size = mPendingOrder.size(); i < size; i++) {
+            int key = mPendingOrder.get(i);
+            switch (key) {
+                case KEY_BOUNDS:
+                    if (mPendingBounds.equals(mSentBounds)) {
+                        mDuplicateCount++;
+                        continue;
+                    }
+                    out.add(CarTaskViewOperation.setWindowBounds(token, mPendingBounds));
+                    mSentBounds = mPendingBounds;
+                    break;
+                case KEY_VISIBILITY:
+                    if (mPendingVisibility.equals(mSentVisibility)) {
+                        mDuplicateCount++;
+                        continue;
+                    }
+                    out.add(CarTaskViewOperation.setTaskVisibility(token, mPendingVisibility));
+                    mSentVisibility = mPendingVisibility;
+                    break;
+                case KEY_REORDER:
+                    out.add(CarTaskViewOperation.reorderTask(token, mPendingReorder));
+                    break;
+                case KEY_SHOW_EMBEDDED_TASK:
+                    out.add(CarTaskViewOperation.showEmbeddedTask(token));
+                    // The host makes the task visible, a later setTaskVisibility(false) isn't a
+                    // duplicate.
+                    mSentVisibility = true;
+                    break;
+                default:
+                    if (!collectInsetsLocked(token, mPendingInsets.get(key), out)) {
+                        mDuplicateCount++;
+                        continue;
+                    }
+            }
+            mSentCount++;
+        }
+        clearPendingLocked();
+    }
+
+    @GuardedBy("mLock")
+    private boolean collectInsetsLocked(IBinder token, InsetsCommand command,
+                                        List<CarTaskViewOperation> out) {
+        InsetsCommand sent = mSentInsets.get(command.key());
+        if (command.isRemoval()) {
+            if (sent != null && sent.isRemoval()) {
+                // Already removed on the host side.
+                return false;
+            }
+            out.add(CarTaskViewOperation.removeInsets(token, command.mIndex, command.mType));
+        } else {
+            if (command.equals(sent)) {
+                return false;
+            }
+            out.add(CarTaskViewOperation.addInsets(token, command.mIndex, command.mType,
+                    command.mFrame));
+        }
+        mSentInsets.put(command.key(), command);
+        return true;
+    }
+
+    @GuardedBy("mLock")
+    private void moveToEndLocked(int key) {
+        mPendingOrder.remove(Integer.valueOf(key));
+        mPendingOrder.add(key);
+    }
+
+    @GuardedBy("mLock")
+    private boolean hasPendingLocked() {
+        return !mPendingOrder.isEmpty();
+    }
+
+    @GuardedBy("mLock")
+    private void clearPendingLocked() {
+        mPendingBounds = null;
+        mPendingVisibility = null;
+        mPendingReorder = null;
+        mPendingInsets.clear();
+        mPendingShowEmbeddedTask = false;
+        mPendingOrder.clear();
+    }
+
+    @GuardedBy("mLock")
+    private void resetSentStateLocked() {
+        mSentBounds = null;
+        mSentVisibility = null;
+        mSentInsets.clear();
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleFlushLocked() {
+        if (mFrameScheduled || mSuspended) {
+            return;
+        }
+        mFrameScheduled = true;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            // Some of the calls come from the binder threads, e.g. when the task appears.
+            mMainHandler.post(mScheduleFrameRunnable);
+        }
+    }
+
+    private void scheduleFrameOnMainThread() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return TAG + " {"
+                    + "queued=" + mQueuedCount
+                    + ", sent=" + mSentCount
+                    + ", conflated=" + mConflatedCount
+                    + ", duplicates=" + mDuplicateCount
+                    + "}";
+        }
+    }
+
+    /** Returns the number of calls which were queued. */
+    long getQueuedCount() {
+        synchronized (mLock) {
+            return mQueuedCount;
+        }
+    }
+
+    /** Returns the number of calls which were actually sent to the host. */
+    long getSentCount() {
+        synchronized (mLock) {
+            return mSentCount;
+        }
+    }
+
+    /**
+     * Returns the number of calls which were suppressed, either replaced by a later call within
+     * the same frame or dropped for repeating the last value sent.
+     */
+    long getSuppressedCount() {
+        synchronized (mLock) {
+            return mConflatedCount + mDuplicateCount;
+        }
+    }
+
+    private static final class InsetsCommand {
+        final int mIndex;
+        final int mType;
+        @Nullable
+        final Rect mFrame;
+
+        InsetsCommand(int index, int type, @Nullable Rect frame) {
+            mIndex = index;
+            mType = type;
+            mFrame = frame;
+        }
+
+        int key() {
+            // Insets types are bit flags within the lower bits, index is small.
+            return (mIndex << 16) | (mType & 0xFFFF);
+        }
+
+        boolean isRemoval() {
+            return mFrame == null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof InsetsCommand)) return false;
+            InsetsCommand that = (InsetsCommand) o;
+            return mIndex == that.mIndex && mType == that.mType
+                    && Objects.equals(mFrame, that.mFrame);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mIndex, mType, mFrame);
+        }
+    }
+}
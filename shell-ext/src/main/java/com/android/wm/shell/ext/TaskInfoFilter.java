@@ -0,0 +1,115 @@
+package com.android.wm.shell.ext;
+
+import android.app.ActivityManager;
+import android.app.TaskInfo;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Objects;
+
+/**
+ * The {@link ActivityManager.RunningTaskInfo} fields a task view host can ask to be notified of
+ * through {@link RemoteCarTaskView#setTaskInfoFilter(int)}. {@code onTaskInfoChanged} is only
+ * forwarded to the host when one of the registered fields differs from the last task info it
+ * received.
+ */
+public final class TaskInfoFilter {
+    /** {@link TaskInfo#isVisible} and {@link TaskInfo#isVisibleRequested}. */
+    public static final int FIELD_VISIBILITY = 1;
+    /** The bounds of the task configuration. */
+    public static final int FIELD_BOUNDS = 1 << 1;
+    /** {@link TaskInfo#topActivity} and {@link TaskInfo#baseActivity}. */
+    public static final int FIELD_TOP_ACTIVITY = 1 << 2;
+    /** The colors and the label of {@link TaskInfo#taskDescription}. */
+    public static final int FIELD_TASK_DESCRIPTION = 1 << 3;
+    /** {@link TaskInfo#displayId}. */
+    public static final int FIELD_DISPLAY = 1 << 4;
+    /** The windowing mode of the task configuration. */
+    public static final int FIELD_WINDOWING_MODE = 1 << 5;
+    /** {@link TaskInfo#isFocused}. */
+    public static final int FIELD_FOCUS = 1 << 6;
+    /** {@link TaskInfo#isRunning}. */
+    public static final int FIELD_RUNNING = 1 << 7;
+    /** Forwards every task info change, including the fields not listed above. The default. */
+    public static final int FIELD_ANY = 1 << 31;
+
+    /** All the fields which are compared, the changes of the other fields are dropped. */
+    public static final int FIELDS_ALL = FIELD_VISIBILITY | FIELD_BOUNDS | FIELD_TOP_ACTIVITY
+            | FIELD_TASK_DESCRIPTION | FIELD_DISPLAY | FIELD_WINDOWING_MODE | FIELD_FOCUS
+            | FIELD_RUNNING;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(flag = true, value = {
+            FIELD_VISIBILITY,
+            FIELD_BOUNDS,
+            FIELD_TOP_ACTIVITY,
+            FIELD_TASK_DESCRIPTION,
+            FIELD_DISPLAY,
+            FIELD_WINDOWING_MODE,
+            FIELD_FOCUS,
+            FIELD_RUNNING,
+            FIELD_ANY,
+    })
+    public @interface Fields {}
+
+    private TaskInfoFilter() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the {@link Fields} which differ between {@code oldInfo} and {@code newInfo}, all of
+     * them when there is no {@code oldInfo}.
+     */
+    @Fields
+    public static int getChangedFields(@Nullable TaskInfo oldInfo, @NonNull TaskInfo newInfo) {
+        if (oldInfo == null || oldInfo.taskId != newInfo.taskId) {
+            return FIELDS_ALL | FIELD_ANY;
+        }
+        int changed = FIELD_ANY;
+        if (oldInfo.isVisible != newInfo.isVisible
+                || oldInfo.isVisibleRequested != newInfo.isVisibleRequested) {
+            changed |= FIELD_VISIBILITY;
+        }
+        if (!Objects.equals(oldInfo.configuration.windowConfiguration.getBounds(),
+                newInfo.configuration.windowConfiguration.getBounds())) {
+            changed |= FIELD_BOUNDS;
+        }
+        if (!Objects.equals(oldInfo.topActivity, newInfo.topActivity)
+                || !Objects.equals(oldInfo.baseActivity, newInfo.baseActivity)) {
+            changed |= FIELD_TOP_ACTIVITY;
+        }
+        if (taskDescriptionChanged(oldInfo.taskDescription, newInfo.taskDescription)) {
+            changed |= FIELD_TASK_DESCRIPTION;
+        }
+        if (oldInfo.displayId != newInfo.displayId) {
+            changed |= FIELD_DISPLAY;
+        }
+        if (oldInfo.getWindowingMode() != newInfo.getWindowingMode()) {
+            changed |= FIELD_WINDOWING_MODE;
+        }
+        if (oldInfo.isFocused != newInfo.isFocused) {
+            changed |= FIELD_FOCUS;
+        }
+        if (oldInfo.isRunning != newInfo.isRunning) {
+            changed |= FIELD_RUNNING;
+        }
+        return changed;
+    }
+
+    private static boolean taskDescriptionChanged(
+            @Nullable ActivityManager.TaskDescription oldDescription,
+            @Nullable ActivityManager.TaskDescription newDescription) {
+        if (oldDescription == null || newDescription == null) {
+            return oldDescription != newDescription;
+        }
+        return oldDescription.getBackgroundColor() != newDescription.getBackgroundColor()
+                || oldDescription.getPrimaryColor() != newDescription.getPrimaryColor()
+                || oldDescription.getStatusBarColor() != newDescription.getStatusBarColor()
+                || oldDescription.getNavigationBarColor() != newDescription.getNavigationBarColor()
+                || !Objects.equals(oldDescription.getLabel(), newDescription.getLabel());
+    }
+}
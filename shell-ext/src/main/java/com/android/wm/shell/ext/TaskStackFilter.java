@@ -0,0 +1,162 @@
+package com.android.wm.shell.ext;
+
+import android.content.ComponentName;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.ArraySet;
+import android.view.Display;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Selects the tasks which a {@link TaskStackListener} is notified of, see
+ * {@link CarActivityManager#registerTaskStackListener}.
+ */
+public final class TaskStackFilter implements Parcelable {
+    /** Matches all the tasks. */
+    @NonNull
+    public static final TaskStackFilter ALL = new Builder().build();
+
+    private final int mDisplayId;
+    private final ArraySet<ComponentName> mComponents;
+    private final boolean mVisibleOnly;
+
+    private TaskStackFilter(int displayId, ArraySet<ComponentName> components,
+                            boolean visibleOnly) {
+        mDisplayId = displayId;
+        mComponents = components;
+        mVisibleOnly = visibleOnly;
+    }
+
+    private TaskStackFilter(Parcel in) {
+        mDisplayId = in.readInt();
+        int size = in.readInt();
+        mComponents = new ArraySet<>(size);
+        for (int i = 0; i < size; i++) {
+            mComponents.add(in.readTypedObject(ComponentName.CREATOR));
+        }
+        mVisibleOnly = in.readBoolean();
+    }
+
+    /** See {@link Builder#setDisplayId(int)}. */
+    public int getDisplayId() {
+        return mDisplayId;
+    }
+
+    /** See {@link Builder#addComponents(Collection)}. */
+    @NonNull
+    public Set<ComponentName> getComponents() {
+        return Collections.unmodifiableSet(mComponents);
+    }
+
+    /** See {@link Builder#setVisibleOnly(boolean)}. */
+    public boolean isVisibleOnly() {
+        return mVisibleOnly;
+    }
+
+    /** Returns whether a task with the given properties is selected by this filter. */
+    public boolean matches(int displayId, @Nullable ComponentName baseActivity,
+                           @Nullable ComponentName topActivity, boolean visible) {
+        if (mDisplayId != Display.INVALID_DISPLAY && mDisplayId != displayId) {
+            return false;
+        }
+        if (mVisibleOnly && !visible) {
+            return false;
+        }
+        return mComponents.isEmpty() || mComponents.contains(baseActivity)
+                || mComponents.contains(topActivity);
+    }
+
+    /** Returns whether the top task changes of the given display are selected by this filter. */
+    public boolean matchesDisplay(int displayId) {
+        return mDisplayId == Display.INVALID_DISPLAY || mDisplayId == displayId;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeInt(mDisplayId);
+        dest.writeInt(mComponents.size());
+        for (int i = 0; i < mComponents.size(); i++) {
+            dest.writeTypedObject(mComponents.valueAt(i), flags);
+        }
+        dest.writeBoolean(mVisibleOnly);
+    }
+
+    @Override
+    public String toString() {
+        return "TaskStackFilter {"
+                + "displayId=" + mDisplayId
+                + ", components=" + mComponents
+                + ", visibleOnly=" + mVisibleOnly
+                + "}";
+    }
+
+    @NonNull
+    public static final Creator<TaskStackFilter> CREATOR = new Creator<>() {
+        @Override
+        public TaskStackFilter createFromParcel(Parcel in) {
+            return new TaskStackFilter(in);
+        }
+
+        @Override
+        public TaskStackFilter[] newArray(int size) {
+            return new TaskStackFilter[size];
+        }
+    };
+
+    /**
+     * A builder class for {@link TaskStackFilter}. The criteria are combined, a task has to match
+     * all of them.
+     */
+    public static final class Builder {
+        private int mDisplayId = Display.INVALID_DISPLAY;
+        private final ArraySet<ComponentName> mComponents = new ArraySet<>();
+        private boolean mVisibleOnly;
+
+        public Builder() {
+        }
+
+        /**
+         * Selects the tasks of the given display, {@link Display#INVALID_DISPLAY} for all the
+         * displays, which is the default.
+         */
+        @NonNull
+        public Builder setDisplayId(int displayId) {
+            mDisplayId = displayId;
+            return this;
+        }
+
+        /**
+         * Selects the tasks whose base or top activity is one of {@code components}. All the
+         * tasks are selected when no component is added.
+         */
+        @NonNull
+        public Builder addComponents(@NonNull Collection<ComponentName> components) {
+            mComponents.addAll(components);
+            return this;
+        }
+
+        /** Selects only the visible tasks, all of them by default. */
+        @NonNull
+        public Builder setVisibleOnly(boolean visibleOnly) {
+            mVisibleOnly = visibleOnly;
+            return this;
+        }
+
+        /** Creates the {@link TaskStackFilter} object. */
+        @NonNull
+        public TaskStackFilter build() {
+            return new TaskStackFilter(mDisplayId, new ArraySet<>(mComponents), mVisibleOnly);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.android.wm.shell.ext;
+
+import android.app.ActivityManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Listener of the task stack changes, see
+ * {@link CarActivityManager#registerTaskStackListener}. Only the tasks selected by the
+ * {@link TaskStackFilter} of the registration are reported.
+ *
+ * <p>The task infos only carry the task id, the display, the visibility, the running state and
+ * the base and top activities.
+ */
+public interface TaskStackListener {
+    /**
+     * Called once after the registration with the current tasks, grouped by display and ordered
+     * from bottom to top on each display. The other calls are deltas to this snapshot.
+     */
+    default void onTaskStackSnapshot(@NonNull List<ActivityManager.RunningTaskInfo> tasks) {}
+
+    /** Called when a task has appeared. */
+    default void onTaskAppeared(@NonNull ActivityManager.RunningTaskInfo taskInfo) {}
+
+    /**
+     * Called when a task has changed. It is also called for the change which makes the task stop
+     * matching the filter, e.g. when it becomes invisible while only the visible tasks are
+     * selected.
+     */
+    default void onTaskInfoChanged(@NonNull ActivityManager.RunningTaskInfo taskInfo) {}
+
+    /** Called when a task has vanished. */
+    default void onTaskVanished(@NonNull ActivityManager.RunningTaskInfo taskInfo) {}
+
+    /**
+     * Called when the top visible task of the display has changed, {@code taskInfo} is
+     * {@code null} when there is no visible task left.
+     */
+    default void onTopTaskChanged(int displayId,
+                                  @Nullable ActivityManager.RunningTaskInfo taskInfo) {}
+}
@@ -5,30 +5,60 @@ import static com.android.wm.shell.ext.system.CarFullscreenTaskMonitorListener.D
 import android.app.ActivityManager;
 import android.content.Context;
 import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import android.view.Display;
 import android.view.SurfaceControl;
 
+import androidx.annotation.GuardedBy;
+
 import com.android.wm.shell.ShellTaskOrganizer;
 import com.android.wm.shell.ext.CarActivityManager;
 import com.android.wm.shell.ext.CarActivityServiceProvider;
+import com.android.wm.shell.ext.CarTaskEvent;
+import com.android.wm.shell.ext.utils.SurfaceControlHelper;
 import com.android.wm.shell.taskview.TaskViewTransitions;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class reports the task events to CarService using {@link CarActivityManager}.
+ *
+ * <p>The events are queued and sent in batches from a background thread through the oneway
+ * {@link CarActivityManager#onTaskEvents(List, long)}, so that the shell main thread never waits
+ * for the car service. Only the latest {@code onTaskInfoChanged} of a task is kept in the queue.
+ * When the car service connects, the existing tasks are handed over as a single snapshot through
+ * {@link CarActivityManager#replaceTaskSnapshot(List, int)} ahead of the queued events.
  */
 final class CarServiceTaskReporter implements CarActivityServiceProvider.ServiceConnectedListener {
     private static final String TAG = "CarServiceTaskReporter";
+
     private final DisplayManager mDisplayManager;
     private final AtomicReference<CarActivityManager> mCarActivityManagerRef =
             new AtomicReference<>();
     private final boolean mShouldConnectToCarActivityService;
     private final TaskViewTransitions mTaskViewTransitions;
     private final ShellTaskOrganizer mShellTaskOrganizer;
+    private final Handler mHandler;
+    private final Runnable mDispatchRunnable = this::dispatchPendingEvents;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final ArrayList<CarTaskEvent> mPendingEvents = new ArrayList<>();
+    @GuardedBy("mLock")
+    private boolean mDispatchScheduled;
+    @GuardedBy("mLock")
+    private long mConflatedEvents;
+    @GuardedBy("mLock")
+    private List<ActivityManager.RunningTaskInfo> mPendingSnapshot;
+    @GuardedBy("mLock")
+    private int mSnapshotGeneration;
+    // Only accessed on mHandler's thread.
+    private long mLastSentSeq;
 
     CarServiceTaskReporter(Context context, CarActivityServiceProvider carServiceProvider,
                            TaskViewTransitions taskViewTransitions,
@@ -47,6 +77,9 @@ final class CarServiceTaskReporter implements CarActivityServiceProvider.Service
         mShouldConnectToCarActivityService = CarSystemUIProxyImpl.shouldRegisterCarSystemUIProxy(
                 context);
         mShellTaskOrganizer = shellTaskOrganizer;
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
 
         if (mShouldConnectToCarActivityService) {
             carServiceProvider.addListener(this);
@@ -70,7 +103,9 @@ final class CarServiceTaskReporter implements CarActivityServiceProvider.Service
         }
         CarActivityManager carAM = mCarActivityManagerRef.get();
         if (carAM != null) {
-            carAM.onTaskAppeared(taskInfo, leash);
+            // The leash is owned by the organizer, which might release it before it is sent.
+            enqueue(CarTaskEvent.taskAppeared(taskInfo,
+                    leash == null ? null : SurfaceControlHelper.copy(leash, TAG)));
         } else {
             Log.w(TAG, "CarActivityManager is null, skip onTaskAppeared: taskInfo=" + taskInfo);
         }
@@ -95,7 +130,7 @@ final class CarServiceTaskReporter implements CarActivityServiceProvider.Service
 
         CarActivityManager carAM = mCarActivityManagerRef.get();
         if (carAM != null) {
-            carAM.onTaskInfoChanged(taskInfo);
+            enqueue(CarTaskEvent.taskInfoChanged(taskInfo));
         } else {
             Log.w(TAG, "CarActivityManager is null, skip onTaskInfoChanged: taskInfo=" + taskInfo);
         }
@@ -119,7 +154,7 @@ final class CarServiceTaskReporter implements CarActivityServiceProvider.Service
 
         CarActivityManager carAM = mCarActivityManagerRef.get();
         if (carAM != null) {
-            carAM.onTaskVanished(taskInfo);
+            enqueue(CarTaskEvent.taskVanished(taskInfo));
         } else {
             Log.w(TAG, "CarActivityManager is null, skip onTaskVanished: taskInfo=" + taskInfo);
         }
@@ -129,21 +164,106 @@ final class CarServiceTaskReporter implements CarActivityServiceProvider.Service
     public void onConnected(CarActivityManager manager) {
         mCarActivityManagerRef.set(manager);
         // The tasks that have already appeared need to be reported to the CarActivityManager.
-        // The code uses null as the leash because there is no way to get the leash at the moment.
-        // And the leash is only required for mirroring cases. Those tasks will anyway appear
-        // after the car service is connected and hence will go via the {@link #onTaskAppeared}
-        // flow.
+        // They are sent as one snapshot without the leashes because there is no way to get the
+        // leash at the moment. And the leash is only required for mirroring cases. Those tasks
+        // will anyway appear after the car service is connected and hence will go via the
+        // {@link #onTaskAppeared} flow.
         List<ActivityManager.RunningTaskInfo> runningTasks = getRunningNonTaskViewTasks();
-        for (ActivityManager.RunningTaskInfo runningTaskInfo : runningTasks) {
-            Log.d(TAG, "Sending onTaskAppeared for an already existing task: "
-                    + runningTaskInfo.taskId);
-            mCarActivityManagerRef.get().onTaskAppeared(runningTaskInfo, /* leash = */ null);
+        Log.d(TAG, "Sending a snapshot of " + runningTasks.size() + " already existing tasks");
+        synchronized (mLock) {
+            // The snapshot supersedes the events queued so far.
+            releaseLeashes(mPendingEvents);
+            mPendingEvents.clear();
+            mPendingSnapshot = runningTasks;
+            mSnapshotGeneration++;
+            scheduleDispatchLocked();
         }
     }
 
     @Override
     public void onDisconnected() {
         mCarActivityManagerRef.set(null);
+        synchronized (mLock) {
+            releaseLeashes(mPendingEvents);
+            mPendingEvents.clear();
+        }
+    }
+
+    private void enqueue(CarTaskEvent event) {
+        synchronized (mLock) {
+            if (event.getType() == CarTaskEvent.TYPE_TASK_INFO_CHANGED) {
+                int taskId = event.getTaskInfo().taskId;
+                for (int i = mPendingEvents.size() - 1; i >= 0; i--) {
+                    CarTaskEvent pending = mPendingEvents.get(i);
+                    if (pending.getTaskInfo().taskId != taskId) {
+                        continue;
+                    }
+                    if (pending.getType() == CarTaskEvent.TYPE_TASK_INFO_CHANGED) {
+                        // Removed rather than replaced, as the car service orders the tasks by
+                        // their last change.
+                        mPendingEvents.remove(i);
+                        mConflatedEvents++;
+                    }
+                    break;
+                }
+            }
+            mPendingEvents.add(event);
+            scheduleDispatchLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleDispatchLocked() {
+        if (!mDispatchScheduled) {
+            mDispatchScheduled = true;
+            mHandler.post(mDispatchRunnable);
+        }
+    }
+
+    private void dispatchPendingEvents() {
+        ArrayList<CarTaskEvent> events;
+        long conflatedEvents;
+        List<ActivityManager.RunningTaskInfo> snapshot;
+        int snapshotGeneration;
+        synchronized (mLock) {
+            mDispatchScheduled = false;
+            events = new ArrayList<>(mPendingEvents);
+            mPendingEvents.clear();
+            conflatedEvents = mConflatedEvents;
+            snapshot = mPendingSnapshot;
+            snapshotGeneration = mSnapshotGeneration;
+            mPendingSnapshot = null;
+        }
+        CarActivityManager carAM = mCarActivityManagerRef.get();
+        if (snapshot != null && carAM != null) {
+            carAM.replaceTaskSnapshot(snapshot, snapshotGeneration);
+        }
+        // Capped by count, see CarActivityManager#splitInChunks.
+        List<List<CarTaskEvent>> batches = events.isEmpty()
+                ? Collections.emptyList() : CarActivityManager.splitInChunks(events);
+        for (int i = 0; i < batches.size(); i++) {
+            List<CarTaskEvent> batch = batches.get(i);
+            if (carAM == null) {
+                Log.w(TAG, "CarActivityManager is null, skip " + batch.size() + " task events");
+                break;
+            }
+            mLastSentSeq++;
+            if (DBG) {
+                Log.d(TAG, "Sending " + batch.size() + " task events, seq=" + mLastSentSeq
+                        + ", conflatedSoFar=" + conflatedEvents);
+            }
+            carAM.onTaskEvents(batch, mLastSentSeq);
+        }
+        // The car service got its own references to the leashes as part of the transactions.
+        releaseLeashes(events);
+    }
+
+    private static void releaseLeashes(List<CarTaskEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).getLeash() != null) {
+                SurfaceControlHelper.release(events.get(i).getLeash());
+            }
+        }
     }
 
     private List<ActivityManager.RunningTaskInfo> getRunningNonTaskViewTasks() {
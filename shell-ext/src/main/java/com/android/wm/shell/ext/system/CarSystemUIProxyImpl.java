@@ -10,9 +10,14 @@ import android.os.Binder;
 import android.os.Process;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.Pair;
 import android.view.Display;
+import android.window.WindowContainerTransaction;
+
+import androidx.annotation.GuardedBy;
 
 import com.android.wm.shell.ShellTaskOrganizer;
+import com.android.wm.shell.common.ShellExecutor;
 import com.android.wm.shell.common.SyncTransactionQueue;
 import com.android.wm.shell.dagger.WMSingleton;
 import com.android.wm.shell.ext.CarActivityManager;
@@ -20,9 +25,20 @@ import com.android.wm.shell.ext.CarActivityServiceProvider;
 import com.android.wm.shell.ext.CarSystemUIProxy;
 import com.android.wm.shell.ext.CarTaskViewClient;
 import com.android.wm.shell.ext.CarTaskViewHost;
+import com.android.wm.shell.ext.CarTaskViewOperation;
 import com.android.wm.shell.ext.system.taskview.RemoteCarTaskViewServerImpl;
+import com.android.wm.shell.ext.system.taskview.WindowContainerTransactionCoalescer;
+import com.android.wm.shell.ext.utils.BinderTrafficStats;
+import com.android.wm.shell.ext.utils.FlightRecorder;
+import com.android.wm.shell.ext.utils.SurfaceControlTracker;
+import com.android.wm.shell.shared.annotations.ShellBackgroundThread;
+import com.android.wm.shell.shared.annotations.ShellMainThread;
+import com.android.wm.shell.sysui.ShellCommandHandler;
 import com.android.wm.shell.taskview.TaskViewTransitions;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -35,14 +51,21 @@ import javax.inject.Inject;
 public final class CarSystemUIProxyImpl
         implements CarSystemUIProxy, CarActivityServiceProvider.ServiceConnectedListener {
     private static final String TAG = CarSystemUIProxyImpl.class.getSimpleName();
+    private static final String FLIGHT_RECORDER_FILE_NAME = "car_system_ui_proxy.flight";
 
     private final Context mContext;
     private final SyncTransactionQueue mSyncQueue;
     private final ShellTaskOrganizer mTaskOrganizer;
     private final TaskViewTransitions mTaskViewTransitions;
+    // The task views are created and released on binder threads, and looked up by the shell
+    // transitions on the shell main thread.
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
     private final ArraySet<RemoteCarTaskViewServerImpl> mRemoteCarTaskViewServerSet =
             new ArraySet<>();
     private final DisplayManager mDisplayManager;
+    private final WindowContainerTransactionCoalescer mTransactionCoalescer;
+    private final FlightRecorder mFlightRecorder;
 
     private boolean mConnected;
     private CarActivityManager mCarActivityManager;
@@ -69,12 +92,25 @@ public final class CarSystemUIProxyImpl
             CarActivityServiceProvider carServiceProvider,
             SyncTransactionQueue syncTransactionQueue,
             ShellTaskOrganizer taskOrganizer,
-            TaskViewTransitions taskViewTransitions) {
+            TaskViewTransitions taskViewTransitions,
+            ShellCommandHandler shellCommandHandler,
+            @ShellMainThread ShellExecutor mainExecutor,
+            @ShellBackgroundThread ShellExecutor bgExecutor) {
         mContext = context;
         mTaskOrganizer = taskOrganizer;
+        mTransactionCoalescer = new WindowContainerTransactionCoalescer(taskOrganizer,
+                mainExecutor);
         mSyncQueue = syncTransactionQueue;
         mTaskViewTransitions = taskViewTransitions;
         mDisplayManager = mContext.getSystemService(DisplayManager.class);
+        // Mapped in the background, the startup of SystemUI doesn't wait for the file. The device
+        // protected storage is available before the user unlocks, so is the recording.
+        mFlightRecorder = FlightRecorder.openAsync(
+                () -> new File(mContext.createDeviceProtectedStorageContext().getFilesDir(),
+                        FLIGHT_RECORDER_FILE_NAME),
+                FlightRecorder.DEFAULT_CAPACITY, bgExecutor);
+        // Part of the WM Shell dump: adb shell dumpsys activity service SystemUIService WMShell
+        shellCommandHandler.addDumpCallback(this::dump, this);
 
         if (!shouldRegisterCarSystemUIProxy(mContext)) {
             Log.i(TAG, "Not registering CarSystemUIProxy.");
@@ -83,9 +119,11 @@ public final class CarSystemUIProxyImpl
         carServiceProvider.addListener(this);
     }
 
-    /** Returns the list of all the task views. */
-    public ArraySet<RemoteCarTaskViewServerImpl> getAllTaskViews() {
-        return mRemoteCarTaskViewServerSet;
+    /** Returns a snapshot of all the task views. */
+    public List<RemoteCarTaskViewServerImpl> getAllTaskViews() {
+        synchronized (mLock) {
+            return new ArrayList<>(mRemoteCarTaskViewServerSet);
+        }
     }
 
     @Override
@@ -103,19 +141,87 @@ public final class CarSystemUIProxyImpl
                         mSyncQueue,
                         carTaskViewClient,
                         this,
-                        mTaskViewTransitions);
-        mRemoteCarTaskViewServerSet.add(remoteCarTaskViewServerImpl);
+                        mTaskViewTransitions,
+                        mTransactionCoalescer);
+        int taskViews;
+        synchronized (mLock) {
+            mRemoteCarTaskViewServerSet.add(remoteCarTaskViewServerImpl);
+            taskViews = mRemoteCarTaskViewServerSet.size();
+        }
+        mFlightRecorder.record(FlightRecorder.EVENT_HOST_TASK_VIEW_CREATED,
+                Binder.getCallingPid(), taskViews, /* arg2= */ 0);
         return remoteCarTaskViewServerImpl.getHostImpl();
     }
 
+    /**
+     * Only resolves the operations and queues them on the shell main thread in order, the call
+     * doesn't wait for them to be applied. See {@code ICarSystemUIProxy#applyTaskViewOperations}
+     * for why the binder call is synchronous nonetheless.
+     */
+    @Override
+    public void applyTaskViewOperations(
+            List<Pair<CarTaskViewHost, CarTaskViewOperation>> operations) {
+        ensureManageSystemUIPermission(mContext);
+        WindowContainerTransaction wct = new WindowContainerTransaction();
+        for (int i = 0; i < operations.size(); i++) {
+            CarTaskViewHost host = operations.get(i).first;
+            CarTaskViewOperation op = operations.get(i).second;
+            RemoteCarTaskViewServerImpl server = findTaskViewServer(host);
+            if (server == null) {
+                Log.w(TAG, "Skipping operation for a released task view: " + op);
+                recordOperation(op, FlightRecorder.DECISION_SKIPPED);
+                continue;
+            }
+            if (server.appendOperation(op, wct)) {
+                recordOperation(op, FlightRecorder.DECISION_COALESCED);
+            } else {
+                recordOperation(op, FlightRecorder.DECISION_DIRECT);
+                // Keeps the order with the operations which go through another path.
+                if (!wct.isEmpty()) {
+                    mTransactionCoalescer.enqueue(wct);
+                    wct = new WindowContainerTransaction();
+                }
+                op.applyTo(host);
+            }
+        }
+        if (!wct.isEmpty()) {
+            mTransactionCoalescer.enqueue(wct);
+        }
+        mTransactionCoalescer.flush();
+    }
+
+    private void recordOperation(CarTaskViewOperation op, int decision) {
+        mFlightRecorder.record(FlightRecorder.EVENT_HOST_OPERATION, op.getType(), decision,
+                Binder.getCallingPid());
+    }
+
+    private RemoteCarTaskViewServerImpl findTaskViewServer(CarTaskViewHost host) {
+        synchronized (mLock) {
+            for (int i = 0; i < mRemoteCarTaskViewServerSet.size(); i++) {
+                if (mRemoteCarTaskViewServerSet.valueAt(i).getHostImpl() == host) {
+                    return mRemoteCarTaskViewServerSet.valueAt(i);
+                }
+            }
+        }
+        return null;
+    }
+
     /** Clears the taskview from the internal state. */
     public void onCarTaskViewReleased(RemoteCarTaskViewServerImpl remoteCarTaskViewServer) {
-        mRemoteCarTaskViewServerSet.remove(remoteCarTaskViewServer);
+        int taskViews;
+        synchronized (mLock) {
+            mRemoteCarTaskViewServerSet.remove(remoteCarTaskViewServer);
+            taskViews = mRemoteCarTaskViewServerSet.size();
+        }
+        mFlightRecorder.record(FlightRecorder.EVENT_HOST_TASK_VIEW_RELEASED,
+                taskViews, /* arg1= */ 0, /* arg2= */ 0);
     }
 
     @Override
     public void onConnected(CarActivityManager manager) {
         mConnected = true;
+        mFlightRecorder.record(FlightRecorder.EVENT_HOST_CONNECTION_CHANGED, /* arg0= */ 1,
+                /* arg1= */ 0, /* arg2= */ 0);
         removeExistingTaskViewTasks();
 
         mCarActivityManager = manager;
@@ -126,6 +232,8 @@ public final class CarSystemUIProxyImpl
     @Override
     public void onDisconnected() {
         mConnected = false;
+        mFlightRecorder.record(FlightRecorder.EVENT_HOST_CONNECTION_CHANGED, /* arg0= */ 0,
+                /* arg1= */ 0, /* arg2= */ 0);
         mCarActivityManager = null;
     }
 
@@ -149,6 +257,22 @@ public final class CarSystemUIProxyImpl
         }
     }
 
+    /** Dumps the state of the task views and the transaction merge statistics. */
+    public void dump(PrintWriter pw, String prefix) {
+        String innerPrefix = prefix + "  ";
+        pw.println(prefix + TAG + ":");
+        pw.println(innerPrefix + "connected=" + mConnected);
+        List<RemoteCarTaskViewServerImpl> taskViews = getAllTaskViews();
+        pw.println(innerPrefix + "taskViews=" + taskViews.size());
+        for (int i = 0; i < taskViews.size(); i++) {
+            pw.println(innerPrefix + "  " + taskViews.get(i));
+        }
+        mTransactionCoalescer.dump(pw, innerPrefix);
+        SurfaceControlTracker.dump(pw, innerPrefix);
+        BinderTrafficStats.dumpAll(pw, innerPrefix);
+        mFlightRecorder.dump(pw, innerPrefix);
+    }
+
     /**
      * Checks the permission of the calling process. Throws {@link SecurityException} if
      * {Car#PERMISSION_MANAGE_CAR_SYSTEM_UI} is not granted.
@@ -19,19 +19,26 @@ import android.view.InsetsSource;
 import android.view.SurfaceControl;
 import android.window.WindowContainerTransaction;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.internal.annotations.Keep;
 import com.android.wm.shell.ShellTaskOrganizer;
 import com.android.wm.shell.common.SyncTransactionQueue;
 import com.android.wm.shell.ext.CarTaskViewClient;
 import com.android.wm.shell.ext.CarTaskViewHost;
+import com.android.wm.shell.ext.CarTaskViewOperation;
+import com.android.wm.shell.ext.TaskInfoFilter;
 import com.android.wm.shell.ext.system.CarSystemUIProxyImpl;
+import com.android.wm.shell.ext.utils.TaskViewTrace;
 import com.android.wm.shell.taskview.TaskViewBase;
 import com.android.wm.shell.taskview.TaskViewTaskController;
 import com.android.wm.shell.taskview.TaskViewTransitions;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /** Server side implementation for {@code RemoteCarTaskView}. */
 public class RemoteCarTaskViewServerImpl implements TaskViewBase {
     private static final String TAG = RemoteCarTaskViewServerImpl.class.getSimpleName();
@@ -42,10 +49,33 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
     private final CarSystemUIProxyImpl mCarSystemUIProxy;
     private final Binder mInsetsOwner = new Binder();
     private final SparseArray<Rect> mInsets = new SparseArray<>();
-    private final ShellTaskOrganizer mShellTaskOrganizer;
     private final TaskViewTransitions mTaskViewTransitions;
+    private final WindowContainerTransactionCoalescer mTransactionCoalescer;
+    private final Object mBoundsLock = new Object();
 
     private boolean mReleased;
+    // The launch traced until the task appears, see TaskViewTrace. Begun on a binder thread,
+    // ended on the shell main thread.
+    private final AtomicLong mLaunchFlowId = new AtomicLong(TaskViewTrace.NO_FLOW);
+    private volatile int mTaskInfoFilter = TaskInfoFilter.FIELD_ANY;
+    // The last task info sent to the client, onTaskInfoChanged is filtered against it.
+    @Nullable
+    private ActivityManager.RunningTaskInfo mLastDeliveredTaskInfo;
+    private int mFilteredTaskInfoChanges;
+
+    // The last bounds pushed by the client through setWindowBounds, used to answer
+    // getCurrentBoundsOnScreen() without a synchronous call into the client app. Not seeded from
+    // the launch bounds of startActivity, which are the bounds of the task, not of the view.
+    // Dropped when the surface is destroyed or the task vanishes, the client is asked again until
+    // it pushes new bounds.
+    @GuardedBy("mBoundsLock")
+    private final Rect mBoundsOnScreen = new Rect();
+    @GuardedBy("mBoundsLock")
+    private boolean mBoundsKnown;
+    @GuardedBy("mBoundsLock")
+    private int mBoundsCacheHits;
+    @GuardedBy("mBoundsLock")
+    private int mBoundsCacheMisses;
 
     private final CarTaskViewHost mHostImpl = new CarTaskViewHost() {
         @Override
@@ -56,16 +86,21 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
                 return;
             }
             mInsets.clear();
-            int taskIdToRemove = INVALID_TASK_ID;
-            if (mTaskViewTaskController.getTaskInfo() != null) {
-                taskIdToRemove = mTaskViewTaskController.getTaskInfo().taskId;
-            }
-            mTaskViewTaskController.release();
-
-            if (taskIdToRemove != INVALID_TASK_ID) {
-                Log.w(TAG, "Removing embedded task: " + taskIdToRemove);
-                ActivityTaskManager.getInstance().removeTask(taskIdToRemove);
-            }
+            updateBoundsCache(null);
+            TaskViewTrace.endLaunch(mLaunchFlowId.getAndSet(TaskViewTrace.NO_FLOW));
+            mCarTaskViewClient.release();
+            mTransactionCoalescer.flushThen(() -> {
+                int taskIdToRemove = INVALID_TASK_ID;
+                if (mTaskViewTaskController.getTaskInfo() != null) {
+                    taskIdToRemove = mTaskViewTaskController.getTaskInfo().taskId;
+                }
+                mTaskViewTaskController.release();
+
+                if (taskIdToRemove != INVALID_TASK_ID) {
+                    Log.w(TAG, "Removing embedded task: " + taskIdToRemove);
+                    ActivityTaskManager.getInstance().removeTask(taskIdToRemove);
+                }
+            });
             mCarSystemUIProxy.onCarTaskViewReleased(RemoteCarTaskViewServerImpl.this);
             mReleased = true;
         }
@@ -74,21 +109,32 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
         public void notifySurfaceCreated(SurfaceControl control) {
             ensureManageSystemUIPermission(mContext);
             Log.d(TAG, "notifySurfaceCreated");
-            mTaskViewTaskController.surfaceCreated(control);
+            mTransactionCoalescer.flushThen(() -> mTaskViewTaskController.surfaceCreated(control));
         }
 
         @Override
         public void setWindowBounds(Rect bounds) {
             ensureManageSystemUIPermission(mContext);
             Log.d(TAG, "setWindowBounds: " + bounds);
-            mTaskViewTaskController.setWindowBounds(bounds);
+            updateBoundsCache(bounds);
+            ActivityManager.RunningTaskInfo taskInfo = mTaskViewTaskController.getTaskInfo();
+            if (taskInfo != null && !mTaskViewTaskController.isUsingShellTransitions()) {
+                // What TaskViewTaskController#setWindowBounds does, merged with the pending ops.
+                WindowContainerTransaction wct = new WindowContainerTransaction();
+                wct.setBounds(taskInfo.token, bounds);
+                mTransactionCoalescer.enqueue(wct);
+                return;
+            }
+            mTransactionCoalescer.flushThen(() -> mTaskViewTaskController.setWindowBounds(bounds));
         }
 
         @Override
         public void notifySurfaceDestroyed() {
             ensureManageSystemUIPermission(mContext);
             Log.d(TAG, "notifySurfaceDestroyed");
-            mTaskViewTaskController.surfaceDestroyed();
+            // The surface may come back elsewhere, without the client resending its bounds.
+            updateBoundsCache(null);
+            mTransactionCoalescer.flushThen(mTaskViewTaskController::surfaceDestroyed);
         }
 
         @Override
@@ -98,16 +144,25 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
                 Bundle options,
                 Rect launchBounds) {
             ensureManageSystemUIPermission(mContext);
+            long flowId = TaskViewTrace.continueLaunch(TaskViewTrace.takeFlowId(options));
+            TaskViewTrace.endLaunch(mLaunchFlowId.getAndSet(flowId));
             ActivityOptions opt = ActivityOptions.fromBundle(options);
             // Need this for the pending intent to work under BAL hardening.
             opt.setPendingIntentBackgroundActivityStartMode(
                     ActivityOptions.MODE_BACKGROUND_ACTIVITY_START_ALLOW_ALWAYS);
             opt.setTaskAlwaysOnTop(true);
-            mTaskViewTaskController.startActivity(
-                    pendingIntent,
-                    fillInIntent,
-                    opt,
-                    launchBounds);
+            mTransactionCoalescer.flushThen(() -> {
+                TaskViewTrace.beginStage("TaskViewTaskController.startActivity", flowId);
+                try {
+                    mTaskViewTaskController.startActivity(
+                            pendingIntent,
+                            fillInIntent,
+                            opt,
+                            launchBounds);
+                } finally {
+                    TaskViewTrace.endStage(flowId);
+                }
+            });
         }
 
         @Override
@@ -118,8 +173,8 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
                 return;
             }
             if (mTaskViewTaskController.isUsingShellTransitions() && mTaskViewTransitions != null) {
-                mTaskViewTransitions.setTaskViewVisible(mTaskViewTaskController, /* visible= */
-                        true, /* reorder= */ true);
+                mTransactionCoalescer.flushThen(() -> mTaskViewTransitions.setTaskViewVisible(
+                        mTaskViewTaskController, /* visible= */ true, /* reorder= */ true));
                 return;
             }
 
@@ -128,7 +183,7 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
             wct.setHidden(taskInfo.token, /* hidden= */ false);
             // Moves the embedded task to the top to make it resumed: b/225388469
             wct.reorder(taskInfo.token, /* onTop= */ true);
-            mShellTaskOrganizer.applyTransaction(wct);
+            mTransactionCoalescer.enqueue(wct);
         }
 
         @Override
@@ -144,13 +199,14 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
             }
             Log.d(TAG, "setTaskVisibility: " + visibility);
             if (mTaskViewTaskController.isUsingShellTransitions()) {
-                mTaskViewTransitions.setTaskViewVisible(mTaskViewTaskController, visibility);
+                mTransactionCoalescer.flushThen(() -> mTaskViewTransitions.setTaskViewVisible(
+                        mTaskViewTaskController, visibility));
                 return;
             }
 
             WindowContainerTransaction wct = new WindowContainerTransaction();
             wct.setHidden(taskInfo.token, !visibility);
-            mShellTaskOrganizer.applyTransaction(wct);
+            mTransactionCoalescer.enqueue(wct);
         }
 
         @Override
@@ -166,54 +222,44 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
             }
 
             if (mTaskViewTaskController.isUsingShellTransitions()) {
-                mTaskViewTransitions.reorderTaskViewTask(mTaskViewTaskController, onTop);
+                mTransactionCoalescer.flushThen(() -> mTaskViewTransitions.reorderTaskViewTask(
+                        mTaskViewTaskController, onTop));
                 return;
             }
 
             WindowContainerTransaction wct = new WindowContainerTransaction();
             wct.reorder(taskInfo.token, onTop);
-            mShellTaskOrganizer.applyTransaction(wct);
+            mTransactionCoalescer.enqueue(wct);
         }
 
         @Override
         public void addInsets(int index, int type, @NonNull Rect frame) {
             ensureManageSystemUIPermission(mContext);
-            mInsets.append(InsetsSource.createId(mInsetsOwner, index, type), frame);
-
-            if (mTaskViewTaskController.getTaskInfo() == null) {
-                // The insets will be applied later as part of onTaskAppeared.
-                Log.w(TAG, "Cannot apply insets as the task token is not present.");
-                return;
-            }
             WindowContainerTransaction wct = new WindowContainerTransaction();
-            wct.addInsetsSource(mTaskViewTaskController.getTaskInfo().token,
-                    mInsetsOwner, index, type, frame, /* boundingRects = */ null, /* flags = */ 0);
-            mShellTaskOrganizer.applyTransaction(wct);
+            if (appendAddInsets(index, type, frame, wct)) {
+                mTransactionCoalescer.enqueue(wct);
+            }
         }
 
         @Override
         public void removeInsets(int index, int type) {
             ensureManageSystemUIPermission(mContext);
-            if (mInsets.size() == 0) {
-                Log.w(TAG, "No insets set.");
-                return;
-            }
-            int id = InsetsSource.createId(mInsetsOwner, index, type);
-            if (!mInsets.contains(id)) {
-                Log.w(TAG, "Insets type: " + type + " can't be removed as it was not "
-                        + "applied as part of the last addInsets()");
-                return;
+            WindowContainerTransaction wct = new WindowContainerTransaction();
+            if (appendRemoveInsets(index, type, wct)) {
+                mTransactionCoalescer.enqueue(wct);
             }
-            mInsets.remove(id);
+        }
 
-            if (mTaskViewTaskController.getTaskInfo() == null) {
-                Log.w(TAG, "Cannot remove insets as the task token is not present.");
-                return;
-            }
-            WindowContainerTransaction wct = new WindowContainerTransaction();
-            wct.removeInsetsSource(mTaskViewTaskController.getTaskInfo().token,
-                    mInsetsOwner, index, type);
-            mShellTaskOrganizer.applyTransaction(wct);
+        @Override
+        public void onTaskEventsHandled(long seq) {
+            ensureManageSystemUIPermission(mContext);
+            mCarTaskViewClient.onTaskEventsHandled(seq);
+        }
+
+        @Override
+        public void setTaskInfoFilter(int fields) {
+            ensureManageSystemUIPermission(mContext);
+            mTaskInfoFilter = fields;
         }
     };
 
@@ -223,16 +269,30 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
             SyncTransactionQueue syncQueue,
             CarTaskViewClient carTaskViewClient,
             CarSystemUIProxyImpl carSystemUIProxy,
-            TaskViewTransitions taskViewTransitions
+            TaskViewTransitions taskViewTransitions,
+            WindowContainerTransactionCoalescer transactionCoalescer
+    ) {
+        this(context, carTaskViewClient, carSystemUIProxy, taskViewTransitions,
+                transactionCoalescer,
+                new TaskViewTaskController(context, organizer, taskViewTransitions, syncQueue));
+    }
+
+    @VisibleForTesting
+    RemoteCarTaskViewServerImpl(
+            Context context,
+            CarTaskViewClient carTaskViewClient,
+            CarSystemUIProxyImpl carSystemUIProxy,
+            TaskViewTransitions taskViewTransitions,
+            WindowContainerTransactionCoalescer transactionCoalescer,
+            TaskViewTaskController taskViewTaskController
     ) {
         mContext = context;
         mCarTaskViewClient = carTaskViewClient;
         mCarSystemUIProxy = carSystemUIProxy;
-        mShellTaskOrganizer = organizer;
         mTaskViewTransitions = taskViewTransitions;
+        mTransactionCoalescer = transactionCoalescer;
 
-        mTaskViewTaskController =
-                new TaskViewTaskController(context, organizer, taskViewTransitions, syncQueue);
+        mTaskViewTaskController = taskViewTaskController;
         mTaskViewTaskController.setTaskViewBase(this);
     }
 
@@ -240,8 +300,118 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
         return mHostImpl;
     }
 
+    /**
+     * Appends the WM changes of the given operation to {@code wct}, so that the operations of
+     * several task views can be applied as a single transaction.
+     *
+     * @return {@code false} if the operation can't be part of a {@link WindowContainerTransaction}
+     * (e.g. with shell transitions), in which case the caller should apply it through
+     * {@link CarTaskViewOperation#applyTo(CarTaskViewHost)} after the pending ones.
+     */
+    public boolean appendOperation(@NonNull CarTaskViewOperation op,
+                                   @NonNull WindowContainerTransaction wct) {
+        ensureManageSystemUIPermission(mContext);
+        switch (op.getType()) {
+            case CarTaskViewOperation.TYPE_ADD_INSETS:
+                appendAddInsets(op.getInsetsIndex(), op.getInsetsType(), op.getRect(), wct);
+                return true;
+            case CarTaskViewOperation.TYPE_REMOVE_INSETS:
+                appendRemoveInsets(op.getInsetsIndex(), op.getInsetsType(), wct);
+                return true;
+            case CarTaskViewOperation.TYPE_SET_WINDOW_BOUNDS:
+                updateBoundsCache(op.getRect());
+                break;
+            case CarTaskViewOperation.TYPE_SET_TASK_VISIBILITY:
+            case CarTaskViewOperation.TYPE_REORDER_TASK:
+            case CarTaskViewOperation.TYPE_SHOW_EMBEDDED_TASK:
+                break;
+            default:
+                return false;
+        }
+
+        ActivityManager.RunningTaskInfo taskInfo = mTaskViewTaskController.getTaskInfo();
+        if (taskInfo == null) {
+            return true;
+        }
+        if (mTaskViewTaskController.isUsingShellTransitions()) {
+            return false;
+        }
+        switch (op.getType()) {
+            case CarTaskViewOperation.TYPE_SET_WINDOW_BOUNDS:
+                wct.setBounds(taskInfo.token, op.getRect());
+                break;
+            case CarTaskViewOperation.TYPE_SET_TASK_VISIBILITY:
+                wct.setHidden(taskInfo.token, !op.getValue());
+                break;
+            case CarTaskViewOperation.TYPE_REORDER_TASK:
+                wct.reorder(taskInfo.token, op.getValue());
+                break;
+            case CarTaskViewOperation.TYPE_SHOW_EMBEDDED_TASK:
+                wct.setHidden(taskInfo.token, /* hidden= */ false);
+                wct.reorder(taskInfo.token, /* onTop= */ true);
+                break;
+        }
+        return true;
+    }
+
+    private boolean appendAddInsets(int index, int type, @NonNull Rect frame,
+                                    @NonNull WindowContainerTransaction wct) {
+        mInsets.append(InsetsSource.createId(mInsetsOwner, index, type), frame);
+
+        if (mTaskViewTaskController.getTaskInfo() == null) {
+            // The insets will be applied later as part of onTaskAppeared.
+            Log.w(TAG, "Cannot apply insets as the task token is not present.");
+            return false;
+        }
+        wct.addInsetsSource(mTaskViewTaskController.getTaskInfo().token,
+                mInsetsOwner, index, type, frame, /* boundingRects = */ null, /* flags = */ 0);
+        return true;
+    }
+
+    private boolean appendRemoveInsets(int index, int type,
+                                       @NonNull WindowContainerTransaction wct) {
+        if (mInsets.size() == 0) {
+            Log.w(TAG, "No insets set.");
+            return false;
+        }
+        int id = InsetsSource.createId(mInsetsOwner, index, type);
+        if (!mInsets.contains(id)) {
+            Log.w(TAG, "Insets type: " + type + " can't be removed as it was not "
+                    + "applied as part of the last addInsets()");
+            return false;
+        }
+        mInsets.remove(id);
+
+        if (mTaskViewTaskController.getTaskInfo() == null) {
+            Log.w(TAG, "Cannot remove insets as the task token is not present.");
+            return false;
+        }
+        wct.removeInsetsSource(mTaskViewTaskController.getTaskInfo().token,
+                mInsetsOwner, index, type);
+        return true;
+    }
+
+    private void updateBoundsCache(@Nullable Rect bounds) {
+        synchronized (mBoundsLock) {
+            if (bounds == null) {
+                mBoundsKnown = false;
+                return;
+            }
+            mBoundsOnScreen.set(bounds);
+            mBoundsKnown = true;
+        }
+    }
+
     @Override
     public Rect getCurrentBoundsOnScreen() {
+        synchronized (mBoundsLock) {
+            if (mBoundsKnown) {
+                mBoundsCacheHits++;
+                return new Rect(mBoundsOnScreen);
+            }
+            mBoundsCacheMisses++;
+        }
+        Log.d(TAG, "getCurrentBoundsOnScreen: bounds cache is cold, asking the client");
         try {
             return mCarTaskViewClient.getCurrentBoundsOnScreen();
         } catch (DeadSystemRuntimeException ex) {
@@ -255,8 +425,18 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
     @Override
     public String toString() {
         ActivityManager.RunningTaskInfo taskInfo = mTaskViewTaskController.getTaskInfo();
+        String bounds;
+        synchronized (mBoundsLock) {
+            bounds = (mBoundsKnown ? mBoundsOnScreen.toShortString() : "unknown")
+                    + " (cacheHits=" + mBoundsCacheHits
+                    + ", cacheMisses=" + mBoundsCacheMisses + ")";
+        }
         return "RemoteCarTaskViewServerImpl {"
                 + "insets=" + mInsets
+                + ", bounds=" + bounds
+                + ", client=" + mCarTaskViewClient
+                + ", taskInfoFilter=" + Integer.toHexString(mTaskInfoFilter)
+                + ", filteredTaskInfoChanges=" + mFilteredTaskInfoChanges
                 + ", taskId=" + (taskInfo == null ? "null" : taskInfo.taskId)
                 + ", taskInfo=" + (taskInfo == null ? "null" : taskInfo)
                 + "}";
@@ -264,46 +444,47 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
 
     @Override
     public void setResizeBgColor(SurfaceControl.Transaction transaction, int color) {
-        try {
-            mCarTaskViewClient.setResizeBackgroundColor(transaction, color);
-        } catch (DeadSystemRuntimeException e) {
-            Log.w(TAG, "Failed to call setResizeBackgroundColor() as TaskView client has "
-                    + "already died. Host part will be released shortly.");
-        }
+        // Queued on the client's event channel, this never blocks on the client.
+        mCarTaskViewClient.setResizeBackgroundColor(transaction, color);
     }
 
     @Override
     public void onTaskAppeared(ActivityManager.RunningTaskInfo taskInfo, SurfaceControl leash) {
         applyAllInsets();
+        // The task mustn't be shown without its insets until the next frame.
+        mTransactionCoalescer.flush();
+        Log.d(TAG, "onTaskAppeared: taskId=" + taskInfo.taskId);
+        mLastDeliveredTaskInfo = taskInfo;
+        long flowId = mLaunchFlowId.getAndSet(TaskViewTrace.NO_FLOW);
+        TaskViewTrace.traceTaskAppeared(taskInfo.taskId);
+        TaskViewTrace.beginStage("ICarTaskViewClient.onTaskAppeared", flowId);
         try {
-            Log.d(TAG, "onTaskAppeared: taskId=" + taskInfo.taskId);
             mCarTaskViewClient.onTaskAppeared(taskInfo, leash);
-        } catch (DeadSystemRuntimeException e) {
-            Log.w(TAG, "Failed to call onTaskAppeared() as TaskView client has already died, "
-                    + "already died. Host part will be released shortly.");
+        } finally {
+            TaskViewTrace.endStage(flowId);
+            TaskViewTrace.endLaunch(flowId);
         }
     }
 
     @Override
     public void onTaskInfoChanged(ActivityManager.RunningTaskInfo taskInfo) {
-        try {
-            Log.d(TAG, "onTaskInfoChanged: taskId=" + taskInfo.taskId);
-            mCarTaskViewClient.onTaskInfoChanged(taskInfo);
-        } catch (DeadSystemRuntimeException e) {
-            Log.w(TAG, "Failed to call onTaskInfoChanged() as TaskView client has already died, "
-                    + "already died. Host part will be released shortly.");
+        int changedFields = TaskInfoFilter.getChangedFields(mLastDeliveredTaskInfo, taskInfo);
+        if ((changedFields & mTaskInfoFilter) == 0) {
+            mFilteredTaskInfoChanges++;
+            return;
         }
+        Log.d(TAG, "onTaskInfoChanged: taskId=" + taskInfo.taskId
+                + ", changedFields=" + Integer.toHexString(changedFields));
+        mLastDeliveredTaskInfo = taskInfo;
+        mCarTaskViewClient.onTaskInfoChanged(taskInfo);
     }
 
     @Override
     public void onTaskVanished(ActivityManager.RunningTaskInfo taskInfo) {
-        try {
-            Log.d(TAG, "onTaskVanished: taskId=" + taskInfo.taskId);
-            mCarTaskViewClient.onTaskVanished(taskInfo);
-        } catch (DeadSystemRuntimeException e) {
-            Log.w(TAG, "Failed to call onTaskVanished() as TaskView client has already died, "
-                    + "already died. Host part will be released shortly.");
-        }
+        Log.d(TAG, "onTaskVanished: taskId=" + taskInfo.taskId);
+        mLastDeliveredTaskInfo = null;
+        updateBoundsCache(null);
+        mCarTaskViewClient.onTaskVanished(taskInfo);
     }
 
     private void applyAllInsets() {
@@ -323,7 +504,7 @@ public class RemoteCarTaskViewServerImpl implements TaskViewBase {
                     mInsetsOwner, InsetsSource.getIndex(id), InsetsSource.getType(id), frame,
                     null /* boundingRects */, 0 /* flags */);
         }
-        mShellTaskOrganizer.applyTransaction(wct);
+        mTransactionCoalescer.enqueue(wct);
     }
 
     /**
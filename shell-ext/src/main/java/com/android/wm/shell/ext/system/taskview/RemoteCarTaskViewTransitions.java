@@ -109,10 +109,10 @@ public final class RemoteCarTaskViewTransitions implements Transitions.Transitio
                                                                  boolean includeOtherTasksAboveHome) {
         WindowContainerTransaction wct = new WindowContainerTransaction();
         boolean reorderedEmbeddedTasks = false;
-        for (int i = mCarSystemUIProxy.get().getAllTaskViews().size() - 1; i >= 0; i--) {
+        List<RemoteCarTaskViewServerImpl> taskViews = mCarSystemUIProxy.get().getAllTaskViews();
+        for (int i = taskViews.size() - 1; i >= 0; i--) {
             // TODO(b/359586295): Handle restarting of tasks if required.
-            ActivityManager.RunningTaskInfo task =
-                    mCarSystemUIProxy.get().getAllTaskViews().valueAt(i).getTaskInfo();
+            ActivityManager.RunningTaskInfo task = taskViews.get(i).getTaskInfo();
             if (task == null) continue;
             if (task.displayId != endDisplayId) continue;
             if (DBG) {
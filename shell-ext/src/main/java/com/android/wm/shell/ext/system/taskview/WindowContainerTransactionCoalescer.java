@@ -0,0 +1,151 @@
+package com.android.wm.shell.ext.system.taskview;
+
+import android.util.Log;
+import android.view.Choreographer;
+import android.window.WindowContainerTransaction;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+
+import com.android.wm.shell.ShellTaskOrganizer;
+import com.android.wm.shell.common.ShellExecutor;
+
+import java.io.PrintWriter;
+
+/**
+ * Merges the {@link WindowContainerTransaction}s requested by all the task views and applies them
+ * through {@link ShellTaskOrganizer#applyTransaction(WindowContainerTransaction)} as a single
+ * transaction on the next frame of the shell main thread.
+ *
+ * <p>The transactions are merged in the order they are enqueued, and are only ever applied on the
+ * shell main thread, never on the binder threads which enqueue them. Callers that are about to
+ * make the WM changes through another path (e.g. shell transitions) must do so through
+ * {@link #flushThen(Runnable)}, so that the pending operations are not reordered after theirs.
+ *
+ * <p>The operations counted by the statistics are the container changes and the hierarchy
+ * operations of the enqueued transactions.
+ */
+public final class WindowContainerTransactionCoalescer {
+    private static final String TAG = "WctCoalescer";
+    private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private final ShellTaskOrganizer mTaskOrganizer;
+    private final ShellExecutor mMainExecutor;
+    private final Object mLock = new Object();
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> onFrame();
+    private final Runnable mFlushRunnable = () -> applyPending(/* fromFrame= */ false);
+    private final Runnable mPostFrameCallback =
+            () -> Choreographer.getInstance().postFrameCallback(mFrameCallback);
+
+    @GuardedBy("mLock")
+    private WindowContainerTransaction mPending;
+    @GuardedBy("mLock")
+    private int mPendingOps;
+    @GuardedBy("mLock")
+    private int mPendingTransactions;
+    @GuardedBy("mLock")
+    private boolean mFrameScheduled;
+
+    @GuardedBy("mLock")
+    private long mEnqueuedTransactions;
+    @GuardedBy("mLock")
+    private long mAppliedTransactions;
+    @GuardedBy("mLock")
+    private long mMergedOps;
+    @GuardedBy("mLock")
+    private int mMaxOpsPerApply;
+
+    public WindowContainerTransactionCoalescer(@NonNull ShellTaskOrganizer taskOrganizer,
+                                               @NonNull ShellExecutor mainExecutor) {
+        mTaskOrganizer = taskOrganizer;
+        mMainExecutor = mainExecutor;
+    }
+
+    /**
+     * Queues the operations of {@code wct} to be applied on the next frame. The given transaction
+     * must not be used by the caller afterwards.
+     */
+    public void enqueue(@NonNull WindowContainerTransaction wct) {
+        int ops = wct.getChanges().size() + wct.getHierarchyOps().size();
+        synchronized (mLock) {
+            if (mPending == null) {
+                mPending = new WindowContainerTransaction();
+            }
+            mPending.merge(wct, /* transfer= */ true);
+            mPendingOps += ops;
+            mPendingTransactions++;
+            mEnqueuedTransactions++;
+            if (!mFrameScheduled) {
+                mFrameScheduled = true;
+                mMainExecutor.execute(mPostFrameCallback);
+            }
+        }
+    }
+
+    /**
+     * Applies the pending operations, if there are any, on the main executor without waiting for
+     * the next frame.
+     */
+    public void flush() {
+        mMainExecutor.execute(mFlushRunnable);
+    }
+
+    /**
+     * Applies the pending operations, then runs {@code action} on the main executor. To be used
+     * for the WM changes which can't be part of a {@link WindowContainerTransaction}.
+     */
+    public void flushThen(@NonNull Runnable action) {
+        mMainExecutor.execute(() -> {
+            applyPending(/* fromFrame= */ false);
+            action.run();
+        });
+    }
+
+    private void onFrame() {
+        applyPending(/* fromFrame= */ true);
+    }
+
+    // Only called on the main executor, which keeps the applies in the enqueue order.
+    private void applyPending(boolean fromFrame) {
+        WindowContainerTransaction wct;
+        int ops;
+        int transactions;
+        synchronized (mLock) {
+            if (fromFrame) {
+                mFrameScheduled = false;
+            }
+            if (mPending == null) {
+                return;
+            }
+            wct = mPending;
+            ops = mPendingOps;
+            transactions = mPendingTransactions;
+            mPending = null;
+            mPendingOps = 0;
+            mPendingTransactions = 0;
+
+            mAppliedTransactions++;
+            mMergedOps += ops;
+            mMaxOpsPerApply = Math.max(mMaxOpsPerApply, ops);
+        }
+        if (DBG) {
+            Log.d(TAG, "Applying " + ops + " operations of " + transactions
+                    + " merged transactions");
+        }
+        mTaskOrganizer.applyTransaction(wct);
+    }
+
+    /** Dumps the merge statistics. */
+    public void dump(@NonNull PrintWriter pw, @NonNull String prefix) {
+        synchronized (mLock) {
+            pw.println(prefix + TAG + ":");
+            pw.println(prefix + "  enqueuedTransactions=" + mEnqueuedTransactions);
+            pw.println(prefix + "  appliedTransactions=" + mAppliedTransactions);
+            pw.println(prefix + "  mergedOps=" + mMergedOps);
+            pw.println(prefix + "  mergedOpsPerApply=" + (mAppliedTransactions == 0
+                    ? 0 : (float) mMergedOps / mAppliedTransactions));
+            pw.println(prefix + "  maxOpsPerApply=" + mMaxOpsPerApply);
+            pw.println(prefix + "  pendingOps=" + mPendingOps);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.android.wm.shell.ext.utils;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accounts the incoming binder traffic of an AIDL interface served by this process, per method
+ * and calling uid: the calls, the total and the max parcel sizes, and a latency histogram of the
+ * two-way calls. There is a single instance per interface and process, the stubs run their
+ * transactions through it from {@link Binder#onTransact}:
+ * <pre>
+ * public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+ *         throws RemoteException {
+ *     return TRAFFIC_STATS.onTransact(code, data, reply, flags,
+ *             () -> super.onTransact(code, data, reply, flags));
+ * }
+ * </pre>
+ * The interfaces of the process are reported by {@link #dumpAll(PrintWriter, String)}.
+ *
+ * <p>The transactions are recorded without locking, into atomic counters, so that the binder
+ * threads don't wait for each other here.
+ */
+public final class BinderTrafficStats {
+    // The upper bounds of the latency buckets, the last bucket holds the slower calls.
+    private static final long[] LATENCY_BUCKETS_US =
+            {50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000};
+
+    private static final Object sLock = new Object();
+    // By stub class.
+    @GuardedBy("sLock")
+    private static final ArrayMap<Class<?>, BinderTrafficStats> sInterfaces = new ArrayMap<>();
+
+    private final Class<? extends Binder> mStubClass;
+    private final String mName;
+
+    // Keyed by the transaction code in the upper half and the calling uid in the lower half, so
+    // that the entries of a method are next to each other once sorted.
+    private final ConcurrentHashMap<Long, Entry> mEntries = new ConcurrentHashMap<>();
+    // Resolved on the first dump.
+    @Nullable
+    private volatile SparseArray<String> mMethodNames;
+
+    private BinderTrafficStats(Class<? extends Binder> stubClass) {
+        mStubClass = stubClass;
+        Class<?> aidlInterface = stubClass.getEnclosingClass();
+        mName = (aidlInterface != null ? aidlInterface : stubClass).getSimpleName();
+    }
+
+    /**
+     * Returns the stats of the interface of {@code stubClass}, the {@code Stub} class generated
+     * for the interface.
+     */
+    @NonNull
+    public static BinderTrafficStats forInterface(@NonNull Class<? extends Binder> stubClass) {
+        synchronized (sLock) {
+            BinderTrafficStats stats = sInterfaces.get(stubClass);
+            if (stats == null) {
+                stats = new BinderTrafficStats(stubClass);
+                sInterfaces.put(stubClass, stats);
+            }
+            return stats;
+        }
+    }
+
+    /** The {@code super.onTransact()} call of a stub. */
+    public interface Transaction {
+        boolean run() throws RemoteException;
+    }
+
+    /** Runs {@code transaction}, the transaction {@code code} of a stub, and records it. */
+    public boolean onTransact(int code, @NonNull Parcel data, @Nullable Parcel reply, int flags,
+                              @NonNull Transaction transaction) throws RemoteException {
+        long startNanos = SystemClock.uptimeNanos();
+        int callingUid = Binder.getCallingUid();
+        try {
+            return transaction.run();
+        } finally {
+            record(code, callingUid, flags, data, reply, startNanos);
+        }
+    }
+
+    /**
+     * Records a transaction which started at {@code startNanos}, on the
+     * {@link SystemClock#uptimeNanos()} clock. {@code reply} is read for its size, so it must be
+     * called once the reply is written.
+     */
+    private void record(int code, int callingUid, int flags, @NonNull Parcel data,
+                        @Nullable Parcel reply, long startNanos) {
+        boolean oneway = (flags & IBinder.FLAG_ONEWAY) != 0;
+        long latencyNanos = SystemClock.uptimeNanos() - startNanos;
+        int dataSize = data.dataSize();
+        int replySize = oneway || reply == null ? 0 : reply.dataSize();
+        long key = ((long) code << 32) | (callingUid & 0xffffffffL);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = mEntries.computeIfAbsent(key, k -> new Entry());
+        }
+        entry.mCalls.incrementAndGet();
+        entry.mTotalDataBytes.addAndGet(dataSize);
+        entry.mMaxDataBytes.accumulateAndGet(dataSize, Math::max);
+        entry.mTotalReplyBytes.addAndGet(replySize);
+        entry.mMaxReplyBytes.accumulateAndGet(replySize, Math::max);
+        if (!oneway) {
+            entry.mLatencyBuckets.incrementAndGet(getLatencyBucket(latencyNanos / 1000));
+        }
+    }
+
+    private static int getLatencyBucket(long latencyUs) {
+        for (int i = 0; i < LATENCY_BUCKETS_US.length; i++) {
+            if (latencyUs < LATENCY_BUCKETS_US[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKETS_US.length;
+    }
+
+    /** Dumps the traffic of each method of the interface, per calling uid. */
+    public void dump(@NonNull PrintWriter pw, @NonNull String prefix) {
+        ArrayList<Long> keys = new ArrayList<>(mEntries.keySet());
+        Collections.sort(keys);
+        long calls = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            calls += mEntries.get(keys.get(i)).mCalls.get();
+        }
+        pw.println(prefix + mName + ": calls=" + calls);
+        SparseArray<String> methodNames = mMethodNames;
+        if (methodNames == null) {
+            methodNames = getMethodNames(mStubClass);
+            mMethodNames = methodNames;
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            long key = keys.get(i);
+            int code = (int) (key >>> 32);
+            int uid = (int) key;
+            pw.println(prefix + "  " + getMethodName(methodNames, code) + " uid=" + uid + ": "
+                    + mEntries.get(key));
+        }
+    }
+
+    /** Dumps the traffic of all the interfaces served by this process. */
+    public static void dumpAll(@NonNull PrintWriter pw, @NonNull String prefix) {
+        pw.println(prefix + BinderTrafficStats.class.getSimpleName() + ":");
+        synchronized (sLock) {
+            for (int i = 0; i < sInterfaces.size(); i++) {
+                sInterfaces.valueAt(i).dump(pw, prefix + "  ");
+            }
+        }
+    }
+
+    private static String getMethodName(SparseArray<String> methodNames, int code) {
+        String name = methodNames.get(code);
+        if (name != null) {
+            return name;
+        }
+        switch (code) {
+            case IBinder.DUMP_TRANSACTION:
+                return "dump";
+            case IBinder.INTERFACE_TRANSACTION:
+                return "getInterfaceDescriptor";
+            case IBinder.PING_TRANSACTION:
+                return "ping";
+            default:
+                return "#" + code;
+        }
+    }
+
+    /**
+     * Maps the transaction codes to the method names, from the {@code TRANSACTION_<method>}
+     * constants of the stub. They may be stripped from a minified build, then the codes are
+     * dumped instead.
+     */
+    private static SparseArray<String> getMethodNames(Class<?> stubClass) {
+        SparseArray<String> names = new SparseArray<>();
+        for (Field field : stubClass.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != int.class
+                    || !field.getName().startsWith("TRANSACTION_")) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                names.put(field.getInt(null), field.getName().substring("TRANSACTION_".length()));
+            } catch (IllegalAccessException | RuntimeException e) {
+                // Dumped by its code.
+            }
+        }
+        return names;
+    }
+
+    private static final class Entry {
+        final AtomicLong mCalls = new AtomicLong();
+        final AtomicLong mTotalDataBytes = new AtomicLong();
+        final AtomicInteger mMaxDataBytes = new AtomicInteger();
+        final AtomicLong mTotalReplyBytes = new AtomicLong();
+        final AtomicInteger mMaxReplyBytes = new AtomicInteger();
+        // Two-way calls only, see LATENCY_BUCKETS_US.
+        final AtomicLongArray mLatencyBuckets = new AtomicLongArray(LATENCY_BUCKETS_US.length + 1);
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("calls=").append(mCalls.get())
+                    .append(", dataBytes=").append(mTotalDataBytes.get())
+                    .append(", maxDataBytes=").append(mMaxDataBytes.get())
+                    .append(", replyBytes=").append(mTotalReplyBytes.get())
+                    .append(", maxReplyBytes=").append(mMaxReplyBytes.get());
+            boolean first = true;
+            for (int i = 0; i < mLatencyBuckets.length(); i++) {
+                long count = mLatencyBuckets.get(i);
+                if (count == 0) {
+                    continue;
+                }
+                sb.append(first ? ", latencyUs={" : ", ");
+                first = false;
+                if (i < LATENCY_BUCKETS_US.length) {
+                    sb.append('<').append(LATENCY_BUCKETS_US[i]);
+                } else {
+                    sb.append(">=").append(LATENCY_BUCKETS_US[LATENCY_BUCKETS_US.length - 1]);
+                }
+                sb.append(':').append(count);
+            }
+            if (!first) {
+                sb.append('}');
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.android.wm.shell.ext.utils;
+
+import static com.android.wm.shell.ext.utils.FlightRecorder.HEADER_CAPACITY;
+import static com.android.wm.shell.ext.utils.FlightRecorder.HEADER_MAGIC;
+import static com.android.wm.shell.ext.utils.FlightRecorder.HEADER_RECORD_SIZE;
+import static com.android.wm.shell.ext.utils.FlightRecorder.HEADER_SIZE;
+import static com.android.wm.shell.ext.utils.FlightRecorder.HEADER_VERSION;
+import static com.android.wm.shell.ext.utils.FlightRecorder.RECORD_ARG0;
+import static com.android.wm.shell.ext.utils.FlightRecorder.RECORD_ARG1;
+import static com.android.wm.shell.ext.utils.FlightRecorder.RECORD_ARG2;
+import static com.android.wm.shell.ext.utils.FlightRecorder.RECORD_EVENT;
+import static com.android.wm.shell.ext.utils.FlightRecorder.RECORD_SEQ;
+import static com.android.wm.shell.ext.utils.FlightRecorder.RECORD_SIZE;
+import static com.android.wm.shell.ext.utils.FlightRecorder.RECORD_TIME;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Turns a ring file of {@link FlightRecorder} back into readable text or CSV, oldest record
+ * first. Only uses the JDK, the constants of {@link FlightRecorder} are inlined by the compiler,
+ * so that the pulled files can also be decoded on a workstation with the compiled classes:
+ * <pre>
+ * adb pull /data/user_de/0/&lt;package&gt;/files/&lt;name&gt;.flight
+ * java -cp &lt;classes&gt; com.android.wm.shell.ext.utils.FlightRecordDecoder [--csv] &lt;file&gt;
+ * </pre>
+ * The recorder of SystemUI is in the device protected storage, {@code /data/user_de}, the one of
+ * {@code CarActivityService} in {@code /data/user/0}.
+ */
+public final class FlightRecordDecoder {
+    private static final String CSV_HEADER =
+            "seq,elapsed_realtime_nanos,wall_time_millis,event,arg0,arg1,arg2";
+
+    private FlightRecordDecoder() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean csv = args.length == 2 && args[0].equals("--csv");
+        if (args.length != (csv ? 2 : 1)) {
+            System.err.println("Usage: FlightRecordDecoder [--csv] <file>");
+            System.exit(1);
+        }
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out));
+        decode(new File(args[csv ? 1 : 0]), out, csv);
+        out.flush();
+    }
+
+    /** Writes the records of {@code file} to {@code out}, as text or as CSV. */
+    public static void decode(File file, PrintWriter out, boolean csv)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE
+                || buffer.getInt(HEADER_MAGIC) != FlightRecorder.MAGIC) {
+            throw new IOException("Not a flight recorder file: " + file);
+        }
+        if (buffer.getInt(HEADER_VERSION) != FlightRecorder.VERSION
+                || buffer.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE) {
+            throw new IOException("Unsupported flight recorder file version "
+                    + buffer.getInt(HEADER_VERSION) + ": " + file);
+        }
+        int capacity = buffer.getInt(HEADER_CAPACITY);
+        if (buffer.capacity() < HEADER_SIZE + (long) RECORD_SIZE * capacity) {
+            throw new IOException("Truncated flight recorder file: " + file);
+        }
+
+        ArrayList<long[]> records = new ArrayList<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            long seq = buffer.getLong(offset + RECORD_SEQ);
+            if (seq == 0) {
+                // Never written, or torn by a crash.
+                continue;
+            }
+            records.add(new long[] {seq, buffer.getLong(offset + RECORD_TIME),
+                    buffer.getInt(offset + RECORD_EVENT), buffer.getInt(offset + RECORD_ARG0),
+                    buffer.getInt(offset + RECORD_ARG1), buffer.getInt(offset + RECORD_ARG2)});
+        }
+        records.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        if (csv) {
+            out.println(CSV_HEADER);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        String unknownTime = "??-?? ??:??:??.???";
+        // The wall clock time and the elapsed time of the last process start.
+        long openedWallMillis = -1;
+        long openedElapsedNanos = 0;
+        for (int i = 0; i < records.size(); i++) {
+            long[] record = records.get(i);
+            long seq = record[0];
+            long elapsedNanos = record[1];
+            int event = (int) record[2];
+            int arg0 = (int) record[3];
+            int arg1 = (int) record[4];
+            int arg2 = (int) record[5];
+            if (event == FlightRecorder.EVENT_RECORDER_OPENED) {
+                openedWallMillis = ((long) arg1 << 32) | (arg2 & 0xffffffffL);
+                openedElapsedNanos = elapsedNanos;
+            }
+            long wallMillis = openedWallMillis < 0
+                    ? -1 : openedWallMillis + (elapsedNanos - openedElapsedNanos) / 1_000_000;
+            if (csv) {
+                out.println(seq + "," + elapsedNanos + "," + wallMillis + "," + eventName(event)
+                        + "," + arg0 + "," + arg1 + "," + arg2);
+            } else {
+                out.println(String.format(Locale.US, "%8d %s %s %s", seq,
+                        wallMillis < 0 ? unknownTime : format.format(new Date(wallMillis)),
+                        eventName(event), describe(event, arg0, arg1, arg2)));
+            }
+        }
+    }
+
+    private static String eventName(int event) {
+        switch (event) {
+            case FlightRecorder.EVENT_RECORDER_OPENED:
+                return "RECORDER_OPENED";
+            case FlightRecorder.EVENT_TASK_APPEARED:
+                return "TASK_APPEARED";
+            case FlightRecorder.EVENT_TASK_INFO_CHANGED:
+                return "TASK_INFO_CHANGED";
+            case FlightRecorder.EVENT_TASK_VANISHED:
+                return "TASK_VANISHED";
+            case FlightRecorder.EVENT_TASK_SNAPSHOT_REPLACED:
+                return "TASK_SNAPSHOT_REPLACED";
+            case FlightRecorder.EVENT_TASK_EVENTS_GAP:
+                return "TASK_EVENTS_GAP";
+            case FlightRecorder.EVENT_MONITOR_REGISTERED:
+                return "MONITOR_REGISTERED";
+            case FlightRecorder.EVENT_MONITOR_REMOVED:
+                return "MONITOR_REMOVED";
+            case FlightRecorder.EVENT_HOST_TASK_VIEW_CREATED:
+                return "HOST_TASK_VIEW_CREATED";
+            case FlightRecorder.EVENT_HOST_TASK_VIEW_RELEASED:
+                return "HOST_TASK_VIEW_RELEASED";
+            case FlightRecorder.EVENT_HOST_OPERATION:
+                return "HOST_OPERATION";
+            case FlightRecorder.EVENT_HOST_CONNECTION_CHANGED:
+                return "HOST_CONNECTION_CHANGED";
+            default:
+                return "EVENT_" + event;
+        }
+    }
+
+    private static String describe(int event, int arg0, int arg1, int arg2) {
+        switch (event) {
+            case FlightRecorder.EVENT_RECORDER_OPENED:
+                return "pid=" + arg0;
+            case FlightRecorder.EVENT_TASK_APPEARED:
+            case FlightRecorder.EVENT_TASK_INFO_CHANGED:
+            case FlightRecorder.EVENT_TASK_VANISHED:
+                return "taskId=" + arg0 + " displayId=" + arg1
+                        + " visible=" + ((arg2 & FlightRecorder.FLAG_VISIBLE) != 0);
+            case FlightRecorder.EVENT_TASK_SNAPSHOT_REPLACED:
+                return "tasks=" + arg0 + " generation=" + arg1;
+            case FlightRecorder.EVENT_TASK_EVENTS_GAP:
+                return "lostBatches=" + arg0 + " seq=" + arg1;
+            case FlightRecorder.EVENT_MONITOR_REGISTERED:
+                return "pid=" + arg0;
+            case FlightRecorder.EVENT_MONITOR_REMOVED:
+                return "current=" + (arg0 != 0);
+            case FlightRecorder.EVENT_HOST_TASK_VIEW_CREATED:
+                return "pid=" + arg0 + " taskViews=" + arg1;
+            case FlightRecorder.EVENT_HOST_TASK_VIEW_RELEASED:
+                return "taskViews=" + arg0;
+            case FlightRecorder.EVENT_HOST_OPERATION:
+                return "type=" + arg0 + " decision=" + decisionName(arg1) + " pid=" + arg2;
+            case FlightRecorder.EVENT_HOST_CONNECTION_CHANGED:
+                return "connected=" + (arg0 != 0);
+            default:
+                return "arg0=" + arg0 + " arg1=" + arg1 + " arg2=" + arg2;
+        }
+    }
+
+    private static String decisionName(int decision) {
+        switch (decision) {
+            case FlightRecorder.DECISION_COALESCED:
+                return "COALESCED";
+            case FlightRecorder.DECISION_DIRECT:
+                return "DIRECT";
+            case FlightRecorder.DECISION_SKIPPED:
+                return "SKIPPED";
+            default:
+                return Integer.toString(decision);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.android.wm.shell.ext.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Records the task lifecycle events, the host commands and the transition decisions as fixed size
+ * binary records into a memory-mapped ring file. The records are written in place, without
+ * allocating, and the mapped pages outlive a crash of the process. The file is decoded by
+ * {@link FlightRecordDecoder}.
+ *
+ * <p>The file starts with a header of {@link #HEADER_SIZE} bytes, followed by
+ * {@code capacity} records of {@link #RECORD_SIZE} bytes, all little endian:
+ * <pre>
+ * header: int magic, int version, int recordSize, int capacity, long nextSeq
+ * record: long seq, long elapsedRealtimeNanos, int event, int arg0, int arg1, int arg2
+ * </pre>
+ * The record of sequence number {@code seq} is at the slot {@code (seq - 1) % capacity}, its
+ * sequence number is written last, so that a record torn by a crash is recognized. An existing
+ * file of the same layout is continued, so the records of the previous process are kept until
+ * they are overwritten.
+ *
+ * <p>Thread safe without locking: each record claims its sequence number, and so its slot, from
+ * an atomic counter, then the threads write their slots in parallel. {@code nextSeq} of the
+ * header is a hint, written after each record, the recorder continues after the largest sequence
+ * number of the file.
+ *
+ * <p>Each process start is recorded as {@link #EVENT_RECORDER_OPENED}, with the wall clock time,
+ * so that the elapsed times of the following records can be converted.
+ */
+public final class FlightRecorder {
+    private static final String TAG = FlightRecorder.class.getSimpleName();
+
+    static final int MAGIC = 0x52465654; // "TVFR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_RECORD_SIZE = 8;
+    static final int HEADER_CAPACITY = 12;
+    static final int HEADER_NEXT_SEQ = 16;
+
+    static final int RECORD_SEQ = 0;
+    static final int RECORD_TIME = 8;
+    static final int RECORD_EVENT = 16;
+    static final int RECORD_ARG0 = 20;
+    static final int RECORD_ARG1 = 24;
+    static final int RECORD_ARG2 = 28;
+
+    /** The default number of records, 128KB. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** arg0: pid, arg1 and arg2: the high and low bits of the wall clock time in millis. */
+    public static final int EVENT_RECORDER_OPENED = 1;
+
+    // CarActivityService.
+    /** arg0: task id, arg1: display id, arg2: {@link #FLAG_VISIBLE}. */
+    public static final int EVENT_TASK_APPEARED = 10;
+    /** Like {@link #EVENT_TASK_APPEARED}. */
+    public static final int EVENT_TASK_INFO_CHANGED = 11;
+    /** Like {@link #EVENT_TASK_APPEARED}. */
+    public static final int EVENT_TASK_VANISHED = 12;
+    /** arg0: number of tasks, arg1: generation. */
+    public static final int EVENT_TASK_SNAPSHOT_REPLACED = 13;
+    /** arg0: number of lost batches, arg1: received sequence number. */
+    public static final int EVENT_TASK_EVENTS_GAP = 14;
+    /** arg0: calling pid. */
+    public static final int EVENT_MONITOR_REGISTERED = 15;
+    /** arg0: 1 if it was the current monitor. */
+    public static final int EVENT_MONITOR_REMOVED = 16;
+
+    // CarSystemUIProxyImpl.
+    /** arg0: calling pid, arg1: number of task views. */
+    public static final int EVENT_HOST_TASK_VIEW_CREATED = 20;
+    /** arg0: number of task views. */
+    public static final int EVENT_HOST_TASK_VIEW_RELEASED = 21;
+    /**
+     * arg0: operation type, arg1: one of the {@code DECISION_*} constants, arg2: calling pid.
+     */
+    public static final int EVENT_HOST_OPERATION = 22;
+    /** arg0: 1 if connected, 0 if disconnected. */
+    public static final int EVENT_HOST_CONNECTION_CHANGED = 23;
+
+    /** The operation is merged into the coalesced transaction. */
+    public static final int DECISION_COALESCED = 1;
+    /** The operation is applied on its own, after the pending transaction. */
+    public static final int DECISION_DIRECT = 2;
+    /** The operation targets a released task view and is dropped. */
+    public static final int DECISION_SKIPPED = 3;
+
+    public static final int FLAG_VISIBLE = 1;
+
+    private final Object mLock = new Object();
+    // null until the file is mapped, see openAsync().
+    @Nullable
+    private volatile File mFile;
+    // null if the file isn't mapped yet, couldn't be mapped or the recorder is closed, it then
+    // does nothing.
+    @Nullable
+    private volatile MappedByteBuffer mBuffer;
+    @GuardedBy("mLock")
+    private boolean mClosed;
+    private final int mCapacity;
+    private final AtomicLong mNextSeq = new AtomicLong(1);
+
+    private FlightRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mCapacity = capacity;
+    }
+
+    /**
+     * Maps the ring file, creating it if needed. The returned recorder does nothing if the file
+     * can't be mapped.
+     */
+    @NonNull
+    public static FlightRecorder open(@NonNull File file, int capacity) {
+        FlightRecorder recorder = new FlightRecorder(capacity);
+        recorder.map(file);
+        return recorder;
+    }
+
+    /**
+     * Like {@link #open(File, int)}, but resolves and maps the ring file on {@code executor}, so
+     * that the caller doesn't wait for the file I/O. The records made until then are dropped.
+     */
+    @NonNull
+    public static FlightRecorder openAsync(@NonNull Supplier<File> file, int capacity,
+                                           @NonNull Executor executor) {
+        FlightRecorder recorder = new FlightRecorder(capacity);
+        executor.execute(() -> recorder.map(file.get()));
+        return recorder;
+    }
+
+    private void map(File file) {
+        long size = HEADER_SIZE + (long) RECORD_SIZE * mCapacity;
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != size) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            // The mapping stays valid once the channel is closed.
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to map " + file + ", not recording", e);
+            mFile = file;
+            return;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        long nextSeq = 1;
+        if (buffer.getInt(HEADER_MAGIC) == MAGIC && buffer.getInt(HEADER_VERSION) == VERSION
+                && buffer.getInt(HEADER_RECORD_SIZE) == RECORD_SIZE
+                && buffer.getInt(HEADER_CAPACITY) == mCapacity) {
+            nextSeq = Math.max(1, buffer.getLong(HEADER_NEXT_SEQ));
+            // The hint of the header may be behind when the records were written in parallel.
+            for (int i = HEADER_SIZE; i < size; i += RECORD_SIZE) {
+                nextSeq = Math.max(nextSeq, buffer.getLong(i + RECORD_SEQ) + 1);
+            }
+        } else {
+            buffer.putInt(HEADER_VERSION, VERSION);
+            buffer.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+            buffer.putInt(HEADER_CAPACITY, mCapacity);
+            buffer.putLong(HEADER_NEXT_SEQ, nextSeq);
+            for (int i = HEADER_SIZE; i < size; i += RECORD_SIZE) {
+                buffer.putLong(i + RECORD_SEQ, 0);
+            }
+            // Written last, the header is only valid once complete.
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+        }
+        synchronized (mLock) {
+            mFile = file;
+            if (mClosed) {
+                return;
+            }
+            mNextSeq.set(nextSeq);
+            // Published last, the records start once the buffer is set.
+            mBuffer = buffer;
+        }
+        long now = System.currentTimeMillis();
+        record(EVENT_RECORDER_OPENED, Process.myPid(), (int) (now >>> 32), (int) now);
+    }
+
+    /** Appends a record, overwriting the oldest one once the ring is full. */
+    public void record(int event, int arg0, int arg1, int arg2) {
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer == null) {
+            return;
+        }
+        long time = SystemClock.elapsedRealtimeNanos();
+        long seq = mNextSeq.getAndIncrement();
+        int offset = HEADER_SIZE + (int) ((seq - 1) % mCapacity) * RECORD_SIZE;
+        // The absolute accessors don't touch the position of the buffer, so the slots are
+        // written in parallel. Invalidates the slot first, a crash in between leaves no torn
+        // record.
+        buffer.putLong(offset + RECORD_SEQ, 0);
+        buffer.putLong(offset + RECORD_TIME, time);
+        buffer.putInt(offset + RECORD_EVENT, event);
+        buffer.putInt(offset + RECORD_ARG0, arg0);
+        buffer.putInt(offset + RECORD_ARG1, arg1);
+        buffer.putInt(offset + RECORD_ARG2, arg2);
+        buffer.putLong(offset + RECORD_SEQ, seq);
+        buffer.putLong(HEADER_NEXT_SEQ, seq + 1);
+    }
+
+    /**
+     * Stops recording and drops the mapping of the file, which is unmapped once collected, as
+     * Java has no explicit unmapping. The records written so far stay in the file.
+     */
+    public void close() {
+        MappedByteBuffer buffer;
+        synchronized (mLock) {
+            mClosed = true;
+            buffer = mBuffer;
+            mBuffer = null;
+        }
+        if (buffer != null) {
+            // A record running in parallel may still complete after, the mapping stays valid.
+            buffer.force();
+        }
+    }
+
+    /** Returns the ring file, {@code null} until it is resolved, see {@link #openAsync}. */
+    @Nullable
+    public File getFile() {
+        return mFile;
+    }
+
+    public void dump(@NonNull PrintWriter pw, @NonNull String prefix) {
+        pw.println(prefix + TAG + ":");
+        if (mBuffer == null) {
+            pw.println(prefix + "  disabled, file=" + mFile);
+            return;
+        }
+        pw.println(prefix + "  file=" + mFile);
+        pw.println(prefix + "  capacity=" + mCapacity);
+        pw.println(prefix + "  recorded=" + (mNextSeq.get() - 1));
+    }
+}
@@ -2,6 +2,9 @@ package com.android.wm.shell.ext.utils;
 
 import android.view.SurfaceControl;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 public class SurfaceControlHelper {
     private static final String TAG = SurfaceControlHelper.class.getSimpleName();
     private SurfaceControlHelper() {
@@ -12,6 +15,23 @@ public class SurfaceControlHelper {
      * See {@link SurfaceControl (SurfaceControl)}}.
      */
     public static SurfaceControl copy(SurfaceControl source) {
-        return new SurfaceControl(source, SurfaceControlHelper.class.getSimpleName());
+        return copy(source, /* owner= */ null);
+    }
+
+    /**
+     * Like {@link #copy(SurfaceControl)}, {@code owner} is the one responsible for releasing the
+     * copy through {@link #release(SurfaceControl)}, see {@link SurfaceControlTracker}.
+     */
+    public static SurfaceControl copy(@NonNull SurfaceControl source, @Nullable String owner) {
+        SurfaceControl copy = new SurfaceControl(source,
+                owner != null ? owner : SurfaceControlHelper.class.getSimpleName());
+        SurfaceControlTracker.onCopied(copy, owner);
+        return copy;
+    }
+
+    /** See {@link SurfaceControl#release()}, also records the release of a tracked copy. */
+    public static void release(@NonNull SurfaceControl surfaceControl) {
+        SurfaceControlTracker.onReleased(surfaceControl);
+        surfaceControl.release();
     }
 }
@@ -0,0 +1,163 @@
+package com.android.wm.shell.ext.utils;
+
+import android.util.ArrayMap;
+import android.util.Log;
+import android.view.SurfaceControl;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.lang.ref.Cleaner;
+import java.util.WeakHashMap;
+
+/**
+ * Tracks the {@link SurfaceControl} copies made through {@link SurfaceControlHelper#copy}, to
+ * find the ones which are garbage collected without being released through
+ * {@link SurfaceControlHelper#release}. Such a copy keeps its native SurfaceFlinger handle until
+ * its finalizer runs.
+ *
+ * <p>Each copy is recorded with its origin site, the first caller outside of the helpers, and its
+ * owner. A leaked copy is logged when it is garbage collected, and the live counts per site are
+ * reported by {@link #dump(PrintWriter, String)}.
+ *
+ * <p>Capturing the origin site walks the stack, so the tracking is only enabled when the tag is
+ * loggable at the debug level: {@code adb shell setprop log.tag.SurfaceControlTracker DEBUG}.
+ */
+public final class SurfaceControlTracker {
+    private static final String TAG = SurfaceControlTracker.class.getSimpleName();
+    private static final boolean ENABLED = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final Object sLock = new Object();
+    @GuardedBy("sLock")
+    private static Cleaner sCleaner;
+    // Weak keys, so that the copies can still be collected.
+    @GuardedBy("sLock")
+    private static final WeakHashMap<SurfaceControl, Copy> sCopies = new WeakHashMap<>();
+    @GuardedBy("sLock")
+    private static final ArrayMap<String, Site> sSites = new ArrayMap<>();
+
+    private SurfaceControlTracker() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Returns whether the copies are tracked. */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /** Records a new copy, which should then be released through {@link #onReleased}. */
+    static void onCopied(@NonNull SurfaceControl copy, @Nullable String owner) {
+        if (!ENABLED) {
+            return;
+        }
+        String siteName = getOriginSite();
+        synchronized (sLock) {
+            Site site = sSites.get(siteName);
+            if (site == null) {
+                site = new Site();
+                sSites.put(siteName, site);
+            }
+            site.mCopied++;
+            site.mLive++;
+            Copy state = new Copy(siteName, owner, site);
+            sCopies.put(copy, state);
+            if (sCleaner == null) {
+                sCleaner = Cleaner.create();
+            }
+            // The state must not reference the copy, otherwise it is never collected.
+            sCleaner.register(copy, state);
+        }
+    }
+
+    /** Records that the copy has been released, does nothing for the untracked ones. */
+    static void onReleased(@NonNull SurfaceControl surfaceControl) {
+        if (!ENABLED) {
+            return;
+        }
+        synchronized (sLock) {
+            Copy state = sCopies.remove(surfaceControl);
+            if (state != null && !state.mReleased) {
+                state.mReleased = true;
+                state.mSite.mLive--;
+                state.mSite.mReleased++;
+            }
+        }
+    }
+
+    /** Dumps the counts of the copies per origin site. */
+    public static void dump(@NonNull PrintWriter pw, @NonNull String prefix) {
+        pw.println(prefix + TAG + ":");
+        if (!ENABLED) {
+            pw.println(prefix + "  disabled");
+            return;
+        }
+        synchronized (sLock) {
+            int live = 0;
+            for (int i = 0; i < sSites.size(); i++) {
+                live += sSites.valueAt(i).mLive;
+            }
+            pw.println(prefix + "  live=" + live);
+            for (int i = 0; i < sSites.size(); i++) {
+                pw.println(prefix + "  " + sSites.keyAt(i) + ": " + sSites.valueAt(i));
+            }
+        }
+    }
+
+    private static String getOriginSite() {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (!className.equals(SurfaceControlTracker.class.getName())
+                    && !className.equals(SurfaceControlHelper.class.getName())) {
+                return className.substring(className.lastIndexOf('.') + 1) + "."
+                        + element.getMethodName() + ":" + element.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    private static final class Site {
+        int mCopied;
+        int mLive;
+        int mReleased;
+        int mLeaked;
+
+        @Override
+        public String toString() {
+            return "live=" + mLive + ", copied=" + mCopied + ", released=" + mReleased
+                    + ", leaked=" + mLeaked;
+        }
+    }
+
+    /** The state of a copy, run by the cleaner once the copy is unreachable. */
+    private static final class Copy implements Runnable {
+        final String mSiteName;
+        @Nullable
+        final String mOwner;
+        final Site mSite;
+        @GuardedBy("sLock")
+        boolean mReleased;
+
+        Copy(String siteName, @Nullable String owner, Site site) {
+            mSiteName = siteName;
+            mOwner = owner;
+            mSite = site;
+        }
+
+        @Override
+        public void run() {
+            synchronized (sLock) {
+                if (mReleased) {
+                    return;
+                }
+                mReleased = true;
+                mSite.mLive--;
+                mSite.mLeaked++;
+            }
+            Log.w(TAG, "SurfaceControl copy garbage collected without being released, site="
+                    + mSiteName + ", owner=" + mOwner);
+        }
+    }
+}
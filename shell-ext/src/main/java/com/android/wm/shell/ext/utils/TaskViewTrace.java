@@ -0,0 +1,132 @@
+package com.android.wm.shell.ext.utils;
+
+import android.os.Bundle;
+import android.os.Process;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Traces a task view launch across the processes, from the {@code startActivity} of the task
+ * view in the client, through the host in the SystemUI, to the task appearing in the task view.
+ *
+ * <p>A launch is identified by a flow id, which is unique across the processes. The client
+ * carries it to the host in the options of {@code ICarTaskViewHost.startActivity}, and each
+ * process traces the launch as an async section named {@code TaskViewLaunch#<flow id>}, so that
+ * the sections of one launch can be joined by name in Perfetto. The stages of the launch are
+ * traced as sections named {@code <stage> TaskViewLaunch#<flow id>} in between, and the arrival
+ * of the task as {@code TaskViewLaunch task=<task id>}, also traced by the car service when the
+ * task is reported to it.
+ *
+ * <p>Nothing is traced, and no flow id is allocated, unless tracing is enabled.
+ */
+public final class TaskViewTrace {
+    /** The flow id of a launch which isn't traced. */
+    public static final long NO_FLOW = 0;
+
+    // The flow id in the options of ICarTaskViewHost.startActivity, removed by the host.
+    private static final String EXTRA_FLOW_ID = "com.android.wm.shell.ext.TASK_VIEW_FLOW_ID";
+    private static final String LAUNCH_SECTION = "TaskViewLaunch";
+
+    private static final AtomicInteger sNextFlow = new AtomicInteger();
+
+    private TaskViewTrace() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Begins the trace of a launch in this process, returns its new flow id, or {@link #NO_FLOW}
+     * if tracing is disabled.
+     */
+    public static long beginLaunch() {
+        if (!Trace.isEnabled()) {
+            return NO_FLOW;
+        }
+        // The pid makes the flow ids of the different clients unique.
+        long flowId = ((long) Process.myPid() << 32) | (sNextFlow.incrementAndGet() & 0xffffffffL);
+        Trace.beginAsyncSection(getLaunchName(flowId), getCookie(flowId));
+        return flowId;
+    }
+
+    /**
+     * Continues the trace of a launch which began in another process, does nothing for
+     * {@link #NO_FLOW} or if tracing is disabled in this process.
+     */
+    public static long continueLaunch(long flowId) {
+        if (flowId == NO_FLOW || !Trace.isEnabled()) {
+            return NO_FLOW;
+        }
+        Trace.beginAsyncSection(getLaunchName(flowId), getCookie(flowId));
+        return flowId;
+    }
+
+    /** Ends the trace of a launch in this process, does nothing for {@link #NO_FLOW}. */
+    public static void endLaunch(long flowId) {
+        if (flowId == NO_FLOW) {
+            return;
+        }
+        Trace.endAsyncSection(getLaunchName(flowId), getCookie(flowId));
+    }
+
+    /**
+     * Begins a stage of a launch on the calling thread, which must be ended by
+     * {@link #endStage(long)}. Does nothing for {@link #NO_FLOW}.
+     */
+    public static void beginStage(@NonNull String stage, long flowId) {
+        if (flowId == NO_FLOW) {
+            return;
+        }
+        Trace.beginSection(stage + " " + getLaunchName(flowId));
+    }
+
+    /** Ends the stage begun by {@link #beginStage(String, long)}. */
+    public static void endStage(long flowId) {
+        if (flowId == NO_FLOW) {
+            return;
+        }
+        Trace.endSection();
+    }
+
+    /**
+     * Traces the arrival of a task, which connects the launch to the processes which only know
+     * the task id.
+     */
+    public static void traceTaskAppeared(int taskId) {
+        if (!Trace.isEnabled()) {
+            return;
+        }
+        Trace.beginSection(LAUNCH_SECTION + " task=" + taskId);
+        Trace.endSection();
+    }
+
+    /** Adds the flow id to the options of {@code ICarTaskViewHost.startActivity}. */
+    public static void putFlowId(@NonNull Bundle options, long flowId) {
+        if (flowId != NO_FLOW) {
+            options.putLong(EXTRA_FLOW_ID, flowId);
+        }
+    }
+
+    /**
+     * Removes the flow id from the options of {@code ICarTaskViewHost.startActivity}, so that it
+     * isn't passed on to the activity, returns {@link #NO_FLOW} if there is none.
+     */
+    public static long takeFlowId(@Nullable Bundle options) {
+        if (options == null || !options.containsKey(EXTRA_FLOW_ID)) {
+            return NO_FLOW;
+        }
+        long flowId = options.getLong(EXTRA_FLOW_ID, NO_FLOW);
+        options.remove(EXTRA_FLOW_ID);
+        return flowId;
+    }
+
+    private static String getLaunchName(long flowId) {
+        return LAUNCH_SECTION + "#" + Long.toHexString(flowId);
+    }
+
+    private static int getCookie(long flowId) {
+        return (int) (flowId ^ (flowId >>> 32));
+    }
+}
@@ -0,0 +1,84 @@
+package com.android.wm.shell.ext;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The calls received by a recording fake of a binder interface, with the size of their parcels.
+ * The fakes are handed out as proxies, so every call is parceled as it is across processes.
+ */
+public final class BinderCallLog {
+    private static final String TRANSACTION_PREFIX = "TRANSACTION_";
+
+    // The method names of the interface, by transaction code.
+    private final SparseArray<String> mMethods = new SparseArray<>();
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final ArrayList<String> mCalls = new ArrayList<>();
+    @GuardedBy("mLock")
+    private int mDataSize;
+
+    /** @param stubClass the generated {@code Stub} of the interface, for the method names. */
+    public BinderCallLog(Class<? extends Binder> stubClass) {
+        for (Field field : stubClass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == int.class
+                    && field.getName().startsWith(TRANSACTION_PREFIX)) {
+                field.setAccessible(true);
+                try {
+                    mMethods.put(field.getInt(null),
+                            field.getName().substring(TRANSACTION_PREFIX.length()));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    /** Records a call, to be called by the fakes before they unparcel it. */
+    void onTransact(int code, Parcel data) {
+        if (code < IBinder.FIRST_CALL_TRANSACTION || code > IBinder.LAST_CALL_TRANSACTION) {
+            return;
+        }
+        synchronized (mLock) {
+            mCalls.add(mMethods.get(code, Integer.toString(code)));
+            mDataSize += data.dataSize();
+        }
+    }
+
+    /** Returns the methods called since the last {@link #clear()}, in order. */
+    public List<String> getCalls() {
+        synchronized (mLock) {
+            return new ArrayList<>(mCalls);
+        }
+    }
+
+    /** Returns the total size of the parcels received since the last {@link #clear()}. */
+    public int getDataSize() {
+        synchronized (mLock) {
+            return mDataSize;
+        }
+    }
+
+    public void clear() {
+        synchronized (mLock) {
+            mCalls.clear();
+            mDataSize = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return mCalls + " " + mDataSize + " bytes";
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.android.wm.shell.ext;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CarActivityManagerTest {
+    @Test
+    public void splitInChunks_noItems_returnsOneEmptyChunk() {
+        List<List<Integer>> chunks = CarActivityManager.splitInChunks(List.of());
+
+        assertEquals(List.of(List.of()), chunks);
+    }
+
+    @Test
+    public void splitInChunks_fewItems_returnsOneChunk() {
+        List<Integer> items = range(CarActivityManager.MAX_CHUNK_SIZE);
+
+        assertEquals(List.of(items), CarActivityManager.splitInChunks(items));
+    }
+
+    @Test
+    public void splitInChunks_manyItems_keepsTheOrderAndCapsTheChunks() {
+        int size = CarActivityManager.MAX_CHUNK_SIZE;
+        List<Integer> items = range(2 * size + 1);
+
+        List<List<Integer>> chunks = CarActivityManager.splitInChunks(items);
+
+        assertEquals(3, chunks.size());
+        assertEquals(items.subList(0, size), chunks.get(0));
+        assertEquals(items.subList(size, 2 * size), chunks.get(1));
+        assertEquals(List.of(2 * size), chunks.get(2));
+    }
+
+    private static List<Integer> range(int size) {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,216 @@
+package com.android.wm.shell.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.shadows.ShadowLooper.shadowMainLooper;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.RemoteException;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the binder calls, and the size of their parcels, that the flows of the task view
+ * clients make on the SystemUI, on the hosts of the task views and on the car service.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CarTaskViewBinderBudgetTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2240;
+    // Where TaskOverlayManager moves the hidden overlay.
+    private static final int HIDDEN_X = -1080;
+
+    // The parcel sizes of the calls, with some headroom over the Robolectric ones for the native
+    // parcels. The interface token is most of them.
+    private static final int MAX_CREATE_BYTES = 160;
+    private static final int MAX_SET_WINDOW_BOUNDS_BYTES = 160;
+    private static final int MAX_SET_TASK_INFO_FILTER_BYTES = 128;
+    private static final int MAX_RELEASE_BYTES = 128;
+    private static final int MAX_REMOVE_CALLBACK_BYTES = 160;
+
+    private final FakeCarActivityService mService = new FakeCarActivityService();
+    private final FakeCarSystemUIProxy mSystemUI = new FakeCarSystemUIProxy();
+    private final CarTaskViewControllerHostLifecycle mLifecycle =
+            new CarTaskViewControllerHostLifecycle();
+    private final List<ControlledRemoteCarTaskView> mTaskViews = new ArrayList<>();
+    private FrameLayout mContainer;
+    private CarTaskViewController mController;
+
+    @Before
+    public void setUp() throws RemoteException {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        mContainer = new FrameLayout(activity);
+        activity.setContentView(mContainer);
+
+        CarTaskViewControllerSupervisor supervisor =
+                new CarTaskViewControllerSupervisor(mService.asProxy(), Runnable::run);
+        supervisor.createCarTaskViewController(activity, mLifecycle, Runnable::run,
+                new CarTaskViewControllerCallback() {
+                    @Override
+                    public void onConnected(@NonNull CarTaskViewController controller) {
+                        mController = controller;
+                    }
+
+                    @Override
+                    public void onDisconnected(@NonNull CarTaskViewController controller) {
+                        mController = null;
+                    }
+                });
+        mService.connectSystemUI(mSystemUI.asProxy());
+        assertNotNull(mController);
+        mService.mLog.clear();
+    }
+
+    @Test
+    public void createMakesASingleCallToTheSystemUI() {
+        createTaskView();
+
+        assertBudget(mSystemUI.mLog, List.of("createControlledCarTaskView"), MAX_CREATE_BYTES);
+        assertBudget(mSystemUI.mHosts.get(0).mLog, List.of(), 0);
+        assertBudget(mService.mLog, List.of(), 0);
+    }
+
+    @Test
+    public void taskInfoFilterIsASingleCallToTheHost() {
+        ControlledRemoteCarTaskView taskView = createTaskView();
+
+        taskView.setTaskInfoFilter(TaskInfoFilter.FIELDS_ALL);
+
+        assertBudget(mSystemUI.mHosts.get(0).mLog, List.of("setTaskInfoFilter"),
+                MAX_SET_TASK_INFO_FILTER_BYTES);
+    }
+
+    @Test
+    public void openOverlaySendsTheBoundsOnce() {
+        ControlledRemoteCarTaskView taskView = createTaskViewInOverlay();
+        hideOverlay(taskView);
+        clearLogs();
+
+        openOverlay(taskView);
+
+        assertBudget(mSystemUI.mHosts.get(0).mLog, List.of("setWindowBounds"),
+                MAX_SET_WINDOW_BOUNDS_BYTES);
+        assertBudget(mSystemUI.mLog, List.of(), 0);
+    }
+
+    @Test
+    public void hideOverlaySendsTheBoundsOnce() {
+        ControlledRemoteCarTaskView taskView = createTaskViewInOverlay();
+        openOverlay(taskView);
+        clearLogs();
+
+        hideOverlay(taskView);
+
+        assertBudget(mSystemUI.mHosts.get(0).mLog, List.of("setWindowBounds"),
+                MAX_SET_WINDOW_BOUNDS_BYTES);
+        assertBudget(mSystemUI.mLog, List.of(), 0);
+    }
+
+    @Test
+    public void systemUIReconnectOnlyCreatesTheTaskViewsAgain() throws RemoteException {
+        createTaskView();
+        clearLogs();
+
+        mSystemUI.kill();
+        assertNull(mController);
+        FakeCarSystemUIProxy systemUI = new FakeCarSystemUIProxy();
+        mService.connectSystemUI(systemUI.asProxy());
+
+        // The task views are released, these calls fail on a device as the SystemUI is dead.
+        assertBudget(mSystemUI.mHosts.get(0).mLog, List.of("release"), MAX_RELEASE_BYTES);
+        assertBudget(mSystemUI.mLog, List.of(), 0);
+        assertBudget(systemUI.mLog, List.of(), 0);
+        assertBudget(mService.mLog, List.of(), 0);
+
+        // Up to the client, e.g. TaskViewControllerImpl creates its task view again.
+        createTaskView();
+        assertBudget(systemUI.mLog, List.of("createControlledCarTaskView"), MAX_CREATE_BYTES);
+    }
+
+    @Test
+    public void releaseMakesASingleCallPerTaskView() {
+        createTaskView();
+        createTaskView();
+        clearLogs();
+
+        mLifecycle.hostDestroyed();
+
+        for (FakeCarTaskViewHost host : mSystemUI.mHosts) {
+            assertBudget(host.mLog, List.of("release"), MAX_RELEASE_BYTES);
+        }
+        assertBudget(mSystemUI.mLog, List.of(), 0);
+        // The SystemUI callback isn't needed anymore once the last host is destroyed.
+        assertBudget(mService.mLog, List.of("removeCarSystemUIProxyCallback"),
+                MAX_REMOVE_CALLBACK_BYTES);
+    }
+
+    private ControlledRemoteCarTaskView createTaskView() {
+        int index = mTaskViews.size();
+        mController.createControlledRemoteCarTaskView(
+                new ControlledRemoteCarTaskViewConfig.Builder()
+                        .setActivityIntent(new Intent())
+                        .build(),
+                Runnable::run,
+                new ControlledRemoteCarTaskViewCallback() {
+                    @Override
+                    public void onTaskViewCreated(@NonNull ControlledRemoteCarTaskView taskView) {
+                        mTaskViews.add(taskView);
+                    }
+                });
+        return mTaskViews.get(index);
+    }
+
+    private ControlledRemoteCarTaskView createTaskViewInOverlay() {
+        ControlledRemoteCarTaskView taskView = createTaskView();
+        mContainer.addView(taskView, new FrameLayout.LayoutParams(WIDTH, HEIGHT));
+        shadowMainLooper().idle();
+        return taskView;
+    }
+
+    /**
+     * Does what {@code TaskOverlayManager#openOverlay} does to the task view through
+     * {@code TaskViewControllerImpl}, with the overlay window moved by translating its content.
+     */
+    private void openOverlay(ControlledRemoteCarTaskView taskView) {
+        taskView.setSurfaceCreatedDeferred(false);
+        mContainer.setTranslationX(0);
+        shadowMainLooper().idle();
+        taskView.updateWindowBounds();
+        shadowMainLooper().idle();
+    }
+
+    /** Does what {@code TaskOverlayManager#hideOverlay} does, see {@link #openOverlay}. */
+    private void hideOverlay(ControlledRemoteCarTaskView taskView) {
+        mContainer.setTranslationX(HIDDEN_X);
+        shadowMainLooper().idle();
+        taskView.updateWindowBounds();
+        taskView.setSurfaceCreatedDeferred(true);
+        shadowMainLooper().idle();
+    }
+
+    private void clearLogs() {
+        mService.mLog.clear();
+        mSystemUI.mLog.clear();
+        for (FakeCarTaskViewHost host : mSystemUI.mHosts) {
+            host.mLog.clear();
+        }
+    }
+
+    private static void assertBudget(BinderCallLog log, List<String> calls, int maxBytes) {
+        assertEquals(calls, log.getCalls());
+        assertTrue(log + " is over " + maxBytes + " bytes", log.getDataSize() <= maxBytes);
+    }
+}
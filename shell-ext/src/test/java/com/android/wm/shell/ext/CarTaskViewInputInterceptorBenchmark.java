@@ -0,0 +1,79 @@
+package com.android.wm.shell.ext;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.view.MotionEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hit-testing of a touch down against the task views, see
+ * {@link CarTaskViewInputInterceptor#findGestureTarget}. Each task view is larger than the
+ * previous one, only the last one contains the hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CarTaskViewInputInterceptorBenchmark {
+    private static final int SIZE_STEP = 10;
+
+    @Param({"1", "4", "16"})
+    public int taskViews;
+
+    private final List<RemoteCarTaskView> mTaskViews = new ArrayList<>();
+    private MotionEvent mHit;
+    private MotionEvent mMiss;
+
+    @Setup
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        ControlledRemoteCarTaskViewConfig config = new ControlledRemoteCarTaskViewConfig.Builder()
+                .setActivityIntent(new Intent())
+                .setShouldCaptureGestures(true)
+                .build();
+        for (int i = 0; i < taskViews; i++) {
+            RemoteCarTaskView taskView = new ControlledRemoteCarTaskView(context, config,
+                    Runnable::run, new ControlledRemoteCarTaskViewCallback() {},
+                    /* carTaskViewController= */ null, context.getSystemService(UserManager.class));
+            int size = (i + 1) * SIZE_STEP;
+            taskView.layout(0, 0, size, size);
+            mTaskViews.add(taskView);
+        }
+        int hit = taskViews * SIZE_STEP - 1;
+        long now = SystemClock.uptimeMillis();
+        mHit = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, hit, hit, /* metaState= */ 0);
+        mMiss = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, hit + 1, hit + 1,
+                /* metaState= */ 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mHit.recycle();
+        mMiss.recycle();
+    }
+
+    @Benchmark
+    public RemoteCarTaskView hit() {
+        return CarTaskViewInputInterceptor.findGestureTarget(mTaskViews, mHit);
+    }
+
+    @Benchmark
+    public RemoteCarTaskView miss() {
+        return CarTaskViewInputInterceptor.findGestureTarget(mTaskViews, mMiss);
+    }
+}
@@ -0,0 +1,143 @@
+package com.android.wm.shell.ext;
+
+import android.app.ActivityManager;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.view.SurfaceControl;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ICarActivityService} which records the calls it receives. Keeps the registered
+ * SystemUI and its callbacks, so that the tests can connect the clients to a SystemUI.
+ */
+public final class FakeCarActivityService extends ICarActivityService.Stub {
+    public final BinderCallLog mLog = new BinderCallLog(ICarActivityService.Stub.class);
+    private final List<ICarSystemUIProxyCallback> mSystemUIProxyCallbacks = new ArrayList<>();
+    @Nullable
+    private IBinder mTaskMonitorToken;
+    @Nullable
+    private ICarSystemUIProxy mCarSystemUIProxy;
+
+    /** Returns a proxy to this service, which parcels the calls. */
+    public ICarActivityService asProxy() {
+        return ICarActivityService.Stub.asInterface(this);
+    }
+
+    /** Returns the SystemUI registered through {@link #registerCarSystemUIProxy}. */
+    @Nullable
+    public ICarSystemUIProxy getCarSystemUIProxy() {
+        return mCarSystemUIProxy;
+    }
+
+    /** Notifies the registered callbacks that {@code carSystemUIProxy} is connected. */
+    public void connectSystemUI(ICarSystemUIProxy carSystemUIProxy) throws RemoteException {
+        mCarSystemUIProxy = carSystemUIProxy;
+        for (ICarSystemUIProxyCallback callback : new ArrayList<>(mSystemUIProxyCallbacks)) {
+            callback.onConnected(carSystemUIProxy);
+        }
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        return null;
+    }
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        mLog.onTransact(code, data);
+        return super.onTransact(code, data, reply, flags);
+    }
+
+    @Override
+    public void registerTaskMonitor(IBinder token) {
+        mTaskMonitorToken = token;
+    }
+
+    @Override
+    public void onTaskAppeared(IBinder token, ActivityManager.RunningTaskInfo taskInfo,
+                               SurfaceControl leash) {
+    }
+
+    @Override
+    public void onTaskVanished(IBinder token, ActivityManager.RunningTaskInfo taskInfo) {
+    }
+
+    @Override
+    public void onTaskInfoChanged(IBinder token, ActivityManager.RunningTaskInfo taskInfo) {
+    }
+
+    @Override
+    public void onTaskEvents(IBinder token, List<CarTaskEvent> events, long seq) {
+    }
+
+    @Override
+    public void replaceTaskSnapshot(IBinder token, List<ActivityManager.RunningTaskInfo> tasks,
+                                    int generation, int chunkIndex, int chunkCount) {
+    }
+
+    @Override
+    public void unregisterTaskMonitor(IBinder token) {
+        if (token == mTaskMonitorToken) {
+            mTaskMonitorToken = null;
+        }
+    }
+
+    @Override
+    public List<ActivityManager.RunningTaskInfo> getVisibleTasks(int displayId) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public ActivityManager.RunningTaskInfo getTopTask(int displayId) {
+        return null;
+    }
+
+    @Override
+    public CarTaskProjectionPage getVisibleTaskProjections(int displayId, int offset,
+                                                          int limit) {
+        return null;
+    }
+
+    @Override
+    public ParcelFileDescriptor getVisibleTaskProjectionsBulk(int displayId) {
+        return null;
+    }
+
+    @Override
+    public void registerTaskStackListener(ICarTaskStackListener listener,
+                                          TaskStackFilter filter) {
+    }
+
+    @Override
+    public void unregisterTaskStackListener(ICarTaskStackListener listener) {
+    }
+
+    @Override
+    public void registerCarSystemUIProxy(ICarSystemUIProxy carSystemUIProxy) {
+        mCarSystemUIProxy = carSystemUIProxy;
+    }
+
+    @Override
+    public void addCarSystemUIProxyCallback(ICarSystemUIProxyCallback callback) {
+        mSystemUIProxyCallbacks.add(callback);
+    }
+
+    @Override
+    public void removeCarSystemUIProxyCallback(ICarSystemUIProxyCallback callback) {
+        // Another proxy to the same callback, compared by binder.
+        mSystemUIProxyCallbacks.removeIf(c -> c.asBinder() == callback.asBinder());
+    }
+
+    @Override
+    public boolean isCarSystemUIProxyRegistered() {
+        return mCarSystemUIProxy != null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.android.wm.shell.ext;
+
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ICarSystemUIProxy} which records the calls it receives and creates a
+ * {@link FakeCarTaskViewHost} per task view. Can be killed to disconnect its clients.
+ */
+public final class FakeCarSystemUIProxy extends ICarSystemUIProxy.Stub {
+    public final BinderCallLog mLog = new BinderCallLog(ICarSystemUIProxy.Stub.class);
+    public final List<FakeCarTaskViewHost> mHosts = new ArrayList<>();
+    private final List<DeathRecipient> mDeathRecipients = new ArrayList<>();
+
+    /** Returns a proxy to this SystemUI, which parcels the calls. */
+    public ICarSystemUIProxy asProxy() {
+        return ICarSystemUIProxy.Stub.asInterface(this);
+    }
+
+    /** Notifies the death of this SystemUI to the linked recipients. */
+    public void kill() {
+        for (DeathRecipient recipient : new ArrayList<>(mDeathRecipients)) {
+            recipient.binderDied();
+        }
+        mDeathRecipients.clear();
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        return null;
+    }
+
+    @Override
+    public void linkToDeath(DeathRecipient recipient, int flags) {
+        mDeathRecipients.add(recipient);
+    }
+
+    @Override
+    public boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+        return mDeathRecipients.remove(recipient);
+    }
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        mLog.onTransact(code, data);
+        return super.onTransact(code, data, reply, flags);
+    }
+
+    @Override
+    public ICarTaskViewHost createControlledCarTaskView(ICarTaskViewClient client) {
+        return createCarTaskView(client);
+    }
+
+    @Override
+    public ICarTaskViewHost createCarTaskView(ICarTaskViewClient client) {
+        FakeCarTaskViewHost host = new FakeCarTaskViewHost(client);
+        mHosts.add(host);
+        return host;
+    }
+
+    @Override
+    public void applyTaskViewOperations(List<CarTaskViewOperation> operations) {
+    }
+}
@@ -0,0 +1,57 @@
+package com.android.wm.shell.ext;
+
+import android.app.ActivityManager;
+import android.graphics.Rect;
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.view.SurfaceControl;
+
+import java.util.List;
+
+/** A {@link ICarTaskViewClient} which only records the calls it receives. */
+public final class FakeCarTaskViewClient extends ICarTaskViewClient.Stub {
+    public final BinderCallLog mLog = new BinderCallLog(ICarTaskViewClient.Stub.class);
+
+    /** Returns a proxy to this client, which parcels the calls. */
+    public ICarTaskViewClient asProxy() {
+        return ICarTaskViewClient.Stub.asInterface(this);
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        return null;
+    }
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        mLog.onTransact(code, data);
+        return super.onTransact(code, data, reply, flags);
+    }
+
+    @Override
+    public Rect getCurrentBoundsOnScreen() {
+        return new Rect();
+    }
+
+    @Override
+    public void setResizeBackgroundColor(SurfaceControl.Transaction transaction, int color) {
+    }
+
+    @Override
+    public void onTaskAppeared(ActivityManager.RunningTaskInfo taskInfo, SurfaceControl leash) {
+    }
+
+    @Override
+    public void onTaskVanished(ActivityManager.RunningTaskInfo taskInfo) {
+    }
+
+    @Override
+    public void onTaskInfoChanged(ActivityManager.RunningTaskInfo taskInfo) {
+    }
+
+    @Override
+    public void onTaskEvents(List<CarTaskEvent> events, long seq) {
+    }
+}
@@ -0,0 +1,88 @@
+package com.android.wm.shell.ext;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.view.SurfaceControl;
+
+/** A {@link ICarTaskViewHost} which only records the calls it receives. */
+public final class FakeCarTaskViewHost extends ICarTaskViewHost.Stub {
+    public final BinderCallLog mLog = new BinderCallLog(ICarTaskViewHost.Stub.class);
+    // The client the host was created for.
+    public final ICarTaskViewClient mClient;
+
+    public FakeCarTaskViewHost(ICarTaskViewClient client) {
+        mClient = client;
+    }
+
+    /** Returns a proxy to this host, which parcels the calls. */
+    public ICarTaskViewHost asProxy() {
+        return ICarTaskViewHost.Stub.asInterface(this);
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        // Makes asInterface() return a proxy, also for the host returned by the SystemUI fake.
+        return null;
+    }
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        mLog.onTransact(code, data);
+        return super.onTransact(code, data, reply, flags);
+    }
+
+    @Override
+    public void release() {
+    }
+
+    @Override
+    public void startActivity(PendingIntent pendingIntent, Intent intent, Bundle options,
+                              Rect launchBounds) {
+    }
+
+    @Override
+    public void notifySurfaceCreated(SurfaceControl control) {
+    }
+
+    @Override
+    public void setWindowBounds(Rect bounds) {
+    }
+
+    @Override
+    public void notifySurfaceDestroyed() {
+    }
+
+    @Override
+    public void showEmbeddedTask() {
+    }
+
+    @Override
+    public void addInsets(int index, int type, Rect frame) {
+    }
+
+    @Override
+    public void removeInsets(int index, int type) {
+    }
+
+    @Override
+    public void setTaskVisibility(boolean visibility) {
+    }
+
+    @Override
+    public void reorderTask(boolean onTop) {
+    }
+
+    @Override
+    public void onTaskEventsHandled(long seq) {
+    }
+
+    @Override
+    public void setTaskInfoFilter(int fields) {
+    }
+}
@@ -0,0 +1,43 @@
+package com.android.wm.shell.ext;
+
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collection;
+
+/**
+ * Runs the JMH benchmarks of the task views in the Robolectric sandbox, where the framework
+ * classes they use are available, so without forking. By default each benchmark only runs
+ * briefly, to check it still works; {@code -Dtaskview.jmh=full} measures them, and
+ * {@code -Dtaskview.jmh.include=<regexp>} selects some of them.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JmhBenchmarksTest {
+    private static final String BENCHMARKS = "com\\.android\\.wm\\.shell\\.ext\\..*Benchmark";
+
+    @Test
+    public void runsTheBenchmarks() throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(System.getProperty("taskview.jmh.include", BENCHMARKS))
+                .forks(0)
+                .shouldFailOnError(true);
+        if (!"full".equals(System.getProperty("taskview.jmh"))) {
+            options.warmupIterations(0)
+                    .measurementIterations(1)
+                    .measurementTime(TimeValue.milliseconds(20));
+        }
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        assertFalse(results.isEmpty());
+    }
+}
@@ -0,0 +1,266 @@
+package com.android.wm.shell.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.robolectric.shadows.ShadowLooper.shadowMainLooper;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.view.SurfaceControl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class RemoteCarTaskViewOutboxTest {
+    private static final Rect BOUNDS_1 = new Rect(0, 0, 100, 200);
+    private static final Rect BOUNDS_2 = new Rect(10, 10, 110, 210);
+    private static final Rect INSETS_FRAME = new Rect(0, 0, 100, 20);
+
+    private final RecordingHost mHost = new RecordingHost();
+    private final RemoteCarTaskViewOutbox mOutbox = new RemoteCarTaskViewOutbox();
+
+    @Before
+    public void setUp() {
+        mOutbox.setHost(mHost);
+    }
+
+    @Test
+    public void conflatesCallsWithinAFrame() {
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.setWindowBounds(BOUNDS_2);
+        mOutbox.setTaskVisibility(false);
+        mOutbox.setTaskVisibility(true);
+        mOutbox.addInsets(0, 1, INSETS_FRAME);
+        mOutbox.removeInsets(0, 1);
+
+        assertEquals(List.of(), mHost.mCalls);
+        shadowMainLooper().idleFor(Duration.ofMillis(100));
+
+        assertEquals(List.of("setWindowBounds " + BOUNDS_2, "setTaskVisibility true",
+                "removeInsets 0 1"), mHost.mCalls);
+        assertEquals(6, mOutbox.getQueuedCount());
+        assertEquals(3, mOutbox.getSentCount());
+        assertEquals(3, mOutbox.getSuppressedCount());
+    }
+
+    @Test
+    public void sendsConflatedCallsInTheOrderOfTheirLastCall() {
+        mOutbox.setTaskVisibility(false);
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.reorderTask(false);
+        mOutbox.setTaskVisibility(true);
+        mOutbox.flush();
+
+        assertEquals(List.of("setWindowBounds " + BOUNDS_1, "reorderTask false",
+                "setTaskVisibility true"), mHost.mCalls);
+    }
+
+    @Test
+    public void reorderAfterShowEmbeddedTaskIsSentLast() {
+        mOutbox.suspend();
+        mOutbox.showEmbeddedTask();
+        mOutbox.reorderTask(false);
+        mOutbox.resume();
+        mOutbox.flush();
+
+        assertEquals(List.of("showEmbeddedTask", "reorderTask false"), mHost.mCalls);
+    }
+
+    @Test
+    public void dropsValuesAlreadySentToTheHost() {
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.setTaskVisibility(true);
+        mOutbox.addInsets(0, 1, INSETS_FRAME);
+        mOutbox.flush();
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.setTaskVisibility(true);
+        mOutbox.addInsets(0, 1, INSETS_FRAME);
+        mOutbox.flush();
+
+        assertEquals(List.of("setWindowBounds " + BOUNDS_1, "setTaskVisibility true",
+                "addInsets 0 1 " + INSETS_FRAME), mHost.mCalls);
+        assertEquals(3, mOutbox.getSuppressedCount());
+    }
+
+    @Test
+    public void reorderIsNotADuplicate() {
+        mOutbox.reorderTask(true);
+        mOutbox.flush();
+        mOutbox.reorderTask(true);
+        mOutbox.flush();
+
+        assertEquals(List.of("reorderTask true", "reorderTask true"), mHost.mCalls);
+    }
+
+    @Test
+    public void showEmbeddedTaskCountsAsVisible() {
+        mOutbox.showEmbeddedTask();
+        mOutbox.setTaskVisibility(true);
+        mOutbox.flush();
+        mOutbox.setTaskVisibility(false);
+        mOutbox.flush();
+
+        assertEquals(List.of("showEmbeddedTask", "setTaskVisibility false"), mHost.mCalls);
+    }
+
+    @Test
+    public void invalidateSentStateResendsTheSameValues() {
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.flush();
+        mOutbox.invalidateSentState();
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.flush();
+
+        assertEquals(List.of("setWindowBounds " + BOUNDS_1, "setWindowBounds " + BOUNDS_1),
+                mHost.mCalls);
+    }
+
+    @Test
+    public void drainToTakesThePendingCommandsWhileSuspended() {
+        mOutbox.suspend();
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.addInsets(1, 2, INSETS_FRAME);
+        mOutbox.setWindowBounds(BOUNDS_2);
+        mOutbox.showEmbeddedTask();
+        mOutbox.flush();
+        shadowMainLooper().idleFor(Duration.ofMillis(100));
+        assertEquals(List.of(), mHost.mCalls);
+
+        List<CarTaskViewOperation> ops = new ArrayList<>();
+        mOutbox.drainTo(ops);
+
+        assertEquals(List.of("addInsets 1 2 " + INSETS_FRAME, "setWindowBounds " + BOUNDS_2,
+                "showEmbeddedTask"), describe(ops));
+        for (CarTaskViewOperation op : ops) {
+            assertSame(mHost.asBinder(), op.getHostToken());
+        }
+
+        // The drained values count as sent.
+        mOutbox.resume();
+        mOutbox.setWindowBounds(BOUNDS_2);
+        mOutbox.flush();
+        ops.clear();
+        mOutbox.drainTo(ops);
+        assertEquals(List.of(), mHost.mCalls);
+        assertEquals(List.of(), ops);
+    }
+
+    @Test
+    public void clearDropsThePendingCommands() {
+        mOutbox.setWindowBounds(BOUNDS_1);
+        mOutbox.clear();
+        shadowMainLooper().idleFor(Duration.ofMillis(100));
+        mOutbox.flush();
+
+        assertEquals(List.of(), mHost.mCalls);
+    }
+
+    private static List<String> describe(List<CarTaskViewOperation> ops) {
+        RecordingHost host = new RecordingHost();
+        for (CarTaskViewOperation op : ops) {
+            switch (op.getType()) {
+                case CarTaskViewOperation.TYPE_SET_WINDOW_BOUNDS:
+                    host.setWindowBounds(op.getRect());
+                    break;
+                case CarTaskViewOperation.TYPE_SET_TASK_VISIBILITY:
+                    host.setTaskVisibility(op.getValue());
+                    break;
+                case CarTaskViewOperation.TYPE_REORDER_TASK:
+                    host.reorderTask(op.getValue());
+                    break;
+                case CarTaskViewOperation.TYPE_ADD_INSETS:
+                    host.addInsets(op.getInsetsIndex(), op.getInsetsType(), op.getRect());
+                    break;
+                case CarTaskViewOperation.TYPE_REMOVE_INSETS:
+                    host.removeInsets(op.getInsetsIndex(), op.getInsetsType());
+                    break;
+                case CarTaskViewOperation.TYPE_SHOW_EMBEDDED_TASK:
+                    host.showEmbeddedTask();
+                    break;
+            }
+        }
+        return host.mCalls;
+    }
+
+    private static final class RecordingHost extends ICarTaskViewHost.Stub {
+        final List<String> mCalls = new ArrayList<>();
+
+        private void record(Object... call) {
+            StringBuilder sb = new StringBuilder();
+            for (Object o : call) {
+                sb.append(sb.length() == 0 ? "" : " ").append(o);
+            }
+            mCalls.add(sb.toString());
+        }
+
+        @Override
+        public void release() {
+            record("release");
+        }
+
+        @Override
+        public void startActivity(PendingIntent pendingIntent, Intent intent, Bundle options,
+                                  Rect launchBounds) {
+            record("startActivity");
+        }
+
+        @Override
+        public void notifySurfaceCreated(SurfaceControl control) {
+            record("notifySurfaceCreated");
+        }
+
+        @Override
+        public void setWindowBounds(Rect bounds) {
+            record("setWindowBounds", bounds);
+        }
+
+        @Override
+        public void notifySurfaceDestroyed() {
+            record("notifySurfaceDestroyed");
+        }
+
+        @Override
+        public void showEmbeddedTask() {
+            record("showEmbeddedTask");
+        }
+
+        @Override
+        public void addInsets(int index, int type, Rect frame) {
+            record("addInsets", index, type, frame);
+        }
+
+        @Override
+        public void removeInsets(int index, int type) {
+            record("removeInsets", index, type);
+        }
+
+        @Override
+        public void setTaskVisibility(boolean visibility) {
+            record("setTaskVisibility", visibility);
+        }
+
+        @Override
+        public void reorderTask(boolean onTop) {
+            record("reorderTask", onTop);
+        }
+
+        @Override
+        public void onTaskEventsHandled(long seq) {
+            record("onTaskEventsHandled", seq);
+        }
+
+        @Override
+        public void setTaskInfoFilter(int fields) {
+            record("setTaskInfoFilter", fields);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.android.wm.shell.ext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A restart of {@link RunnerWithBackoff}, as made by each {@code startActivity} of a task view
+ * which restarts its task: the first try runs synchronously, the retry is posted then removed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RunnerWithBackoffBenchmark {
+    private int mRuns;
+    private RunnerWithBackoff mRunner;
+
+    @Setup
+    public void setUp() {
+        mRunner = new RunnerWithBackoff(() -> mRuns++);
+    }
+
+    @Benchmark
+    public int startStop() {
+        mRunner.start();
+        mRunner.stop();
+        return mRuns;
+    }
+}
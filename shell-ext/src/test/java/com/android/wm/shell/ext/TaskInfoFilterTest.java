@@ -0,0 +1,101 @@
+package com.android.wm.shell.ext;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.ActivityManager;
+import android.app.WindowConfiguration;
+import android.content.ComponentName;
+import android.graphics.Rect;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TaskInfoFilterTest {
+    private static final int TASK_ID = 7;
+    private static final ComponentName ACTIVITY = new ComponentName("pkg", "pkg.Activity");
+
+    @Test
+    public void getChangedFields_noOldInfo_returnsAllTheFields() {
+        assertEquals(TaskInfoFilter.FIELDS_ALL | TaskInfoFilter.FIELD_ANY,
+                TaskInfoFilter.getChangedFields(null, taskInfo(TASK_ID)));
+    }
+
+    @Test
+    public void getChangedFields_otherTask_returnsAllTheFields() {
+        assertEquals(TaskInfoFilter.FIELDS_ALL | TaskInfoFilter.FIELD_ANY,
+                TaskInfoFilter.getChangedFields(taskInfo(TASK_ID), taskInfo(TASK_ID + 1)));
+    }
+
+    @Test
+    public void getChangedFields_sameInfo_returnsOnlyAny() {
+        assertEquals(TaskInfoFilter.FIELD_ANY,
+                TaskInfoFilter.getChangedFields(taskInfo(TASK_ID), taskInfo(TASK_ID)));
+    }
+
+    @Test
+    public void getChangedFields_returnsEachChangedField() {
+        ActivityManager.RunningTaskInfo visibility = taskInfo(TASK_ID);
+        visibility.isVisibleRequested = false;
+        assertChanged(TaskInfoFilter.FIELD_VISIBILITY, visibility);
+
+        ActivityManager.RunningTaskInfo bounds = taskInfo(TASK_ID);
+        bounds.configuration.windowConfiguration.setBounds(new Rect(0, 0, 50, 50));
+        assertChanged(TaskInfoFilter.FIELD_BOUNDS, bounds);
+
+        ActivityManager.RunningTaskInfo topActivity = taskInfo(TASK_ID);
+        topActivity.topActivity = new ComponentName("pkg", "pkg.Other");
+        assertChanged(TaskInfoFilter.FIELD_TOP_ACTIVITY, topActivity);
+
+        ActivityManager.RunningTaskInfo description = taskInfo(TASK_ID);
+        description.taskDescription = new ActivityManager.TaskDescription("label");
+        assertChanged(TaskInfoFilter.FIELD_TASK_DESCRIPTION, description);
+
+        ActivityManager.RunningTaskInfo display = taskInfo(TASK_ID);
+        display.displayId = 2;
+        assertChanged(TaskInfoFilter.FIELD_DISPLAY, display);
+
+        ActivityManager.RunningTaskInfo windowingMode = taskInfo(TASK_ID);
+        windowingMode.configuration.windowConfiguration.setWindowingMode(
+                WindowConfiguration.WINDOWING_MODE_FULLSCREEN);
+        assertChanged(TaskInfoFilter.FIELD_WINDOWING_MODE, windowingMode);
+
+        ActivityManager.RunningTaskInfo focus = taskInfo(TASK_ID);
+        focus.isFocused = true;
+        assertChanged(TaskInfoFilter.FIELD_FOCUS, focus);
+
+        ActivityManager.RunningTaskInfo running = taskInfo(TASK_ID);
+        running.isRunning = false;
+        assertChanged(TaskInfoFilter.FIELD_RUNNING, running);
+    }
+
+    @Test
+    public void getChangedFields_otherFieldChanged_returnsOnlyAny() {
+        ActivityManager.RunningTaskInfo newInfo = taskInfo(TASK_ID);
+        newInfo.numActivities = 2;
+
+        assertEquals(TaskInfoFilter.FIELD_ANY,
+                TaskInfoFilter.getChangedFields(taskInfo(TASK_ID), newInfo));
+    }
+
+    private static void assertChanged(int field, ActivityManager.RunningTaskInfo newInfo) {
+        assertEquals(Integer.toHexString(field), TaskInfoFilter.FIELD_ANY | field,
+                TaskInfoFilter.getChangedFields(taskInfo(TASK_ID), newInfo));
+    }
+
+    private static ActivityManager.RunningTaskInfo taskInfo(int taskId) {
+        ActivityManager.RunningTaskInfo taskInfo = new ActivityManager.RunningTaskInfo();
+        taskInfo.taskId = taskId;
+        taskInfo.isVisible = true;
+        taskInfo.isVisibleRequested = true;
+        taskInfo.isRunning = true;
+        taskInfo.topActivity = ACTIVITY;
+        taskInfo.baseActivity = ACTIVITY;
+        taskInfo.numActivities = 1;
+        taskInfo.configuration.windowConfiguration.setBounds(new Rect(0, 0, 100, 200));
+        taskInfo.configuration.windowConfiguration.setWindowingMode(
+                WindowConfiguration.WINDOWING_MODE_MULTI_WINDOW);
+        return taskInfo;
+    }
+}
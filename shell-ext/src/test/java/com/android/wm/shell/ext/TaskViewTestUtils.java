@@ -0,0 +1,31 @@
+package com.android.wm.shell.ext;
+
+import android.content.Context;
+
+/** Creates the package private parts of the task views for the tests of the other packages. */
+public final class TaskViewTestUtils {
+
+    private TaskViewTestUtils() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Returns the server side of {@code client}, as created for a new task view. */
+    public static CarTaskViewClient newCarTaskViewClient(ICarTaskViewClient client) {
+        return new CarTaskViewClient(client);
+    }
+
+    /** Returns the binder through which the client calls {@code host}. */
+    public static ICarTaskViewHost newHostBinder(CarTaskViewHost host) {
+        return new CarTaskViewHostAidlToImplAdapter(host);
+    }
+
+    /** Returns the {@link CarActivityManager} of the process, connected to {@code service}. */
+    public static CarActivityManager connectCarActivityManager(Context context,
+            ICarActivityService service) {
+        CarActivityManager manager = CarActivityManager.get(context);
+        // Drops the task monitor of the previous test, the manager is a singleton.
+        manager.onCarDisconnected();
+        manager.onCarConnected(service);
+        return manager;
+    }
+}
@@ -0,0 +1,86 @@
+package com.android.wm.shell.ext.system;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.os.RemoteException;
+
+import com.android.wm.shell.ShellTaskOrganizer;
+import com.android.wm.shell.common.ShellExecutor;
+import com.android.wm.shell.common.SyncTransactionQueue;
+import com.android.wm.shell.ext.BinderCallLog;
+import com.android.wm.shell.ext.CarActivityServiceProvider;
+import com.android.wm.shell.ext.FakeCarActivityService;
+import com.android.wm.shell.ext.FakeCarTaskViewClient;
+import com.android.wm.shell.ext.ICarSystemUIProxy;
+import com.android.wm.shell.ext.ICarTaskViewHost;
+import com.android.wm.shell.ext.TaskViewTestUtils;
+import com.android.wm.shell.sysui.ShellCommandHandler;
+import com.android.wm.shell.taskview.TaskViewTransitions;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+/**
+ * Checks the binder calls, and the size of their parcels, that the SystemUI makes on the car
+ * service when it connects and on the clients of its task views.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CarSystemUIProxyImplTest {
+    // See CarTaskViewBinderBudgetTest, the two registrations carry a binder each.
+    private static final int MAX_CONNECT_BYTES = 320;
+
+    private final FakeCarActivityService mService = new FakeCarActivityService();
+    private final FakeCarTaskViewClient mClient = new FakeCarTaskViewClient();
+    private CarSystemUIProxyImpl mProxy;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        // Runs on the test thread, which is the main thread of Robolectric.
+        ShellExecutor executor = mock(ShellExecutor.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(executor).execute(any());
+        mProxy = new CarSystemUIProxyImpl(context, mock(CarActivityServiceProvider.class),
+                mock(SyncTransactionQueue.class), mock(ShellTaskOrganizer.class),
+                mock(TaskViewTransitions.class), mock(ShellCommandHandler.class), executor,
+                executor);
+        mProxy.onConnected(TaskViewTestUtils.connectCarActivityManager(context,
+                mService.asProxy()));
+    }
+
+    @Test
+    public void connectRegistersTheTaskMonitorAndTheSystemUI() {
+        assertBudget(mService.mLog, List.of("registerTaskMonitor", "registerCarSystemUIProxy"),
+                MAX_CONNECT_BYTES);
+        assertNotNull(mService.getCarSystemUIProxy());
+    }
+
+    @Test
+    public void createAndReleaseDontCallTheClient() throws RemoteException {
+        ICarSystemUIProxy systemUI = mService.getCarSystemUIProxy();
+
+        ICarTaskViewHost host = systemUI.createControlledCarTaskView(mClient.asProxy());
+        host.release();
+
+        assertBudget(mClient.mLog, List.of(), 0);
+        assertEquals(List.of(), mProxy.getAllTaskViews());
+    }
+
+    private static void assertBudget(BinderCallLog log, List<String> calls, int maxBytes) {
+        assertEquals(calls, log.getCalls());
+        assertTrue(log + " is over " + maxBytes + " bytes", log.getDataSize() <= maxBytes);
+    }
+}
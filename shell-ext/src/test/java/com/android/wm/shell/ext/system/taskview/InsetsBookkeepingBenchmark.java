@@ -0,0 +1,101 @@
+package com.android.wm.shell.ext.system.taskview;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.app.ActivityManager;
+import android.graphics.Rect;
+import android.os.Binder;
+import android.util.SparseArray;
+import android.view.InsetsSource;
+import android.view.WindowInsets;
+import android.window.WindowContainerToken;
+import android.window.WindowContainerTransaction;
+
+import com.android.wm.shell.ShellTaskOrganizer;
+import com.android.wm.shell.common.ShellExecutor;
+import com.android.wm.shell.ext.CarTaskViewClient;
+import com.android.wm.shell.ext.CarTaskViewOperation;
+import com.android.wm.shell.ext.system.CarSystemUIProxyImpl;
+import com.android.wm.shell.taskview.TaskViewTaskController;
+import com.android.wm.shell.taskview.TaskViewTransitions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The insets bookkeeping of {@link RemoteCarTaskViewServerImpl}, which keys its insets by
+ * {@link InsetsSource#createId} in a {@link SparseArray}: the bookkeeping alone, then with the
+ * operations appended to a shared transaction, as made by the batched task view updates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InsetsBookkeepingBenchmark {
+    private static final Rect FRAME = new Rect(0, 0, 100, 20);
+    private static final int TYPE = WindowInsets.Type.statusBars();
+
+    @Param({"2", "8"})
+    public int insets;
+
+    private final Binder mOwner = new Binder();
+    private final List<CarTaskViewOperation> mOperations = new ArrayList<>();
+    private RemoteCarTaskViewServerImpl mServer;
+
+    @Setup
+    public void setUp() {
+        TaskViewTaskController controller = mock(TaskViewTaskController.class);
+        WindowContainerToken token = mock(WindowContainerToken.class);
+        when(token.asBinder()).thenReturn(new Binder());
+        ActivityManager.RunningTaskInfo taskInfo = new ActivityManager.RunningTaskInfo();
+        taskInfo.token = token;
+        when(controller.getTaskInfo()).thenReturn(taskInfo);
+        mServer = new RemoteCarTaskViewServerImpl(RuntimeEnvironment.getApplication(),
+                mock(CarTaskViewClient.class), mock(CarSystemUIProxyImpl.class),
+                mock(TaskViewTransitions.class), new WindowContainerTransactionCoalescer(
+                        mock(ShellTaskOrganizer.class), mock(ShellExecutor.class)),
+                controller);
+        Binder host = new Binder();
+        for (int i = 0; i < insets; i++) {
+            mOperations.add(CarTaskViewOperation.addInsets(host, i, TYPE, FRAME));
+        }
+        for (int i = 0; i < insets; i++) {
+            mOperations.add(CarTaskViewOperation.removeInsets(host, i, TYPE));
+        }
+    }
+
+    @Benchmark
+    public int addAndRemove() {
+        SparseArray<Rect> sources = new SparseArray<>();
+        for (int i = 0; i < insets; i++) {
+            sources.append(InsetsSource.createId(mOwner, i, TYPE), FRAME);
+        }
+        for (int i = 0; i < insets; i++) {
+            int id = InsetsSource.createId(mOwner, i, TYPE);
+            if (sources.contains(id)) {
+                sources.remove(id);
+            }
+        }
+        return sources.size();
+    }
+
+    @Benchmark
+    public WindowContainerTransaction appendOperations() {
+        WindowContainerTransaction wct = new WindowContainerTransaction();
+        for (int i = 0; i < mOperations.size(); i++) {
+            mServer.appendOperation(mOperations.get(i), wct);
+        }
+        return wct;
+    }
+}
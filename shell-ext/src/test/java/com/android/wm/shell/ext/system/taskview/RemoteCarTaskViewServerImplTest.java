@@ -0,0 +1,312 @@
+package com.android.wm.shell.ext.system.taskview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.shadows.ShadowLooper.shadowMainLooper;
+
+import android.app.ActivityManager;
+import android.app.WindowConfiguration;
+import android.graphics.Rect;
+import android.os.Binder;
+import android.os.RemoteException;
+import android.view.SurfaceControl;
+import android.view.WindowInsets;
+import android.window.WindowContainerToken;
+import android.window.WindowContainerTransaction;
+
+import com.android.wm.shell.ShellTaskOrganizer;
+import com.android.wm.shell.common.ShellExecutor;
+import com.android.wm.shell.ext.CarTaskEvent;
+import com.android.wm.shell.ext.CarTaskViewOperation;
+import com.android.wm.shell.ext.ICarTaskViewClient;
+import com.android.wm.shell.ext.ICarTaskViewHost;
+import com.android.wm.shell.ext.TaskInfoFilter;
+import com.android.wm.shell.ext.TaskViewTestUtils;
+import com.android.wm.shell.ext.system.CarSystemUIProxyImpl;
+import com.android.wm.shell.taskview.TaskViewTaskController;
+import com.android.wm.shell.taskview.TaskViewTransitions;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the traffic of a task view through {@link RemoteCarTaskViewServerImpl}: the host
+ * commands of the client, the task events of WM Shell, and checks the transactions applied to
+ * WM along with the events sent back to the client.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RemoteCarTaskViewServerImplTest {
+    private static final int TASK_ID = 7;
+    private static final Rect BOUNDS_1 = new Rect(0, 0, 100, 200);
+    private static final Rect BOUNDS_2 = new Rect(10, 10, 110, 210);
+    private static final Rect INSETS_FRAME = new Rect(0, 0, 100, 20);
+    private static final int INSETS_TYPE = WindowInsets.Type.statusBars();
+    private static final long TIMEOUT_MS = 5_000;
+
+    // The applied transactions and the events received by the client, in order.
+    private final List<String> mTraffic = new ArrayList<>();
+    private final ShellTaskOrganizer mOrganizer = mock(ShellTaskOrganizer.class);
+    private final TaskViewTaskController mController = mock(TaskViewTaskController.class);
+    private final TaskViewTransitions mTransitions = mock(TaskViewTransitions.class);
+    private final CarSystemUIProxyImpl mProxy = mock(CarSystemUIProxyImpl.class);
+    private final WindowContainerToken mToken = mock(WindowContainerToken.class);
+    private final RecordingClient mClient = new RecordingClient();
+
+    private RemoteCarTaskViewServerImpl mServer;
+    private ICarTaskViewHost mHost;
+    private ActivityManager.RunningTaskInfo mTaskInfo;
+
+    @Before
+    public void setUp() {
+        // Runs on the test thread, which is the main thread of Robolectric.
+        ShellExecutor mainExecutor = mock(ShellExecutor.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(mainExecutor).execute(any());
+        doAnswer(invocation -> {
+            record("apply " + describe(invocation.getArgument(0)));
+            return null;
+        }).when(mOrganizer).applyTransaction(any());
+        when(mToken.asBinder()).thenReturn(new Binder());
+        when(mController.getTaskInfo()).thenAnswer(invocation -> mTaskInfo);
+
+        mServer = new RemoteCarTaskViewServerImpl(RuntimeEnvironment.getApplication(),
+                TaskViewTestUtils.newCarTaskViewClient(mClient), mProxy, mTransitions,
+                new WindowContainerTransactionCoalescer(mOrganizer, mainExecutor), mController);
+        mHost = TaskViewTestUtils.newHostBinder(mServer.getHostImpl());
+        mClient.mHost = mHost;
+    }
+
+    @Test
+    public void hostCommandsWithinAFrameAreAppliedAsOneTransaction() throws Exception {
+        taskAppeared();
+        mClient.awaitEvents(1);
+
+        mHost.setWindowBounds(BOUNDS_1);
+        mHost.setTaskVisibility(false);
+        mHost.addInsets(0, INSETS_TYPE, INSETS_FRAME);
+        mHost.setWindowBounds(BOUNDS_2);
+        mHost.setTaskVisibility(true);
+        mHost.reorderTask(false);
+        assertEquals(List.of("client appeared " + TASK_ID), traffic());
+
+        shadowMainLooper().idleFor(Duration.ofMillis(100));
+
+        assertEquals(List.of("client appeared " + TASK_ID,
+                "apply [bounds " + BOUNDS_2 + ", hidden false, addInsets 0 " + INSETS_TYPE + " "
+                        + INSETS_FRAME + ", reorder false]"), traffic());
+    }
+
+    @Test
+    public void appendedOperationsMatchTheHostCommands() throws Exception {
+        taskAppeared();
+        List<CarTaskViewOperation> ops = List.of(
+                CarTaskViewOperation.setWindowBounds(mHost.asBinder(), BOUNDS_1),
+                CarTaskViewOperation.addInsets(mHost.asBinder(), 0, INSETS_TYPE, INSETS_FRAME),
+                CarTaskViewOperation.showEmbeddedTask(mHost.asBinder()),
+                CarTaskViewOperation.removeInsets(mHost.asBinder(), 0, INSETS_TYPE));
+
+        WindowContainerTransaction wct = new WindowContainerTransaction();
+        for (CarTaskViewOperation op : ops) {
+            assertTrue(mServer.appendOperation(op, wct));
+        }
+        for (CarTaskViewOperation op : ops) {
+            op.applyTo(mServer.getHostImpl());
+        }
+        shadowMainLooper().idleFor(Duration.ofMillis(100));
+
+        assertEquals("apply " + describe(wct), traffic().get(traffic().size() - 1));
+    }
+
+    @Test
+    public void insetsAreAppliedBeforeTheClientIsToldOfTheTask() throws Exception {
+        mHost.addInsets(0, INSETS_TYPE, INSETS_FRAME);
+        shadowMainLooper().idleFor(Duration.ofMillis(100));
+        assertEquals(List.of(), traffic());
+
+        taskAppeared();
+        mClient.awaitEvents(1);
+
+        assertEquals(List.of("apply [addInsets 0 " + INSETS_TYPE + " " + INSETS_FRAME + "]",
+                "client appeared " + TASK_ID), traffic());
+    }
+
+    @Test
+    public void taskInfoChangesOutsideTheFilterAreNotSentToTheClient() throws Exception {
+        mHost.setTaskInfoFilter(TaskInfoFilter.FIELD_VISIBILITY);
+        taskAppeared();
+
+        ActivityManager.RunningTaskInfo resized = newTaskInfo(/* visible= */ true);
+        resized.configuration.windowConfiguration.setBounds(BOUNDS_2);
+        mServer.onTaskInfoChanged(resized);
+        mServer.onTaskInfoChanged(newTaskInfo(/* visible= */ false));
+        mServer.onTaskVanished(mTaskInfo);
+        mClient.awaitEvents(3);
+
+        assertEquals(List.of("client appeared " + TASK_ID,
+                "client infoChanged " + TASK_ID + " visible=false",
+                "client vanished " + TASK_ID), traffic());
+    }
+
+    @Test
+    public void releaseAppliesThePendingCommandsFirst() throws Exception {
+        taskAppeared();
+        mClient.awaitEvents(1);
+        mHost.setWindowBounds(BOUNDS_2);
+
+        mHost.release();
+
+        InOrder inOrder = inOrder(mOrganizer, mController, mProxy);
+        inOrder.verify(mOrganizer).applyTransaction(any());
+        inOrder.verify(mController).release();
+        inOrder.verify(mProxy).onCarTaskViewReleased(mServer);
+        // Nothing is sent to a released client.
+        mServer.onTaskVanished(mTaskInfo);
+        shadowMainLooper().idleFor(Duration.ofMillis(100));
+        assertEquals(List.of("client appeared " + TASK_ID, "apply [bounds " + BOUNDS_2 + "]"),
+                traffic());
+    }
+
+    private void taskAppeared() {
+        mTaskInfo = newTaskInfo(/* visible= */ true);
+        mServer.onTaskAppeared(mTaskInfo, newLeash());
+    }
+
+    private ActivityManager.RunningTaskInfo newTaskInfo(boolean visible) {
+        ActivityManager.RunningTaskInfo taskInfo = new ActivityManager.RunningTaskInfo();
+        taskInfo.taskId = TASK_ID;
+        taskInfo.token = mToken;
+        taskInfo.isVisible = visible;
+        taskInfo.configuration.windowConfiguration.setBounds(BOUNDS_1);
+        return taskInfo;
+    }
+
+    private static SurfaceControl newLeash() {
+        return new SurfaceControl.Builder().setName("leash").build();
+    }
+
+    private void record(String traffic) {
+        synchronized (mTraffic) {
+            mTraffic.add(traffic);
+        }
+    }
+
+    private List<String> traffic() {
+        synchronized (mTraffic) {
+            return new ArrayList<>(mTraffic);
+        }
+    }
+
+    private static List<String> describe(WindowContainerTransaction wct) {
+        List<String> ops = new ArrayList<>();
+        for (Map.Entry<?, WindowContainerTransaction.Change> entry
+                : wct.getChanges().entrySet()) {
+            WindowContainerTransaction.Change change = entry.getValue();
+            if ((change.getWindowSetMask() & WindowConfiguration.WINDOW_CONFIG_BOUNDS) != 0) {
+                ops.add("bounds " + change.getConfiguration().windowConfiguration.getBounds());
+            }
+            if ((change.getChangeMask() & WindowContainerTransaction.Change.CHANGE_HIDDEN) != 0) {
+                ops.add("hidden " + change.getHidden());
+            }
+        }
+        for (WindowContainerTransaction.HierarchyOp op : wct.getHierarchyOps()) {
+            int type = op.getType();
+            if (type == WindowContainerTransaction.HierarchyOp.HIERARCHY_OP_TYPE_REORDER) {
+                ops.add("reorder " + op.getToTop());
+            } else if (type == WindowContainerTransaction.HierarchyOp
+                    .HIERARCHY_OP_TYPE_ADD_INSETS_FRAME_PROVIDER) {
+                ops.add("addInsets " + op.getInsetsFrameProvider().getIndex() + " "
+                        + op.getInsetsFrameProvider().getType() + " "
+                        + op.getInsetsFrameProvider().getArbitraryRectangle());
+            } else if (type == WindowContainerTransaction.HierarchyOp
+                    .HIERARCHY_OP_TYPE_REMOVE_INSETS_FRAME_PROVIDER) {
+                ops.add("removeInsets " + op.getInsetsFrameProvider().getIndex() + " "
+                        + op.getInsetsFrameProvider().getType());
+            } else {
+                ops.add("op " + type);
+            }
+        }
+        return ops;
+    }
+
+    /** Records the task events and acknowledges each batch, as the client app does. */
+    private final class RecordingClient extends ICarTaskViewClient.Stub {
+        volatile ICarTaskViewHost mHost;
+        private int mEventCount;
+
+        @Override
+        public Rect getCurrentBoundsOnScreen() {
+            return new Rect(BOUNDS_1);
+        }
+
+        @Override
+        public void setResizeBackgroundColor(SurfaceControl.Transaction transaction, int color) {
+        }
+
+        @Override
+        public void onTaskAppeared(ActivityManager.RunningTaskInfo taskInfo,
+                                   SurfaceControl leash) {
+        }
+
+        @Override
+        public void onTaskVanished(ActivityManager.RunningTaskInfo taskInfo) {
+        }
+
+        @Override
+        public void onTaskInfoChanged(ActivityManager.RunningTaskInfo taskInfo) {
+        }
+
+        @Override
+        public void onTaskEvents(List<CarTaskEvent> events, long seq) throws RemoteException {
+            for (CarTaskEvent event : events) {
+                ActivityManager.RunningTaskInfo taskInfo = event.getTaskInfo();
+                switch (event.getType()) {
+                    case CarTaskEvent.TYPE_TASK_APPEARED:
+                        record("client appeared " + taskInfo.taskId);
+                        break;
+                    case CarTaskEvent.TYPE_TASK_INFO_CHANGED:
+                        record("client infoChanged " + taskInfo.taskId + " visible="
+                                + taskInfo.isVisible);
+                        break;
+                    case CarTaskEvent.TYPE_TASK_VANISHED:
+                        record("client vanished " + taskInfo.taskId);
+                        break;
+                    default:
+                        record("client event " + event.getType());
+                }
+            }
+            synchronized (this) {
+                mEventCount += events.size();
+                notifyAll();
+            }
+            mHost.onTaskEventsHandled(seq);
+        }
+
+        synchronized void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (mEventCount < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new AssertionError("Received " + mEventCount + " events, expected "
+                            + count);
+                }
+                wait(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.android.wm.shell.ext.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Process;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+public class FlightRecorderTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void decodesTheRecordsInOrder() throws Exception {
+        File file = mFolder.newFile("test.flight");
+        FlightRecorder recorder = FlightRecorder.open(file, /* capacity= */ 16);
+        recorder.record(FlightRecorder.EVENT_TASK_APPEARED, 7, 0, FlightRecorder.FLAG_VISIBLE);
+        recorder.record(FlightRecorder.EVENT_HOST_OPERATION, 3, FlightRecorder.DECISION_DIRECT,
+                42);
+        recorder.close();
+
+        List<String[]> rows = decodeCsv(file);
+
+        assertEquals(3, rows.size());
+        assertRow(rows.get(0), 1, "RECORDER_OPENED", Process.myPid());
+        assertRow(rows.get(1), 2, "TASK_APPEARED", 7, 0, FlightRecorder.FLAG_VISIBLE);
+        assertRow(rows.get(2), 3, "HOST_OPERATION", 3, FlightRecorder.DECISION_DIRECT, 42);
+        assertTrue(decodeText(file).contains("TASK_APPEARED taskId=7 displayId=0 visible=true"));
+    }
+
+    @Test
+    public void keepsTheLastRecordsOnceTheRingIsFull() throws Exception {
+        File file = mFolder.newFile("test.flight");
+        FlightRecorder recorder = FlightRecorder.open(file, /* capacity= */ 4);
+        for (int i = 0; i < 9; i++) {
+            recorder.record(FlightRecorder.EVENT_TASK_INFO_CHANGED, i, 0, 0);
+        }
+        recorder.close();
+
+        List<String[]> rows = decodeCsv(file);
+
+        assertEquals(4, rows.size());
+        for (int i = 0; i < 4; i++) {
+            assertRow(rows.get(i), 7 + i, "TASK_INFO_CHANGED", 5 + i, 0, 0);
+        }
+    }
+
+    @Test
+    public void continuesTheFileOfThePreviousProcess() throws Exception {
+        File file = mFolder.newFile("test.flight");
+        FlightRecorder first = FlightRecorder.open(file, /* capacity= */ 16);
+        first.record(FlightRecorder.EVENT_TASK_VANISHED, 1, 0, 0);
+        first.close();
+
+        FlightRecorder second = FlightRecorder.open(file, /* capacity= */ 16);
+        second.record(FlightRecorder.EVENT_TASK_VANISHED, 2, 0, 0);
+        second.close();
+
+        List<String[]> rows = decodeCsv(file);
+        assertEquals(4, rows.size());
+        assertRow(rows.get(1), 2, "TASK_VANISHED", 1, 0, 0);
+        assertRow(rows.get(2), 3, "RECORDER_OPENED", Process.myPid());
+        assertRow(rows.get(3), 4, "TASK_VANISHED", 2, 0, 0);
+    }
+
+    @Test
+    public void aFileOfAnotherCapacityIsStartedOver() throws Exception {
+        File file = mFolder.newFile("test.flight");
+        FlightRecorder first = FlightRecorder.open(file, /* capacity= */ 16);
+        first.record(FlightRecorder.EVENT_TASK_VANISHED, 1, 0, 0);
+        first.close();
+
+        FlightRecorder.open(file, /* capacity= */ 8).close();
+
+        List<String[]> rows = decodeCsv(file);
+        assertEquals(1, rows.size());
+        assertRow(rows.get(0), 1, "RECORDER_OPENED", Process.myPid());
+    }
+
+    @Test
+    public void recordsInParallelWithoutLosingAnyRecord() throws Exception {
+        File file = mFolder.newFile("test.flight");
+        FlightRecorder recorder = FlightRecorder.open(file, /* capacity= */ 1024);
+        int threads = 4;
+        int recordsPerThread = 200;
+        ArrayList<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; i++) {
+                    recorder.record(FlightRecorder.EVENT_TASK_APPEARED, thread, i, 0);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        recorder.close();
+
+        List<String[]> rows = decodeCsv(file);
+        assertEquals(1 + threads * recordsPerThread, rows.size());
+        Set<String> records = new HashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(i + 1, Long.parseLong(rows.get(i)[0]));
+            records.add(rows.get(i)[4] + "/" + rows.get(i)[5]);
+        }
+        assertEquals(1 + threads * recordsPerThread, records.size());
+    }
+
+    @Test
+    public void openAsyncDropsTheRecordsMadeBeforeTheFileIsMapped() throws Exception {
+        File file = new File(mFolder.getRoot(), "async.flight");
+        List<Runnable> tasks = new ArrayList<>();
+        FlightRecorder recorder = FlightRecorder.openAsync(() -> file, /* capacity= */ 16,
+                tasks::add);
+        recorder.record(FlightRecorder.EVENT_HOST_CONNECTION_CHANGED, 1, 0, 0);
+        assertNull(recorder.getFile());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        recorder.record(FlightRecorder.EVENT_HOST_CONNECTION_CHANGED, 0, 0, 0);
+        recorder.close();
+
+        assertEquals(file, recorder.getFile());
+        List<String[]> rows = decodeCsv(file);
+        assertEquals(2, rows.size());
+        assertRow(rows.get(0), 1, "RECORDER_OPENED", Process.myPid());
+        assertRow(rows.get(1), 2, "HOST_CONNECTION_CHANGED", 0, 0, 0);
+    }
+
+    @Test
+    public void openAsyncAfterCloseRecordsNothing() throws Exception {
+        File file = new File(mFolder.getRoot(), "async.flight");
+        List<Runnable> tasks = new ArrayList<>();
+        FlightRecorder recorder = FlightRecorder.openAsync(() -> file, /* capacity= */ 16,
+                tasks::add);
+        recorder.close();
+        tasks.get(0).run();
+        recorder.record(FlightRecorder.EVENT_HOST_CONNECTION_CHANGED, 1, 0, 0);
+
+        assertEquals(List.of(), decodeCsv(file));
+    }
+
+    @Test
+    public void decodeRejectsOtherFiles() throws Exception {
+        File file = mFolder.newFile("other.flight");
+        Files.write(file.toPath(), new byte[64]);
+
+        assertThrows(IOException.class, () -> decodeCsv(file));
+    }
+
+    private static List<String[]> decodeCsv(File file) throws IOException {
+        String[] lines = decode(file, /* csv= */ true).split("\n");
+        assertEquals("seq,elapsed_realtime_nanos,wall_time_millis,event,arg0,arg1,arg2",
+                lines[0]);
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) {
+            rows.add(lines[i].split(","));
+        }
+        return rows;
+    }
+
+    private static String decodeText(File file) throws IOException {
+        return decode(file, /* csv= */ false);
+    }
+
+    private static String decode(File file, boolean csv) throws IOException {
+        StringWriter out = new StringWriter();
+        PrintWriter pw = new PrintWriter(out);
+        FlightRecordDecoder.decode(file, pw, csv);
+        pw.flush();
+        return out.toString().replace("\r", "");
+    }
+
+    private static void assertRow(String[] row, long seq, String event, int... args) {
+        assertEquals(seq, Long.parseLong(row[0]));
+        assertEquals(event, row[3]);
+        for (int i = 0; i < args.length; i++) {
+            assertEquals(args[i], Integer.parseInt(row[4 + i]));
+        }
+    }
+}